@@ -0,0 +1,157 @@
+package engine;
+
+import java.util.Arrays;
+
+import model.Term;
+
+/**
+ * 1つの数式を列単位の入力に対してまとめて評価するクラス。
+ * 行ごとに命令列を解釈するのではなく、BLOCK_SIZE 行のブロックに対して1命令ずつ処理します。
+ * 内側のループは配列同士の単純な演算のみで構成されており、JIT のループ自動ベクトル化の対象になります。
+ */
+public final class BatchEvaluator {
+
+	/**
+	 * 1回の命令で処理する行数。
+	 */
+	public static final int BLOCK_SIZE = 1024;
+
+	private final PreparedExpression expression;
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param expression 評価する準備済みの数式
+	 */
+	public BatchEvaluator(PreparedExpression expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Termから評価器を作成します。
+	 *
+	 * @param term 数式を表現するTermオブジェクト
+	 * @return 評価器
+	 */
+	public static BatchEvaluator of(Term term) {
+		return new BatchEvaluator(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 各変数の列を評価し、結果を out に書き込みます。 columns[i] はスロット i の変数の列です。
+	 *
+	 * @param columns 変数ごとの入力列
+	 * @param out     出力先（この長さだけ評価する）
+	 * @throws IllegalArgumentException 列の数または長さが不足している場合
+	 */
+	public void evaluate(double[][] columns, double[] out) {
+		run(columns, out);
+	}
+
+	/**
+	 * 整数の列を評価し、結果を out に書き込みます。 入力はブロックごとに double に変換されます。
+	 *
+	 * @param columns 変数ごとの入力列
+	 * @param out     出力先（この長さだけ評価する）
+	 * @throws IllegalArgumentException 列の数または長さが不足している場合
+	 */
+	public void evaluate(long[][] columns, double[] out) {
+		run(columns, out);
+	}
+
+	/**
+	 * 各変数の列を評価し、結果を新しい配列で返します。
+	 *
+	 * @param columns 変数ごとの入力列
+	 * @return 評価結果
+	 */
+	public double[] evaluate(double[]... columns) {
+		double[] out = new double[columns.length == 0 ? 0 : columns[0].length];
+		run(columns, out);
+		return out;
+	}
+
+	/**
+	 * 評価する数式を返します。
+	 *
+	 * @return 準備済みの数式
+	 */
+	public PreparedExpression expression() {
+		return expression;
+	}
+
+	private void run(Object[] columns, double[] out) {
+		int rows = out.length;
+		if (columns.length < expression.arity())
+			throw new IllegalArgumentException("Expected " + expression.arity() + " columns, but found " + columns.length);
+		for (Object column : columns) {
+			int length = column instanceof double[] d ? d.length : ((long[]) column).length;
+			if (length < rows)
+				throw new IllegalArgumentException("Column length " + length + " is shorter than " + rows);
+		}
+		double[][] stack = new double[expression.maxStack()][BLOCK_SIZE];
+		for (int offset = 0; offset < rows; offset += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, rows - offset);
+			evaluateBlock(columns, offset, length, stack);
+			System.arraycopy(stack[0], 0, out, offset, length);
+		}
+	}
+
+	/**
+	 * 1ブロック分の命令列を実行する。 結果は stack[0] に残る。
+	 */
+	private void evaluateBlock(Object[] columns, int offset, int length, double[][] stack) {
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		double[] constants = expression.doubleConstants();
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+				case PreparedExpression.CONST -> Arrays.fill(stack[sp++], 0, length, constants[args[pc]]);
+				case PreparedExpression.LOAD -> load(columns[args[pc]], offset, length, stack[sp++]);
+				case PreparedExpression.ADD -> {
+					sp--;
+					add(stack[sp - 1], stack[sp], length);
+				}
+				case PreparedExpression.SUB -> {
+					sp--;
+					sub(stack[sp - 1], stack[sp], length);
+				}
+				case PreparedExpression.MUL -> {
+					sp--;
+					mul(stack[sp - 1], stack[sp], length);
+				}
+				case PreparedExpression.DIV -> {
+					sp--;
+					div(stack[sp - 1], stack[sp], length);
+				}
+				default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+			}
+		}
+	}
+
+	private static void load(Object column, int offset, int length, double[] dst) {
+		if (column instanceof double[] src) {
+			System.arraycopy(src, offset, dst, 0, length);
+		} else {
+			long[] src = (long[]) column;
+			for (int i = 0; i < length; i++) dst[i] = src[offset + i];
+		}
+	}
+
+	private static void add(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) a[i] += b[i];
+	}
+
+	private static void sub(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) a[i] -= b[i];
+	}
+
+	private static void mul(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) a[i] *= b[i];
+	}
+
+	private static void div(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) a[i] /= b[i];
+	}
+}
@@ -0,0 +1,354 @@
+package engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.BigFraction;
+import model.Term;
+
+/**
+ * 数式から JVM のクラスを生成し、隠しクラスとして読み込むコンパイラ。
+ * 生成されるクラスは数式ごとに分岐のない1つのメソッドを持ち、JIT が数式全体をインライン化・最適化できます。
+ * 隠しクラスは参照されなくなるとアンロードされます。
+ */
+public final class BytecodeCompiler {
+
+	private static final String CLASS_NAME = "engine/GeneratedFormula";
+	private static final String FRACTION = "model/BigFraction";
+	private static final String FRACTION_DESC = "L" + FRACTION + ";";
+	private static final String FRACTION_ARRAY_DESC = "[" + FRACTION_DESC;
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	private BytecodeCompiler() {
+	}
+
+	/**
+	 * 数式を分数で評価する関数にコンパイルします。 vars の長さは数式の変数の数以上である必要があります。
+	 *
+	 * @param expression 準備済みの数式
+	 * @return コンパイルされた関数
+	 * @throws IllegalArgumentException 数式が大きすぎて1つのメソッドに収まらない場合
+	 */
+	public static FractionFormula compile(PreparedExpression expression) {
+		ClassFile cf = new ClassFile("engine/FractionFormula");
+		BigFraction[] constants = expression.constants();
+		for (int i = 0; i < constants.length; i++) cf.fields.add("k" + i);
+
+		Code init = constructor(cf, constants.length);
+		Code apply = new Code();
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+				case PreparedExpression.CONST -> {
+					apply.u1(0x2a); // aload_0
+					apply.u1(0xb4).u2(cf.pool.field(CLASS_NAME, "k" + args[pc], FRACTION_DESC)); // getfield
+				}
+				case PreparedExpression.LOAD -> {
+					apply.u1(0x2b); // aload_1
+					apply.pushInt(args[pc], cf.pool);
+					apply.u1(0x32); // aaload
+				}
+				default -> {
+					String name = switch (ops[pc]) {
+						case PreparedExpression.ADD -> "add";
+						case PreparedExpression.SUB -> "sub";
+						case PreparedExpression.MUL -> "mul";
+						case PreparedExpression.DIV -> "div";
+						default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+					};
+					String desc = "(" + FRACTION_DESC + ")" + FRACTION_DESC;
+					apply.u1(0xb6).u2(cf.pool.method(FRACTION, name, desc)); // invokevirtual
+				}
+			}
+		}
+		apply.u1(0xb0); // areturn
+		cf.method("<init>", "(" + FRACTION_ARRAY_DESC + ")V", init, 3, 2);
+		cf.method("apply", "(" + FRACTION_ARRAY_DESC + ")" + FRACTION_DESC, apply, expression.maxStack() + 2, 2);
+		return (FractionFormula) define(cf.toByteArray(), constants);
+	}
+
+	/**
+	 * Termを分数で評価する関数にコンパイルします。
+	 *
+	 * @param term 数式を表現するTermオブジェクト
+	 * @return コンパイルされた関数
+	 */
+	public static FractionFormula compile(Term term) {
+		return compile(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 数式を浮動小数点数で評価する関数にコンパイルします。 vars の長さは数式の変数の数以上である必要があります。
+	 *
+	 * @param expression 準備済みの数式
+	 * @return コンパイルされた関数
+	 * @throws IllegalArgumentException 数式が大きすぎて1つのメソッドに収まらない場合
+	 */
+	public static DoubleFormula compileDouble(PreparedExpression expression) {
+		ClassFile cf = new ClassFile("engine/DoubleFormula");
+		Code init = constructor(cf, 0);
+		Code apply = new Code();
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		double[] constants = expression.doubleConstants();
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+				case PreparedExpression.CONST -> apply.u1(0x14).u2(cf.pool.doubleValue(constants[args[pc]])); // ldc2_w
+				case PreparedExpression.LOAD -> {
+					apply.u1(0x2b); // aload_1
+					apply.pushInt(args[pc], cf.pool);
+					apply.u1(0x31); // daload
+				}
+				case PreparedExpression.ADD -> apply.u1(0x63); // dadd
+				case PreparedExpression.SUB -> apply.u1(0x67); // dsub
+				case PreparedExpression.MUL -> apply.u1(0x6b); // dmul
+				case PreparedExpression.DIV -> apply.u1(0x6f); // ddiv
+				default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+			}
+		}
+		apply.u1(0xaf); // dreturn
+		cf.method("<init>", "(" + FRACTION_ARRAY_DESC + ")V", init, 3, 2);
+		cf.method("apply", "([D)D", apply, expression.maxStack() * 2 + 2, 2);
+		return (DoubleFormula) define(cf.toByteArray(), new BigFraction[0]);
+	}
+
+	/**
+	 * Termを浮動小数点数で評価する関数にコンパイルします。
+	 *
+	 * @param term 数式を表現するTermオブジェクト
+	 * @return コンパイルされた関数
+	 */
+	public static DoubleFormula compileDouble(Term term) {
+		return compileDouble(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 定数配列を各フィールドに格納するコンストラクタを生成する。 隠しクラスの final フィールドは JIT に定数として扱われる。
+	 */
+	private static Code constructor(ClassFile cf, int constants) {
+		Code init = new Code();
+		init.u1(0x2a); // aload_0
+		init.u1(0xb7).u2(cf.pool.method("java/lang/Object", "<init>", "()V")); // invokespecial
+		for (int i = 0; i < constants; i++) {
+			init.u1(0x2a); // aload_0
+			init.u1(0x2b); // aload_1
+			init.pushInt(i, cf.pool);
+			init.u1(0x32); // aaload
+			init.u1(0xb5).u2(cf.pool.field(CLASS_NAME, "k" + i, FRACTION_DESC)); // putfield
+		}
+		init.u1(0xb1); // return
+		return init;
+	}
+
+	private static Object define(byte[] bytes, BigFraction[] constants) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			return lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, BigFraction[].class))
+					.invoke(constants);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Failed to define generated class", e);
+		}
+	}
+
+	/**
+	 * メソッド本体のバイトコード。
+	 */
+	private static final class Code {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private Code u1(int b) {
+			bytes.write(b);
+			return this;
+		}
+
+		private Code u2(int v) {
+			bytes.write(v >>> 8);
+			bytes.write(v);
+			return this;
+		}
+
+		private void pushInt(int v, ConstantPool pool) {
+			if (v <= 5) {
+				u1(0x03 + v); // iconst_<v>
+			} else if (v <= Byte.MAX_VALUE) {
+				u1(0x10).u1(v); // bipush
+			} else if (v <= Short.MAX_VALUE) {
+				u1(0x11).u2(v); // sipush
+			} else {
+				u1(0x13).u2(pool.intValue(v)); // ldc_w
+			}
+		}
+
+		private byte[] toByteArray() {
+			if (bytes.size() > MAX_CODE_LENGTH)
+				throw new IllegalArgumentException("Expression is too large to compile: " + bytes.size() + " bytes");
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * 重複を除いた定数プール。
+	 */
+	private static final class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> indices = new HashMap<>();
+		private int count = 1;
+
+		private int utf8(String s) {
+			Integer index = indices.get("U" + s);
+			if (index != null) return index;
+			return put("U" + s, 1, () -> out.writeUTF(s), 1);
+		}
+
+		private int classRef(String name) {
+			int nameIndex = utf8(name);
+			return putIfAbsent("C" + name, 7, () -> out.writeShort(nameIndex));
+		}
+
+		private int nameAndType(String name, String desc) {
+			int nameIndex = utf8(name);
+			int descIndex = utf8(desc);
+			return putIfAbsent("N" + name + ":" + desc, 12, () -> {
+				out.writeShort(nameIndex);
+				out.writeShort(descIndex);
+			});
+		}
+
+		private int field(String owner, String name, String desc) {
+			return member(9, owner, name, desc);
+		}
+
+		private int method(String owner, String name, String desc) {
+			return member(10, owner, name, desc);
+		}
+
+		private int intValue(int v) {
+			return putIfAbsent("I" + v, 3, () -> out.writeInt(v));
+		}
+
+		private int doubleValue(double v) {
+			String key = "D" + Double.doubleToRawLongBits(v);
+			Integer index = indices.get(key);
+			if (index != null) return index;
+			return put(key, 6, () -> out.writeDouble(v), 2);
+		}
+
+		private int member(int tag, String owner, String name, String desc) {
+			int classIndex = classRef(owner);
+			int natIndex = nameAndType(name, desc);
+			return putIfAbsent(tag + owner + "." + name + ":" + desc, tag, () -> {
+				out.writeShort(classIndex);
+				out.writeShort(natIndex);
+			});
+		}
+
+		private int putIfAbsent(String key, int tag, Body body) {
+			Integer index = indices.get(key);
+			return index != null ? index : put(key, tag, body, 1);
+		}
+
+		private int put(String key, int tag, Body body, int slots) {
+			if (count + slots > 0xffff) throw new IllegalArgumentException("Expression is too large to compile");
+			try {
+				out.writeByte(tag);
+				body.write();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			int index = count;
+			count += slots;
+			indices.put(key, index);
+			return index;
+		}
+
+		private interface Body {
+			void write() throws IOException;
+		}
+	}
+
+	/**
+	 * 生成するクラスの構造。
+	 */
+	private static final class ClassFile {
+		private final ConstantPool pool = new ConstantPool();
+		private final List<String> fields = new ArrayList<>();
+		private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+		private final String interfaceName;
+		private int methodCount;
+
+		private ClassFile(String interfaceName) {
+			this.interfaceName = interfaceName;
+		}
+
+		private void method(String name, String desc, Code code, int maxStack, int maxLocals) {
+			byte[] body = code.toByteArray();
+			DataOutputStream out = new DataOutputStream(methods);
+			try {
+				out.writeShort(0x0001); // ACC_PUBLIC
+				out.writeShort(pool.utf8(name));
+				out.writeShort(pool.utf8(desc));
+				out.writeShort(1);
+				out.writeShort(pool.utf8("Code"));
+				out.writeInt(12 + body.length);
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(body.length);
+				out.write(body);
+				out.writeShort(0); // exception_table_length
+				out.writeShort(0); // attributes_count
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			methodCount++;
+		}
+
+		private byte[] toByteArray() {
+			int thisClass = pool.classRef(CLASS_NAME);
+			int superClass = pool.classRef("java/lang/Object");
+			int interfaceClass = pool.classRef(interfaceName);
+			int[] fieldNames = new int[fields.size()];
+			for (int i = 0; i < fieldNames.length; i++) fieldNames[i] = pool.utf8(fields.get(i));
+			int fieldDesc = pool.utf8(FRACTION_DESC);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeInt(0xcafebabe);
+				out.writeShort(0);
+				out.writeShort(61); // Java 17
+				out.writeShort(pool.count);
+				pool.bytes.writeTo(out);
+				out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(1);
+				out.writeShort(interfaceClass);
+				out.writeShort(fieldNames.length);
+				for (int fieldName : fieldNames) {
+					out.writeShort(0x0012); // ACC_PRIVATE | ACC_FINAL
+					out.writeShort(fieldName);
+					out.writeShort(fieldDesc);
+					out.writeShort(0);
+				}
+				out.writeShort(methodCount);
+				methods.writeTo(out);
+				out.writeShort(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return bytes.toByteArray();
+		}
+	}
+}
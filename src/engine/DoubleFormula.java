@@ -0,0 +1,16 @@
+package engine;
+
+/**
+ * 変数の値から浮動小数点数の計算結果を返す関数。
+ */
+@FunctionalInterface
+public interface DoubleFormula {
+
+	/**
+	 * 数式を評価します。 vars[i] はスロット i の変数に対応します。
+	 *
+	 * @param vars 各スロットの値
+	 * @return 計算結果
+	 */
+	double apply(double[] vars);
+}
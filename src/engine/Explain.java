@@ -0,0 +1,280 @@
+package engine;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import model.BigFraction;
+import model.Term;
+import model.Type;
+import parser.Parser;
+
+/**
+ * 数式を評価しながら、各ノードにかかった時間と計算結果の大きさを記録するクラス（EXPLAIN ANALYZE）。
+ * 時間のかかる部分木や、分子・分母が大きくなる部分木を見つけるために使います。
+ * <p>
+ * 演算子のノードでは、約分前の分子・分母を求める乗算と、最大公約数による約分を分けて計測します。
+ * 計測のため、評価は Term.calc よりも遅くなります。
+ * <p>
+ * Term.calc と同じく、"a + b + c + ..." のように左に連なる演算子は評価でも出力でも再帰せずにたどります。
+ */
+public final class Explain {
+
+	private Explain() {
+	}
+
+	/**
+	 * 数式を解析・評価し、各ノードの計測結果を返します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return ルートの計測結果
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 * @throws ArithmeticException             0で除算した場合
+	 */
+	public static Node analyze(String expression) {
+		return analyze(Parser.doParse(expression));
+	}
+
+	/**
+	 * 構文木を評価し、各ノードの計測結果を返します。
+	 *
+	 * @param term 構文木
+	 * @return ルートの計測結果
+	 * @throws ArithmeticException   0で除算した場合
+	 * @throws IllegalStateException 値の決まっていない変数を含む場合
+	 */
+	public static Node analyze(Term term) {
+		long start = System.nanoTime();
+		Deque<Term> spine = new ArrayDeque<>();
+		Term t = term;
+		while (t.label.type() == Type.OPERATOR) {
+			spine.push(t);
+			t = t.left;
+		}
+		if (t.label.type() == Type.VARIABLE) throw new IllegalStateException("Unbound variable: " + t.label.symbol());
+		BigFraction leaf = BigFraction.parseBigFraction(t.label.symbol());
+		Node node = new Node(t.label.symbol(), leaf, System.nanoTime() - start, 0, bits(leaf), List.of());
+		// 左に連なる演算子の部分木はどれも最も左の葉から始まるため、計測の開始時刻を共有する
+		while (!spine.isEmpty()) {
+			Term op = spine.pop();
+			node = apply(op, node, analyze(op.right), start);
+		}
+		return node;
+	}
+
+	private static Node apply(Term term, Node left, Node right, long start) {
+		BigFraction a = left.value;
+		BigFraction b = right.value;
+		BigInteger[] raw = switch (term.label.symbol()) {
+			case "+" -> new BigInteger[] { a.numerator().multiply(b.denominator()).add(b.numerator().multiply(a.denominator())),
+					a.denominator().multiply(b.denominator()) };
+			case "-" -> new BigInteger[] { a.numerator().multiply(b.denominator()).subtract(b.numerator().multiply(a.denominator())),
+					a.denominator().multiply(b.denominator()) };
+			case "*" -> new BigInteger[] { a.numerator().multiply(b.numerator()), a.denominator().multiply(b.denominator()) };
+			case "/" -> new BigInteger[] { a.numerator().multiply(b.denominator()), a.denominator().multiply(b.numerator()) };
+			default -> throw new IllegalStateException("Unexpected value: " + term.label.symbol());
+		};
+		long gcdStart = System.nanoTime();
+		BigFraction value = new BigFraction(raw[0], raw[1]);
+		long end = System.nanoTime();
+		return new Node(name(term.label.symbol()), value, end - start, end - gcdStart, bits(value), List.of(left, right));
+	}
+
+	private static String name(String operator) {
+		return switch (operator) {
+			case "+" -> "add";
+			case "-" -> "sub";
+			case "*" -> "mul";
+			case "/" -> "div";
+			default -> throw new IllegalStateException("Unexpected value: " + operator);
+		};
+	}
+
+	private static int[] bits(BigFraction value) {
+		return new int[] { value.numerator().bitLength(), value.denominator().bitLength() };
+	}
+
+	/**
+	 * 1つのノードの計測結果。
+	 */
+	public static final class Node {
+		/** toString の字下げの最大の深さ */
+		private static final int MAX_INDENT = 32;
+
+		private final String label;
+		private final BigFraction value;
+		private final long totalNanos;
+		private final long gcdNanos;
+		private final int numeratorBits;
+		private final int denominatorBits;
+		private final List<Node> children;
+
+		private Node(String label, BigFraction value, long totalNanos, long gcdNanos, int[] bits, List<Node> children) {
+			this.label = label;
+			this.value = value;
+			this.totalNanos = totalNanos;
+			this.gcdNanos = gcdNanos;
+			this.numeratorBits = bits[0];
+			this.denominatorBits = bits[1];
+			this.children = children;
+		}
+
+		/**
+		 * ノードのラベルを返します。 演算子の場合は "add" などの名前、数値の場合はその文字列です。
+		 *
+		 * @return ラベル
+		 */
+		public String label() {
+			return label;
+		}
+
+		/**
+		 * このノードをルートとする部分木の計算結果を返します。
+		 *
+		 * @return 計算結果
+		 */
+		public BigFraction value() {
+			return value;
+		}
+
+		/**
+		 * 部分木全体の評価にかかった時間を返します。
+		 *
+		 * @return 時間（ナノ秒）
+		 */
+		public long totalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * 子の評価を除いた、このノード自身の演算にかかった時間を返します。
+		 *
+		 * @return 時間（ナノ秒）
+		 */
+		public long selfNanos() {
+			long self = totalNanos;
+			for (Node child : children) self -= child.totalNanos;
+			return Math.max(self, 0);
+		}
+
+		/**
+		 * このノードの約分（最大公約数の計算と除算）にかかった時間を返します。 数値のノードでは0です。
+		 *
+		 * @return 時間（ナノ秒）
+		 */
+		public long gcdNanos() {
+			return gcdNanos;
+		}
+
+		/**
+		 * 計算結果の分子のビット長を返します。
+		 *
+		 * @return ビット長
+		 */
+		public int numeratorBits() {
+			return numeratorBits;
+		}
+
+		/**
+		 * 計算結果の分母のビット長を返します。
+		 *
+		 * @return ビット長
+		 */
+		public int denominatorBits() {
+			return denominatorBits;
+		}
+
+		/**
+		 * 子ノードを左から順に返します。
+		 *
+		 * @return 子ノードのリスト
+		 */
+		public List<Node> children() {
+			return children;
+		}
+
+		/**
+		 * 計測結果を JSON で返します。
+		 *
+		 * @return JSON の文字列
+		 */
+		public String toJson() {
+			StringBuilder sb = new StringBuilder();
+			Deque<Object> stack = new ArrayDeque<>();
+			stack.push(this);
+			while (!stack.isEmpty()) {
+				Object item = stack.pop();
+				if (item instanceof Node node) node.appendJson(sb, stack);
+				else sb.append(item);
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Term.toString と同じ前置記法で、1行に1ノードずつ計測結果を付けて返します。
+		 * 字下げは深さ {@value #MAX_INDENT} までで、それより深いノードは同じ字下げで出力します。
+		 *
+		 * @return 計測結果の木
+		 */
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			Deque<Line> stack = new ArrayDeque<>();
+			stack.push(new Line(this, 0));
+			while (!stack.isEmpty()) {
+				Line line = stack.pop();
+				String indent = "  ".repeat(Math.min(line.depth, MAX_INDENT));
+				if (line.node == null) {
+					sb.append(indent).append(")\n");
+					continue;
+				}
+				Node node = line.node;
+				sb.append(indent).append(node.label);
+				if (!node.children.isEmpty()) sb.append('(');
+				sb.append("  [time=").append(format(node.totalNanos));
+				if (!node.children.isEmpty())
+					sb.append(", self=").append(format(node.selfNanos())).append(", gcd=").append(format(node.gcdNanos));
+				sb.append(", bits=").append(node.numeratorBits).append('/').append(node.denominatorBits).append("]\n");
+				if (node.children.isEmpty()) continue;
+				// 閉じ括弧を先に積み、子は左から取り出されるよう逆順に積む
+				stack.push(new Line(null, line.depth));
+				for (int i = node.children.size() - 1; i >= 0; i--) stack.push(new Line(node.children.get(i), line.depth + 1));
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * このノードのフィールドを書き込み、子と閉じ括弧は後で書き込むよう stack に積む。
+		 */
+		private void appendJson(StringBuilder sb, Deque<Object> stack) {
+			sb.append("{\"label\":\"").append(label).append('"')
+					.append(",\"totalNanos\":").append(totalNanos)
+					.append(",\"selfNanos\":").append(selfNanos())
+					.append(",\"gcdNanos\":").append(gcdNanos)
+					.append(",\"numeratorBits\":").append(numeratorBits)
+					.append(",\"denominatorBits\":").append(denominatorBits);
+			if (children.isEmpty()) {
+				sb.append('}');
+				return;
+			}
+			sb.append(",\"children\":[");
+			stack.push("]}");
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+				if (i > 0) stack.push(",");
+			}
+		}
+
+		/**
+		 * toString で出力する1行。 node が null の場合は閉じ括弧の行。
+		 */
+		private record Line(Node node, int depth) {
+		}
+
+		private static String format(long nanos) {
+			if (nanos < 10_000) return nanos + "ns";
+			if (nanos < 10_000_000) return nanos / 1_000 + "us";
+			return nanos / 1_000_000 + "ms";
+		}
+	}
+}
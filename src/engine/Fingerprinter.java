@@ -0,0 +1,293 @@
+package engine;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import model.BigFraction;
+import model.Term;
+
+/**
+ * 数式の値を、いくつかの無作為な61ビットの素数を法とした剰余の組（指紋）で表すクラス。
+ * 値の異なる2つの数式の指紋が一致する確率は errorBound で見積もれる程度に小さいため、
+ * 指紋が異なれば値は確実に異なり、一致すれば高い確率で値も等しいと判定できます。
+ * 巨大な数式の重複除去や、値をキーとするキャッシュに使えます。
+ * <p>
+ * 評価は long の Montgomery 乗算だけで行い、分子・分母が大きくなりません。
+ * 法として0で割る素数に当たった場合だけ、正確な値を求めてから指紋を取ります。
+ * 同じ素数を使う（同じ種から作った）Fingerprinter の指紋どうしだけが比較できます。
+ */
+public final class Fingerprinter {
+
+	/** 61ビットの素数のおよその個数の2を底とする対数 */
+	private static final double LOG2_PRIME_COUNT = 61 - Math.log(Math.log(2) * 61) / Math.log(2) - 1;
+
+	private final long[] p;
+	private final long[] pinv;
+	private final long[] r2;
+	private final long family;
+
+	/**
+	 * 安全な乱数で選んだ素数を使うFingerprinterを作成します。 指紋はこのインスタンスの中でだけ比較できます。
+	 *
+	 * @param primes 素数の数
+	 */
+	public Fingerprinter(int primes) {
+		this(primes, new SecureRandom().nextLong());
+	}
+
+	/**
+	 * 種から素数を選ぶFingerprinterを作成します。 同じ種と素数の数からは、プロセスをまたいでも同じ指紋が得られます。
+	 *
+	 * @param primes 素数の数
+	 * @param seed   乱数の種
+	 */
+	public Fingerprinter(int primes, long seed) {
+		if (primes <= 0) throw new IllegalArgumentException("primes <= 0: " + primes);
+		Random random = new Random(seed);
+		p = new long[primes];
+		pinv = new long[primes];
+		r2 = new long[primes];
+		for (int i = 0; i < primes; i++) {
+			BigInteger q;
+			do {
+				q = BigInteger.valueOf((1L << 60) | (random.nextLong() >>> 4) | 1);
+			} while (!q.isProbablePrime(64) || contains(q.longValue(), i));
+			p[i] = q.longValue();
+			long inv = p[i];
+			for (int j = 0; j < 5; j++) inv *= 2 - p[i] * inv;
+			pinv[i] = -inv;
+			r2[i] = BigInteger.ONE.shiftLeft(128).mod(q).longValue();
+		}
+		family = Arrays.hashCode(p);
+	}
+
+	/**
+	 * 分子と分母のビット長の和が bits 以下の、値の異なる2つの数の指紋が一致する確率の上限を返します。
+	 * 2つの数 n1/d1, n2/d2 の指紋は、差の分子 n1·d2 − n2·d1 を割り切る素数でだけ一致します。
+	 * この分子は 2·bits + 1 ビット以下のため、割り切る61ビットの素数は (2·bits + 1) / 60 個以下です。
+	 *
+	 * @param bits 分子と分母のビット長の和の上限
+	 * @return 確率の上限
+	 */
+	public double errorBound(long bits) {
+		// 差の分子を割り切る61ビットの素数は (2·bits + 1)/60 個以下で、2·bits/60 + 1 はこれを上回る
+		double perPrime = Math.min(1, (2 * bits / 60.0 + 1) / Math.pow(2, LOG2_PRIME_COUNT));
+		return Math.pow(perPrime, p.length);
+	}
+
+	/**
+	 * 数式の指紋を返します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 指紋
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 * @throws ArithmeticException             0で除算した場合
+	 * @throws IllegalArgumentException        変数を含む場合
+	 */
+	public Fingerprint fingerprint(String expression) {
+		return fingerprint(PreparedExpression.prepare(expression));
+	}
+
+	/**
+	 * 構文木の値の指紋を返します。
+	 *
+	 * @param term 構文木
+	 * @return 指紋
+	 * @throws ArithmeticException      0で除算した場合
+	 * @throws IllegalArgumentException 変数を含む場合
+	 */
+	public Fingerprint fingerprint(Term term) {
+		return fingerprint(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 準備済みの数式の値の指紋を返します。
+	 *
+	 * @param expression 準備済みの数式
+	 * @return 指紋
+	 * @throws ArithmeticException      0で除算した場合
+	 * @throws IllegalArgumentException 変数を含む場合
+	 */
+	public Fingerprint fingerprint(PreparedExpression expression) {
+		if (expression.arity() != 0)
+			throw new IllegalArgumentException("Variables are not supported: " + String.join(", ", expression.variables()));
+		int k = p.length;
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		BigFraction[] constants = expression.constants();
+		long[][] num = new long[expression.maxStack()][k];
+		long[][] den = new long[expression.maxStack()][k];
+		boolean bad = false;
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			if (ops[pc] == PreparedExpression.CONST) {
+				BigFraction c = constants[args[pc]];
+				for (int j = 0; j < k; j++) {
+					num[sp][j] = toMontgomery(c.numerator(), j);
+					den[sp][j] = toMontgomery(c.denominator(), j);
+				}
+				sp++;
+				continue;
+			}
+			sp--;
+			long[] a = num[sp - 1], b = den[sp - 1], c = num[sp], d = den[sp];
+			for (int j = 0; j < k; j++) {
+				switch (ops[pc]) {
+					case PreparedExpression.ADD -> {
+						a[j] = add(mul(a[j], d[j], j), mul(c[j], b[j], j), j);
+						b[j] = mul(b[j], d[j], j);
+					}
+					case PreparedExpression.SUB -> {
+						a[j] = sub(mul(a[j], d[j], j), mul(c[j], b[j], j), j);
+						b[j] = mul(b[j], d[j], j);
+					}
+					case PreparedExpression.MUL -> {
+						a[j] = mul(a[j], c[j], j);
+						b[j] = mul(b[j], d[j], j);
+					}
+					case PreparedExpression.DIV -> {
+						if (c[j] == 0) bad = true;
+						a[j] = mul(a[j], d[j], j);
+						b[j] = mul(b[j], c[j], j);
+					}
+					default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+				}
+			}
+		}
+		long[] residues = new long[k];
+		for (int j = 0; j < k && !bad; j++) {
+			if (den[0][j] == 0) bad = true;
+			else residues[j] = mul(mul(num[0][j], pow(den[0][j], p[j] - 2, j), j), 1, j);
+		}
+		// 法として0で割った場合は、0除算か、たまたま素数が約されずに残った分母を割り切ったかのどちらか
+		if (bad) return fingerprint(expression.term().calc());
+		return new Fingerprint(residues, family);
+	}
+
+	/**
+	 * 分数の指紋を返します。 同じ値の数式の指紋と一致します。
+	 *
+	 * @param value 分数
+	 * @return 指紋
+	 */
+	public Fingerprint fingerprint(BigFraction value) {
+		long[] residues = new long[p.length];
+		for (int j = 0; j < p.length; j++) {
+			BigInteger q = BigInteger.valueOf(p[j]);
+			long d = value.denominator().mod(q).longValue();
+			// 分母を割り切る素数では値が定まらないため、剰余の範囲外の p を入れる
+			residues[j] = d == 0 ? p[j] : value.numerator().mod(q).multiply(BigInteger.valueOf(d).modInverse(q)).mod(q).longValue();
+		}
+		return new Fingerprint(residues, family);
+	}
+
+	/**
+	 * 2つの数式の値が等しい可能性があるかを指紋で判定します。 false の場合は確実に等しくありません。
+	 *
+	 * @param a 数式
+	 * @param b 数式
+	 * @return 指紋が一致する場合はtrue
+	 */
+	public boolean probablyEqual(Term a, Term b) {
+		return fingerprint(a).equals(fingerprint(b));
+	}
+
+	/**
+	 * 2つの数式の値が等しいかを判定します。 指紋が一致した場合だけ正確な値を計算して確かめます。
+	 *
+	 * @param a 数式
+	 * @param b 数式
+	 * @return 値が等しい場合はtrue
+	 */
+	public boolean equal(Term a, Term b) {
+		return probablyEqual(a, b) && a.calc().equals(b.calc());
+	}
+
+	private boolean contains(long q, int n) {
+		for (int i = 0; i < n; i++) if (p[i] == q) return true;
+		return false;
+	}
+
+	private long toMontgomery(BigInteger value, int j) {
+		long v = value.bitLength() < 63 ? Math.floorMod(value.longValue(), p[j]) : value.mod(BigInteger.valueOf(p[j])).longValue();
+		return mul(v, r2[j], j);
+	}
+
+	/**
+	 * Montgomery 乗算。 a * b * 2^-64 mod p を求める。 p < 2^61 のため 128 ビットの積の上位は符号付きの乗算で求まる。
+	 */
+	private long mul(long a, long b, int j) {
+		long q = p[j];
+		long hi = Math.multiplyHigh(a, b);
+		long lo = a * b;
+		long m = lo * pinv[j];
+		long t = hi + Math.multiplyHigh(m, q) + ((m >> 63) & q) + (lo != 0 ? 1 : 0);
+		return t >= q ? t - q : t;
+	}
+
+	private long add(long a, long b, int j) {
+		long s = a + b;
+		return s >= p[j] ? s - p[j] : s;
+	}
+
+	private long sub(long a, long b, int j) {
+		long s = a - b;
+		return s < 0 ? s + p[j] : s;
+	}
+
+	private long pow(long base, long e, int j) {
+		long result = mul(1, r2[j], j);
+		while (e > 0) {
+			if ((e & 1) != 0) result = mul(result, base, j);
+			base = mul(base, base, j);
+			e >>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * 数式の値の指紋。 同じFingerprinterで作った指紋どうしは、値が等しければ必ず等しくなります。
+	 */
+	public static final class Fingerprint {
+		private final long[] residues;
+		private final long family;
+
+		private Fingerprint(long[] residues, long family) {
+			this.residues = residues;
+			this.family = family;
+		}
+
+		/**
+		 * 各素数を法とした剰余を返します。
+		 *
+		 * @return 剰余の配列
+		 */
+		public long[] residues() {
+			return residues.clone();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (obj instanceof Fingerprint other) return family == other.family && Arrays.equals(residues, other.residues);
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(residues);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (long r : residues) {
+				if (sb.length() > 0) sb.append('-');
+				sb.append(Long.toHexString(r));
+			}
+			return sb.toString();
+		}
+	}
+}
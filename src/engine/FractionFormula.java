@@ -0,0 +1,18 @@
+package engine;
+
+import model.BigFraction;
+
+/**
+ * 変数の値から分数の計算結果を返す関数。
+ */
+@FunctionalInterface
+public interface FractionFormula {
+
+	/**
+	 * 数式を評価します。 vars[i] はスロット i の変数に対応します。
+	 *
+	 * @param vars 各スロットの値
+	 * @return 計算結果
+	 */
+	BigFraction apply(BigFraction[] vars);
+}
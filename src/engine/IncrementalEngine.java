@@ -0,0 +1,516 @@
+package engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import model.BigFraction;
+import model.Symbol;
+import model.Term;
+import model.Type;
+import parser.ExpressionParseException;
+
+/**
+ * 対話的な編集のための増分評価エンジン。
+ * 直前の構文木と各部分木の計算結果を保持し、編集された範囲だけを再解析して、根までの経路だけを再計算します。
+ * <ul>
+ * <li>数値や変数の1トークン内の編集は、そのトークンだけを読み直します。</li>
+ * <li>それ以外の編集は、編集範囲を含む最も内側の括弧の中身だけを再解析します。</li>
+ * <li>括弧をまたぐ編集などは、式全体を再解析します。</li>
+ * </ul>
+ * 各ノードは親からの相対位置を持つため、編集後の位置の更新も根までの経路だけで済みます。
+ * 文法は {@link parser.Parser} と同じです。
+ */
+public final class IncrementalEngine {
+
+	private static final byte LEAF = 0;
+
+	private final StringBuilder text;
+	private Node root;
+	private long literalEdits;
+	private long groupReparses;
+	private long fullReparses;
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param expression 数式の文字列
+	 * @throws ExpressionParseException 式が不正な場合
+	 */
+	public IncrementalEngine(String expression) {
+		text = new StringBuilder(expression);
+		fullParse();
+	}
+
+	/**
+	 * 数式全体を置き換えます。
+	 *
+	 * @param expression 数式の文字列
+	 * @throws ExpressionParseException 式が不正な場合
+	 */
+	public void setExpression(String expression) {
+		text.setLength(0);
+		text.append(expression);
+		fullParse();
+	}
+
+	/**
+	 * 数式の一部を置き換えます。 式が不正になった場合でも文字列は更新され、次の編集で全体が再解析されます。
+	 *
+	 * @param offset   編集の開始位置
+	 * @param removed  削除する文字数
+	 * @param inserted 挿入する文字列
+	 * @throws ExpressionParseException  編集後の式が不正な場合
+	 * @throws IndexOutOfBoundsException 範囲が不正な場合
+	 */
+	public void edit(int offset, int removed, String inserted) {
+		if (offset < 0 || removed < 0 || offset + removed > text.length())
+			throw new IndexOutOfBoundsException("offset " + offset + ", removed " + removed + ", length " + text.length());
+		text.replace(offset, offset + removed, inserted);
+		if (root == null) {
+			fullParse();
+			return;
+		}
+		int delta = inserted.length() - removed;
+		int end = offset + removed;
+
+		// 編集範囲を含む最も深いノードまでの経路を求める
+		List<Node> path = new ArrayList<>();
+		List<Integer> starts = new ArrayList<>();
+		Node node = root;
+		int start = root.offset;
+		if (start <= offset && end <= start + root.length) {
+			while (true) {
+				path.add(node);
+				starts.add(start);
+				if (node.op == LEAF) break;
+				int ls = start + node.left.offset;
+				int rs = start + node.right.offset;
+				if (ls <= offset && end <= ls + node.left.length) {
+					node = node.left;
+					start = ls;
+				} else if (rs <= offset && end <= rs + node.right.length) {
+					node = node.right;
+					start = rs;
+				} else {
+					break;
+				}
+			}
+		}
+
+		if (!path.isEmpty() && node.op == LEAF && !node.synthetic && !node.group
+				&& editLiteral(node, start, node.length + delta)) {
+			propagate(node, delta);
+			literalEdits++;
+			return;
+		}
+
+		for (int i = path.size() - 1; i >= 0; i--) {
+			Node group = path.get(i);
+			int s = starts.get(i);
+			if (!group.group || offset <= s || end > s + group.length - 1) continue;
+			Node replacement;
+			try {
+				replacement = new SyntaxParser(text, s + 1, s + group.length - 1 + delta).parseAll();
+			} catch (ExpressionParseException e) {
+				break;
+			}
+			wrap(replacement, s, group.length + delta);
+			replacement.offset = group.offset;
+			replacement.parent = group.parent;
+			if (group.parent == null) {
+				root = replacement;
+			} else if (group.parent.left == group) {
+				group.parent.left = replacement;
+			} else {
+				group.parent.right = replacement;
+			}
+			propagate(replacement, delta);
+			groupReparses++;
+			return;
+		}
+		fullParse();
+	}
+
+	/**
+	 * 現在の数式を計算します。 前回から変更されていない部分木の結果は再利用されます。
+	 *
+	 * @return 計算結果
+	 * @throws ArithmeticException   0で除算した場合
+	 * @throws IllegalStateException 変数を含む場合
+	 */
+	public BigFraction value() {
+		if (root == null) fullParse();
+		Deque<Node> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node n = stack.peek();
+			if (n.value != null) {
+				stack.pop();
+			} else if (n.op == LEAF) {
+				if (n.variable) throw new IllegalStateException("Unbound variable: " + n.literal);
+				n.value = BigFraction.parseBigFraction(n.literal);
+				stack.pop();
+			} else if (n.left.value == null) {
+				stack.push(n.left);
+			} else if (n.right.value == null) {
+				stack.push(n.right);
+			} else {
+				n.value = switch (n.op) {
+					case PreparedExpression.ADD -> n.left.value.add(n.right.value);
+					case PreparedExpression.SUB -> n.left.value.sub(n.right.value);
+					case PreparedExpression.MUL -> n.left.value.mul(n.right.value);
+					case PreparedExpression.DIV -> n.left.value.div(n.right.value);
+					default -> throw new IllegalStateException("Unexpected opcode: " + n.op);
+				};
+				stack.pop();
+			}
+		}
+		return root.value;
+	}
+
+	/**
+	 * 現在の数式を表現するTermを作成します。
+	 *
+	 * @return 数式を表現するTermオブジェクト
+	 * @throws ExpressionParseException 式が不正な場合
+	 */
+	public Term term() {
+		if (root == null) fullParse();
+		Deque<Node> stack = new ArrayDeque<>();
+		Deque<Term> terms = new ArrayDeque<>();
+		Node last = null;
+		Node n = root;
+		while (n != null || !stack.isEmpty()) {
+			if (n != null) {
+				stack.push(n);
+				n = n.left;
+				continue;
+			}
+			Node top = stack.peek();
+			if (top.right != null && last != top.right) {
+				n = top.right;
+				continue;
+			}
+			stack.pop();
+			if (top.op == LEAF) {
+				terms.push(new Term(new Symbol(top.literal, top.variable ? Type.VARIABLE : Type.NUMBER), null, null));
+			} else {
+				Term right = terms.pop();
+				Term left = terms.pop();
+				terms.push(new Term(new Symbol(operator(top.op), Type.OPERATOR), left, right));
+			}
+			last = top;
+		}
+		return terms.pop();
+	}
+
+	/**
+	 * 現在の数式の文字列を返します。
+	 *
+	 * @return 数式の文字列
+	 */
+	public String expression() {
+		return text.toString();
+	}
+
+	/**
+	 * 編集の種類ごとの回数を返します。
+	 *
+	 * @return 統計情報
+	 */
+	public Statistics statistics() {
+		return new Statistics(literalEdits, groupReparses, fullReparses);
+	}
+
+	public String toString() {
+		return text.toString();
+	}
+
+	private void fullParse() {
+		root = null;
+		fullReparses++;
+		Node node = new SyntaxParser(text, 0, text.length()).parseAll();
+		node.parent = null;
+		root = node;
+	}
+
+	/**
+	 * 1トークンの葉を読み直す。 同じ種類のトークンとして読めない場合は false を返す。
+	 */
+	private boolean editLiteral(Node leaf, int start, int length) {
+		int end = start + length;
+		if (length <= 0 || end > text.length()) return false;
+		if (start > 0 && isWordChar(text.charAt(start - 1))) return false;
+		if (end < text.length() && isWordChar(text.charAt(end))) return false;
+		int i = start;
+		StringBuilder sb = new StringBuilder();
+		if (leaf.variable) {
+			if (!isLetter(text.charAt(i))) return false;
+			while (i < end && isWordChar(text.charAt(i)) && text.charAt(i) != '.') sb.append(text.charAt(i++));
+		} else {
+			if (leaf.literal.startsWith("-")) {
+				if (text.charAt(i++) != '-') return false;
+				sb.append('-');
+				while (i < end && text.charAt(i) == ' ') i++;
+			}
+			if (i >= end || !Character.isDigit(text.charAt(i))) return false;
+			while (i < end && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) sb.append(text.charAt(i++));
+		}
+		if (i != end) return false;
+		leaf.literal = sb.toString();
+		leaf.length = length;
+		leaf.value = null;
+		return true;
+	}
+
+	/**
+	 * ノードの長さの変化を根まで伝え、右側の兄弟の相対位置をずらし、計算結果を無効にする。
+	 */
+	private static void propagate(Node node, int delta) {
+		node.value = null;
+		for (Node n = node, p = n.parent; p != null; n = p, p = p.parent) {
+			p.length += delta;
+			if (p.left == n) p.right.offset += delta;
+			p.value = null;
+		}
+	}
+
+	/**
+	 * 括弧を含む範囲にノードの開始位置を広げる。 子の相対位置は開始位置が前に移った分だけずらす。
+	 */
+	private static void wrap(Node node, int start, int length) {
+		int shift = node.offset - start;
+		node.offset = start;
+		node.length = length;
+		node.group = true;
+		if (node.op != LEAF) {
+			node.left.offset += shift;
+			node.right.offset += shift;
+		}
+	}
+
+	private static boolean isLetter(char c) {
+		return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+	}
+
+	private static boolean isWordChar(char c) {
+		return isLetter(c) || Character.isDigit(c) || c == '_' || c == '.';
+	}
+
+	private static String operator(byte op) {
+		return switch (op) {
+			case PreparedExpression.ADD -> "+";
+			case PreparedExpression.SUB -> "-";
+			case PreparedExpression.MUL -> "*";
+			case PreparedExpression.DIV -> "/";
+			default -> throw new IllegalStateException("Unexpected opcode: " + op);
+		};
+	}
+
+	/**
+	 * 編集の種類ごとの回数。
+	 *
+	 * @param literalEdits  1トークンだけを読み直した回数
+	 * @param groupReparses 括弧の中身だけを再解析した回数
+	 * @param fullReparses  式全体を再解析した回数（初回を含む）
+	 */
+	public record Statistics(long literalEdits, long groupReparses, long fullReparses) {
+	}
+
+	/**
+	 * 構文木のノード。 offset は親の開始位置からの相対位置（根は絶対位置）。
+	 */
+	private static final class Node {
+		private byte op;
+		private String literal;
+		private boolean variable;
+		private boolean synthetic;
+		private boolean group;
+		private Node left, right, parent;
+		private int offset;
+		private int length;
+		private BigFraction value;
+
+		private static Node leaf(String literal, boolean variable, int start, int end) {
+			Node n = new Node();
+			n.op = LEAF;
+			n.literal = literal;
+			n.variable = variable;
+			n.offset = start;
+			n.length = end - start;
+			return n;
+		}
+
+		/**
+		 * 絶対位置を持つ2つのノードを結合する。 子の位置は結合後のノードからの相対位置になる。
+		 */
+		private static Node binary(byte op, Node left, Node right) {
+			Node n = new Node();
+			n.op = op;
+			n.left = left;
+			n.right = right;
+			n.offset = left.offset;
+			n.length = right.offset + right.length - left.offset;
+			left.offset = 0;
+			right.offset -= n.offset;
+			left.parent = n;
+			right.parent = n;
+			return n;
+		}
+	}
+
+	/**
+	 * 位置付きのトークン。
+	 */
+	private record Token(Symbol symbol, int start, int end) {
+	}
+
+	/**
+	 * 文字列の一部を字句解析し、{@link parser.Parser} と同じ文法で構文木を作る。 ノードの位置は絶対位置で作られる。
+	 */
+	private static final class SyntaxParser {
+		private final CharSequence text;
+		private final List<Token> tokens = new ArrayList<>();
+		private final String expression;
+		private int index;
+
+		private SyntaxParser(CharSequence text, int from, int to) {
+			this.text = text;
+			expression = text.subSequence(from, to).toString();
+			int i = from;
+			while (i < to) {
+				char c = text.charAt(i);
+				int start = i++;
+				switch (c) {
+					case ' ':
+						break;
+					case '-', '+', '*', '/':
+						tokens.add(new Token(new Symbol(Character.toString(c), Type.OPERATOR), start, i));
+						break;
+					case '(', ')':
+						tokens.add(new Token(new Symbol(Character.toString(c), Type.PARENTHESIS), start, i));
+						break;
+					default:
+						if (Character.isDigit(c)) {
+							while (i < to && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) i++;
+							tokens.add(new Token(new Symbol(text.subSequence(start, i).toString(), Type.NUMBER), start, i));
+						} else if (isLetter(c)) {
+							while (i < to && isWordChar(text.charAt(i)) && text.charAt(i) != '.') i++;
+							tokens.add(new Token(new Symbol(text.subSequence(start, i).toString(), Type.MATHFUNCTION),
+									start, i));
+						} else {
+							throw new ExpressionParseException("a number, operator or parenthesis", Character.toString(c),
+									text.toString(), start);
+						}
+				}
+			}
+		}
+
+		private Node parseAll() {
+			Node node = parsePolynomial();
+			if (index < tokens.size()) {
+				Token t = tokens.get(index);
+				throw new ExpressionParseException("operator", t.symbol().symbol(), text.toString(), t.start());
+			}
+			return node;
+		}
+
+		private Node parsePolynomial() {
+			Node node = parseMonomial();
+			while (index < tokens.size()) {
+				Token operator = tokens.get(index);
+				if (operator.symbol().symbol().equals(")")) break;
+				index++;
+				node = Node.binary(opcode(operator), node, parseMonomial());
+			}
+			return node;
+		}
+
+		private Node parseMonomial() {
+			Node node = null;
+			byte operator = 0;
+			while (true) {
+				if (index >= tokens.size()) throw new ExpressionParseException("a number or parenthesis", expression);
+				Token t = tokens.get(index++);
+				Node next = switch (t.symbol().type()) {
+					case NUMBER -> Node.leaf(t.symbol().symbol(), false, t.start(), t.end());
+					case OPERATOR -> parseNegated(t);
+					case PARENTHESIS -> parseParenthesized(t);
+					default -> parseIdentifier(t);
+				};
+				node = node == null ? next : Node.binary(operator, node, next);
+
+				if (index >= tokens.size()) return node;
+				Token peek = tokens.get(index);
+				String symbol = peek.symbol().symbol();
+				switch (peek.symbol().type()) {
+					case OPERATOR:
+						if (symbol.equals("+") || symbol.equals("-")) return node;
+						operator = opcode(peek);
+						index++;
+						break;
+					case PARENTHESIS:
+						if (symbol.equals(")")) return node;
+						operator = PreparedExpression.MUL;
+						break;
+					default:
+						throw new ExpressionParseException("operator or parenthesis", symbol, text.toString(), peek.start());
+				}
+			}
+		}
+
+		private Node parseParenthesized(Token open) {
+			if (!open.symbol().symbol().equals("("))
+				throw new ExpressionParseException("'('", open.symbol().symbol(), text.toString(), open.start());
+			Node node = parsePolynomial();
+			if (index >= tokens.size()) throw new ExpressionParseException("')'", expression);
+			Token close = tokens.get(index++);
+			wrap(node, open.start(), close.end() - open.start());
+			return node;
+		}
+
+		private Node parseNegated(Token minus) {
+			if (!minus.symbol().symbol().equals("-"))
+				throw new ExpressionParseException("a number or parenthesis", minus.symbol().symbol(), text.toString(),
+						minus.start());
+			if (index >= tokens.size()) throw new ExpressionParseException("a number or parenthesis", expression);
+			Token t = tokens.get(index++);
+			Node operand;
+			switch (t.symbol().type()) {
+				case NUMBER:
+					return Node.leaf("-" + t.symbol().symbol(), false, minus.start(), t.end());
+				case PARENTHESIS:
+					operand = parseParenthesized(t);
+					break;
+				case MATHFUNCTION:
+					operand = parseIdentifier(t);
+					break;
+				default:
+					throw new ExpressionParseException("a number or parenthesis", t.symbol().symbol(), text.toString(),
+							t.start());
+			}
+			Node minusOne = Node.leaf("-1", false, minus.start(), minus.end());
+			minusOne.synthetic = true;
+			return Node.binary(PreparedExpression.MUL, minusOne, operand);
+		}
+
+		private Node parseIdentifier(Token t) {
+			if (index < tokens.size() && tokens.get(index).symbol().symbol().equals("("))
+				throw new ExpressionParseException("a number or variable", t.symbol().symbol() + "(", text.toString(),
+						t.start());
+			return Node.leaf(t.symbol().symbol(), true, t.start(), t.end());
+		}
+
+		private static byte opcode(Token t) {
+			return switch (t.symbol().symbol()) {
+				case "+" -> PreparedExpression.ADD;
+				case "-" -> PreparedExpression.SUB;
+				case "*" -> PreparedExpression.MUL;
+				case "/" -> PreparedExpression.DIV;
+				default -> throw new IllegalStateException("Unexpected value: " + t.symbol().symbol());
+			};
+		}
+	}
+}
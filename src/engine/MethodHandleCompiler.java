@@ -0,0 +1,175 @@
+package engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import model.BigFraction;
+import model.Term;
+
+/**
+ * 数式を MethodHandle の組み合わせに変換する軽量なコンパイラ。
+ * クラスを生成しないため {@link BytecodeCompiler} より起動が速く、ハンドルが定数として扱われれば JIT によってインライン化されます。
+ * {@link TieredEvaluator} のコンパイラとしても利用できます。
+ */
+public final class MethodHandleCompiler {
+
+	private static final MethodType FRACTION_TYPE = MethodType.methodType(BigFraction.class, BigFraction[].class);
+	private static final MethodType DOUBLE_TYPE = MethodType.methodType(double.class, double[].class);
+	private static final MethodHandle FRACTION_GETTER = MethodHandles.arrayElementGetter(BigFraction[].class);
+	private static final MethodHandle DOUBLE_GETTER = MethodHandles.arrayElementGetter(double[].class);
+	private static final MethodHandle[] FRACTION_OPS = new MethodHandle[6];
+	private static final MethodHandle[] DOUBLE_OPS = new MethodHandle[6];
+	/** ハンドルの入れ子の深さの上限。 呼び出しは入れ子ごとに数フレームを使うため、256KBのスタックでも溢れない深さに抑える */
+	private static final int MAX_DEPTH = 1000;
+
+	static {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodType fractionOp = MethodType.methodType(BigFraction.class, BigFraction.class);
+		MethodType doubleOp = MethodType.methodType(double.class, double.class, double.class);
+		try {
+			FRACTION_OPS[PreparedExpression.ADD] = lookup.findVirtual(BigFraction.class, "add", fractionOp);
+			FRACTION_OPS[PreparedExpression.SUB] = lookup.findVirtual(BigFraction.class, "sub", fractionOp);
+			FRACTION_OPS[PreparedExpression.MUL] = lookup.findVirtual(BigFraction.class, "mul", fractionOp);
+			FRACTION_OPS[PreparedExpression.DIV] = lookup.findVirtual(BigFraction.class, "div", fractionOp);
+			DOUBLE_OPS[PreparedExpression.ADD] = lookup.findStatic(MethodHandleCompiler.class, "add", doubleOp);
+			DOUBLE_OPS[PreparedExpression.SUB] = lookup.findStatic(MethodHandleCompiler.class, "sub", doubleOp);
+			DOUBLE_OPS[PreparedExpression.MUL] = lookup.findStatic(MethodHandleCompiler.class, "mul", doubleOp);
+			DOUBLE_OPS[PreparedExpression.DIV] = lookup.findStatic(MethodHandleCompiler.class, "div", doubleOp);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private MethodHandleCompiler() {
+	}
+
+	/**
+	 * 数式を分数で評価する関数にコンパイルします。
+	 *
+	 * @param expression 準備済みの数式
+	 * @return コンパイルされた関数
+	 * @throws IllegalArgumentException ハンドルの入れ子が深すぎる場合
+	 */
+	public static FractionFormula compile(PreparedExpression expression) {
+		return new FractionHandle(toHandle(expression, false));
+	}
+
+	/**
+	 * Termを分数で評価する関数にコンパイルします。
+	 *
+	 * @param term 数式を表現するTermオブジェクト
+	 * @return コンパイルされた関数
+	 * @throws IllegalArgumentException ハンドルの入れ子が深すぎる場合
+	 */
+	public static FractionFormula compile(Term term) {
+		return compile(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 数式を浮動小数点数で評価する関数にコンパイルします。
+	 *
+	 * @param expression 準備済みの数式
+	 * @return コンパイルされた関数
+	 * @throws IllegalArgumentException ハンドルの入れ子が深すぎる場合
+	 */
+	public static DoubleFormula compileDouble(PreparedExpression expression) {
+		return new DoubleHandle(toHandle(expression, true));
+	}
+
+	/**
+	 * Termを浮動小数点数で評価する関数にコンパイルします。
+	 *
+	 * @param term 数式を表現するTermオブジェクト
+	 * @return コンパイルされた関数
+	 * @throws IllegalArgumentException ハンドルの入れ子が深すぎる場合
+	 */
+	public static DoubleFormula compileDouble(Term term) {
+		return compileDouble(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 命令列をスタックで辿り、各ノードを (配列)値 型のハンドルに変換する。
+	 * 二項演算は filterArguments で左右の部分木を引数に適用し、permuteArguments で同じ配列を両方に渡す。
+	 * 入れ子になったハンドルの呼び出しは再帰になるため、"1 + 1 + ..." のような長い連鎖は深さの上限で拒否する。
+	 */
+	static MethodHandle toHandle(PreparedExpression expression, boolean primitive) {
+		Class<?> valueType = primitive ? double.class : BigFraction.class;
+		Class<?> arrayType = primitive ? double[].class : BigFraction[].class;
+		MethodType type = primitive ? DOUBLE_TYPE : FRACTION_TYPE;
+		MethodHandle[] binary = primitive ? DOUBLE_OPS : FRACTION_OPS;
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		MethodHandle[] stack = new MethodHandle[expression.maxStack()];
+		int[] depths = new int[expression.maxStack()];
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+				case PreparedExpression.CONST -> {
+					Object value = primitive ? (Object) expression.doubleConstants()[args[pc]]
+							: expression.constants()[args[pc]];
+					depths[sp] = 0;
+					stack[sp++] = MethodHandles.dropArguments(MethodHandles.constant(valueType, value), 0, arrayType);
+				}
+				case PreparedExpression.LOAD -> {
+					depths[sp] = 0;
+					stack[sp++] = MethodHandles.insertArguments(primitive ? DOUBLE_GETTER : FRACTION_GETTER, 1, args[pc]);
+				}
+				default -> {
+					sp--;
+					depths[sp - 1] = Math.max(depths[sp - 1], depths[sp]) + 1;
+					if (depths[sp - 1] > MAX_DEPTH)
+						throw new IllegalArgumentException("Expression is too deeply nested to compile: more than " + MAX_DEPTH + " levels");
+					MethodHandle filtered = MethodHandles.filterArguments(binary[ops[pc]], 0, stack[sp - 1], stack[sp]);
+					stack[sp - 1] = MethodHandles.permuteArguments(filtered, type, 0, 0);
+				}
+			}
+		}
+		return stack[0];
+	}
+
+	private static double add(double a, double b) {
+		return a + b;
+	}
+
+	private static double sub(double a, double b) {
+		return a - b;
+	}
+
+	private static double mul(double a, double b) {
+		return a * b;
+	}
+
+	private static double div(double a, double b) {
+		return a / b;
+	}
+
+	/**
+	 * ハンドルを保持する関数。 レコードの final フィールドは JIT に定数として扱われるため、ハンドル全体がインライン化される。
+	 */
+	private record FractionHandle(MethodHandle handle) implements FractionFormula {
+		@Override
+		public BigFraction apply(BigFraction[] vars) {
+			try {
+				return (BigFraction) handle.invokeExact(vars);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private record DoubleHandle(MethodHandle handle) implements DoubleFormula {
+		@Override
+		public double apply(double[] vars) {
+			try {
+				return (double) handle.invokeExact(vars);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
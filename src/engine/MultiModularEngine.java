@@ -0,0 +1,393 @@
+package engine;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+import model.BigFraction;
+import model.Term;
+
+/**
+ * 数式を多数の31ビットの素数を法として評価し、中国剰余定理と有理数復元で正確な分数を求めるエンジン。
+ * 結果の分子・分母が数百万桁になる数式では、BigFraction による評価は巨大な乗算と最大公約数の計算に支配されます。
+ * このエンジンは素数ごとの評価を long の演算だけで並列に行い、最後に一度だけ多倍長の計算で結果を組み立てます。
+ * <p>
+ * 必要な素数の数は結果の大きさに応じて倍々に増やし、復元した分数を復元に使っていない素数で検算します。
+ * 構文木から見積もった上限まで増やしても検算に通らない場合や、0除算の可能性がある場合は BigFraction で評価し直します。
+ * 変数を含む数式は扱いません。
+ */
+public final class MultiModularEngine {
+
+	/** 1つのタスクでまとめて評価する素数の数 */
+	private static final int CHUNK = 64;
+	/** 最初に復元を試みる素数の数 */
+	private static final int INITIAL_PRIMES = 16;
+	/** 検算に使う素数の数 */
+	private static final int CHECK_PRIMES = 4;
+	/** 各素数のビット長の下限 */
+	private static final int PRIME_BITS = 30;
+	/** 積の木をこれより小さい範囲では並列にしない */
+	private static final int PARALLEL_RANGE = 256;
+
+	private static long[] primes = new long[0];
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * 共通のForkJoinPoolで評価するエンジンを作成します。
+	 */
+	public MultiModularEngine() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param pool 評価と復元に用いるForkJoinPool
+	 */
+	public MultiModularEngine(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * 数式を解析し、評価します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 計算結果
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 * @throws ArithmeticException             0で除算した場合
+	 * @throws IllegalArgumentException        変数を含む場合
+	 */
+	public BigFraction evaluate(String expression) {
+		return evaluate(PreparedExpression.prepare(expression));
+	}
+
+	/**
+	 * 構文木を評価します。
+	 *
+	 * @param term 構文木
+	 * @return 計算結果
+	 * @throws ArithmeticException      0で除算した場合
+	 * @throws IllegalArgumentException 変数を含む場合
+	 */
+	public BigFraction evaluate(Term term) {
+		return evaluate(PreparedExpression.of(term));
+	}
+
+	/**
+	 * 準備済みの数式を評価します。
+	 *
+	 * @param expression 準備済みの数式
+	 * @return 計算結果
+	 * @throws ArithmeticException      0で除算した場合
+	 * @throws IllegalArgumentException 変数を含む場合
+	 */
+	public BigFraction evaluate(PreparedExpression expression) {
+		if (expression.arity() != 0)
+			throw new IllegalArgumentException("Variables are not supported: " + String.join(", ", expression.variables()));
+		return pool.invoke(ForkJoinTask.adapt(() -> solve(expression)));
+	}
+
+	private BigFraction solve(PreparedExpression expression) {
+		long[] bound = boundBits(expression);
+		int limit = (int) Math.min(Integer.MAX_VALUE - CHECK_PRIMES, (bound[0] + bound[1] + 2) / PRIME_BITS + 1);
+		// 法が0になった素数を除いた、使える素数とその剰余
+		long[] good = new long[0];
+		long[] residues = new long[0];
+		int tried = 0;
+		int k = Math.min(INITIAL_PRIMES, limit);
+		while (true) {
+			while (good.length < k + CHECK_PRIMES) {
+				int count = Math.max(k + CHECK_PRIMES - good.length, CHUNK);
+				long[] batch = primes(tried, count);
+				long[] r = residues(expression, batch);
+				tried += count;
+				int n = good.length;
+				good = Arrays.copyOf(good, n + count);
+				residues = Arrays.copyOf(residues, n + count);
+				for (int i = 0; i < count; i++) {
+					if (r[i] < 0) continue;
+					good[n] = batch[i];
+					residues[n++] = r[i];
+				}
+				good = Arrays.copyOf(good, n);
+				residues = Arrays.copyOf(residues, n);
+				// 最初の素数がすべて使えない場合は、0除算の可能性が高い
+				if (n == 0) return expression.term().calc();
+			}
+			BigFraction value = reconstruct(good, residues, k, k >= limit ? bound[0] : -1);
+			if (value != null && verify(value, good, residues, k)) return value;
+			if (k >= limit) return expression.term().calc();
+			k = (int) Math.min(limit, 2L * k);
+		}
+	}
+
+	/**
+	 * 素数ごとに数式を評価する。 法として0で割った素数の剰余は -1 とする。
+	 */
+	private long[] residues(PreparedExpression expression, long[] batch) {
+		long[] out = new long[batch.length];
+		int chunks = (batch.length + CHUNK - 1) / CHUNK;
+		IntStream.range(0, chunks).parallel()
+				.forEach(c -> evaluateChunk(expression, batch, c * CHUNK, Math.min(batch.length, (c + 1) * CHUNK), out));
+		return out;
+	}
+
+	/**
+	 * 複数の素数について、分子と分母を別々に持つ形で後置記法の命令列を同時に実行する。
+	 */
+	private static void evaluateChunk(PreparedExpression expression, long[] p, int from, int to, long[] out) {
+		int n = to - from;
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		BigFraction[] constants = expression.constants();
+		long[][] num = new long[expression.maxStack()][n];
+		long[][] den = new long[expression.maxStack()][n];
+		// 除数の分子が0になった素数。 分母だけを見ると、除数の中の0除算は打ち消されて見えなくなる
+		boolean[] bad = new boolean[n];
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			if (ops[pc] == PreparedExpression.CONST) {
+				BigFraction c = constants[args[pc]];
+				reduce(c.numerator(), p, from, num[sp]);
+				reduce(c.denominator(), p, from, den[sp]);
+				sp++;
+				continue;
+			}
+			sp--;
+			long[] a = num[sp - 1], b = den[sp - 1], c = num[sp], d = den[sp];
+			switch (ops[pc]) {
+				case PreparedExpression.ADD -> {
+					for (int j = 0; j < n; j++) {
+						long q = p[from + j];
+						a[j] = (a[j] * d[j] % q + c[j] * b[j] % q) % q;
+						b[j] = b[j] * d[j] % q;
+					}
+				}
+				case PreparedExpression.SUB -> {
+					for (int j = 0; j < n; j++) {
+						long q = p[from + j];
+						long x = a[j] * d[j] % q - c[j] * b[j] % q;
+						a[j] = x < 0 ? x + q : x;
+						b[j] = b[j] * d[j] % q;
+					}
+				}
+				case PreparedExpression.MUL -> {
+					for (int j = 0; j < n; j++) {
+						long q = p[from + j];
+						a[j] = a[j] * c[j] % q;
+						b[j] = b[j] * d[j] % q;
+					}
+				}
+				case PreparedExpression.DIV -> {
+					for (int j = 0; j < n; j++) {
+						long q = p[from + j];
+						if (c[j] == 0) bad[j] = true;
+						a[j] = a[j] * d[j] % q;
+						b[j] = b[j] * c[j] % q;
+					}
+				}
+				default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			long q = p[from + j];
+			out[from + j] = bad[j] || den[0][j] == 0 ? -1 : num[0][j] * inverse(den[0][j], q) % q;
+		}
+	}
+
+	private static void reduce(BigInteger value, long[] p, int from, long[] out) {
+		if (value.bitLength() < 63) {
+			long v = value.longValue();
+			for (int j = 0; j < out.length; j++) out[j] = Math.floorMod(v, p[from + j]);
+		} else {
+			for (int j = 0; j < out.length; j++) out[j] = value.mod(BigInteger.valueOf(p[from + j])).longValue();
+		}
+	}
+
+	/**
+	 * 各演算の結果の分子・分母のビット長の上限から、結果の分子と分母のビット長の上限を求める。
+	 */
+	private static long[] boundBits(PreparedExpression expression) {
+		byte[] ops = expression.ops();
+		int[] args = expression.args();
+		long[] num = new long[expression.maxStack()];
+		long[] den = new long[expression.maxStack()];
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			if (ops[pc] == PreparedExpression.CONST) {
+				BigFraction c = expression.constants()[args[pc]];
+				num[sp] = c.numerator().bitLength();
+				den[sp++] = c.denominator().bitLength();
+				continue;
+			}
+			sp--;
+			long a = num[sp - 1], b = den[sp - 1], c = num[sp], d = den[sp];
+			switch (ops[pc]) {
+				case PreparedExpression.ADD, PreparedExpression.SUB -> {
+					num[sp - 1] = Math.max(a + d, c + b) + 1;
+					den[sp - 1] = b + d;
+				}
+				case PreparedExpression.MUL -> {
+					num[sp - 1] = a + c;
+					den[sp - 1] = b + d;
+				}
+				default -> {
+					num[sp - 1] = a + d;
+					den[sp - 1] = b + c;
+				}
+			}
+		}
+		return new long[] { num[0], den[0] };
+	}
+
+	/**
+	 * 先頭の k 個の剰余から中国剰余定理で法 M の剰余を求め、分子の絶対値が N 以下、分母が M/(2N) 以下の分数を復元する。
+	 * numBits が負の場合は N = sqrt(M/2) とし、そうでなければ N = 2^numBits とする。 復元できない場合は null を返す。
+	 */
+	private static BigFraction reconstruct(long[] p, long[] r, int k, long numBits) {
+		Node tree = productTree(p, 0, k);
+		BigInteger m = tree.product;
+		BigInteger x = combine(tree, r, m).mod(m);
+		BigInteger numLimit = numBits < 0 ? m.shiftRight(1).sqrt() : BigInteger.ONE.shiftLeft((int) numBits);
+		BigInteger denLimit = m.divide(numLimit.shiftLeft(1));
+		BigInteger r0 = m, r1 = x, t0 = BigInteger.ZERO, t1 = BigInteger.ONE;
+		while (r1.compareTo(numLimit) > 0) {
+			BigInteger[] qr = r0.divideAndRemainder(r1);
+			r0 = r1;
+			r1 = qr[1];
+			BigInteger t = t0.subtract(qr[0].multiply(t1));
+			t0 = t1;
+			t1 = t;
+		}
+		if (t1.signum() == 0 || t1.abs().compareTo(denLimit) > 0) return null;
+		BigInteger n = t1.signum() < 0 ? r1.negate() : r1;
+		BigInteger d = t1.abs();
+		if (!n.gcd(d).equals(BigInteger.ONE)) return null;
+		return new BigFraction(n, d);
+	}
+
+	/**
+	 * 復元に使っていない素数でも剰余が一致するか調べる。
+	 */
+	private static boolean verify(BigFraction value, long[] p, long[] r, int k) {
+		for (int i = k; i < k + CHECK_PRIMES; i++) {
+			BigInteger q = BigInteger.valueOf(p[i]);
+			long n = value.numerator().mod(q).longValue();
+			long d = value.denominator().mod(q).longValue();
+			if (n != r[i] * d % p[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 素数の範囲の積を葉から順に求めた木。
+	 */
+	private static Node productTree(long[] p, int lo, int hi) {
+		if (hi - lo == 1) return new Node(BigInteger.valueOf(p[lo]), null, null, lo);
+		int mid = (lo + hi) >>> 1;
+		Node left, right;
+		if (hi - lo > PARALLEL_RANGE) {
+			ForkJoinTask<Node> task = ForkJoinTask.adapt(() -> productTree(p, lo, mid)).fork();
+			right = productTree(p, mid, hi);
+			left = task.join();
+		} else {
+			left = productTree(p, lo, mid);
+			right = productTree(p, mid, hi);
+		}
+		return new Node(left.product.multiply(right.product), left, right, -1);
+	}
+
+	/**
+	 * 中国剰余定理の解 Σ r_i * c_i * (M/p_i) を木に沿って求める。 c_i = (M/p_i)^-1 mod p_i は、
+	 * M mod p_i^2 を木に沿って求めることで得られる。 v は M をこの部分木の積の2乗で割った余り。
+	 */
+	private static BigInteger combine(Node node, long[] r, BigInteger v) {
+		if (node.left == null) {
+			long q = node.product.longValue();
+			long cofactor = v.divide(node.product).longValue() % q;
+			return BigInteger.valueOf(r[node.index] * inverse(cofactor, q) % q);
+		}
+		BigInteger vl = v.mod(node.left.product.multiply(node.left.product));
+		BigInteger vr = v.mod(node.right.product.multiply(node.right.product));
+		BigInteger sl, sr;
+		if (node.product.bitLength() > PARALLEL_RANGE * PRIME_BITS) {
+			ForkJoinTask<BigInteger> task = ForkJoinTask.adapt(() -> combine(node.left, r, vl)).fork();
+			sr = combine(node.right, r, vr);
+			sl = task.join();
+		} else {
+			sl = combine(node.left, r, vl);
+			sr = combine(node.right, r, vr);
+		}
+		return sl.multiply(node.right.product).add(sr.multiply(node.left.product));
+	}
+
+	/**
+	 * a の法 q における逆元を拡張ユークリッドの互除法で求める。
+	 */
+	private static long inverse(long a, long q) {
+		long r0 = q, r1 = a, t0 = 0, t1 = 1;
+		while (r1 != 0) {
+			long quotient = r0 / r1;
+			long r = r0 - quotient * r1;
+			r0 = r1;
+			r1 = r;
+			long t = t0 - quotient * t1;
+			t0 = t1;
+			t1 = t;
+		}
+		return t0 < 0 ? t0 + q : t0;
+	}
+
+	/**
+	 * 2^31 未満の素数を大きい順に from 番目から count 個返す。
+	 */
+	private static synchronized long[] primes(int from, int count) {
+		if (primes.length < from + count) {
+			long[] grown = Arrays.copyOf(primes, Math.max(from + count, primes.length * 2));
+			long candidate = primes.length == 0 ? Integer.MAX_VALUE : primes[primes.length - 1] - 2;
+			for (int i = primes.length; i < grown.length; candidate -= 2) {
+				if (isPrime(candidate)) grown[i++] = candidate;
+			}
+			primes = grown;
+		}
+		return Arrays.copyOfRange(primes, from, from + count);
+	}
+
+	/**
+	 * 2^32 未満で決定的なミラー・ラビン判定法。
+	 */
+	private static boolean isPrime(long n) {
+		if (n % 3 == 0 || n % 5 == 0 || n % 7 == 0) return false;
+		long d = n - 1;
+		int s = Long.numberOfTrailingZeros(d);
+		d >>= s;
+		for (long a : new long[] { 2, 3, 5, 7 }) {
+			long x = 1, base = a, e = d;
+			while (e > 0) {
+				if ((e & 1) != 0) x = x * base % n;
+				base = base * base % n;
+				e >>= 1;
+			}
+			if (x == 1 || x == n - 1) continue;
+			boolean composite = true;
+			for (int i = 1; i < s; i++) {
+				x = x * x % n;
+				if (x == n - 1) {
+					composite = false;
+					break;
+				}
+			}
+			if (composite) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 積の木の節。 葉は1つの素数を表し、index はその素数の位置。
+	 */
+	private record Node(BigInteger product, Node left, Node right, int index) {
+	}
+}
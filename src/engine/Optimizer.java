@@ -0,0 +1,244 @@
+package engine;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BinaryOperator;
+
+import model.BigFraction;
+import model.Symbol;
+import model.Term;
+import model.Type;
+
+/**
+ * 和と積の項の順序を計算量が小さくなるよう並べ替える最適化。 有理数の計算は順序によらず結果が変わらないため、
+ * 構文木の値は変わりません。
+ * <p>
+ * "+", "-" の連なりと "*", "/" の連なりをそれぞれ1つの項の列に平らにし、分子・分母の推定ビット長が小さい2項から
+ * 順に結合する（ハフマン符号と同じ手順）ことで、途中の分母の膨張と巨大な乗算を減らします。
+ * 和では分母が共通の素因数を持つ項（1/6, 1/10, 1/15 など）を先にまとめるため、その部分の分母は
+ * 各分母の最小公倍数にしかならず、互いに素な分母の積ほどには大きくなりません。
+ * ビット長は数値のリテラルや小さな定数の部分木では正確な値を、それ以外では演算ごとの上限から推定します。
+ */
+public final class Optimizer {
+
+	/** 正確な値を保持する定数の部分木のビット長の上限 */
+	private static final int EXACT_BITS = 256;
+	/** 値の分からない変数の推定ビット長 */
+	private static final int VARIABLE_BITS = 64;
+
+	private Optimizer() {
+	}
+
+	/**
+	 * 和と積の項を並べ替えた構文木を返します。 元の構文木は変更しません。
+	 *
+	 * @param term 構文木
+	 * @return 最適化した構文木
+	 */
+	public static Term optimize(Term term) {
+		return optimizeNode(term).term;
+	}
+
+	private static Operand optimizeNode(Term term) {
+		if (term.label.type() != Type.OPERATOR) {
+			if (term.label.type() != Type.NUMBER) return new Operand(term, VARIABLE_BITS, 1, null);
+			return exact(term, BigFraction.parseBigFraction(term.label.symbol()));
+		}
+		String op = term.label.symbol();
+		return op.equals("+") || op.equals("-") ? optimizeSum(term) : optimizeProduct(term);
+	}
+
+	/**
+	 * 和の連なりを符号付きの項に分け、分母が共通の因数を持つ項どうしをまとめてから小さい順に結合する。
+	 */
+	private static Operand optimizeSum(Term term) {
+		List<Group> groups = new ArrayList<>();
+		List<Signed> others = new ArrayList<>();
+		Deque<Term> stack = new ArrayDeque<>();
+		Deque<Boolean> signs = new ArrayDeque<>();
+		stack.push(term);
+		signs.push(false);
+		while (!stack.isEmpty()) {
+			Term t = stack.pop();
+			boolean negative = signs.pop();
+			String op = t.label.type() == Type.OPERATOR ? t.label.symbol() : "";
+			if (op.equals("+") || op.equals("-")) {
+				stack.push(t.right);
+				signs.push(op.equals("-") != negative);
+				stack.push(t.left);
+				signs.push(negative);
+				continue;
+			}
+			Signed s = new Signed(optimizeNode(t), negative);
+			if (s.operand.exact == null) others.add(s);
+			else addToGroup(groups, s);
+		}
+		for (Group group : groups) others.add(huffman(group.members, Optimizer::addSigned));
+		Signed sum = huffman(others, Optimizer::addSigned);
+		if (!sum.negative) return sum.operand;
+		return combine("*", exact(new Term(new Symbol("-1", Type.NUMBER), null, null), BigFraction.valueOf(-1)), sum.operand);
+	}
+
+	/**
+	 * 分母がグループの分母の最小公倍数と1より大きい公約数を持つグループをすべて1つに併合し、項を加える。
+	 * 整数の項は分母1のグループにまとめる。
+	 */
+	private static void addToGroup(List<Group> groups, Signed s) {
+		BigInteger denominator = s.operand.exact.denominator();
+		Group target = null;
+		for (int i = 0; i < groups.size(); i++) {
+			Group group = groups.get(i);
+			boolean shared = denominator.equals(BigInteger.ONE) ? group.denominator.equals(BigInteger.ONE)
+					: !denominator.gcd(group.denominator).equals(BigInteger.ONE);
+			if (!shared) continue;
+			if (target == null) {
+				target = group;
+			} else {
+				target.merge(group);
+				groups.remove(i--);
+			}
+		}
+		if (target == null) {
+			target = new Group();
+			groups.add(target);
+		}
+		target.add(s, denominator);
+	}
+
+	/**
+	 * 積の連なりを分子側と分母側の因数に分け、それぞれ小さい順に掛け合わせる。
+	 */
+	private static Operand optimizeProduct(Term term) {
+		List<Operand> numerators = new ArrayList<>();
+		List<Operand> denominators = new ArrayList<>();
+		Deque<Term> stack = new ArrayDeque<>();
+		Deque<Boolean> inverses = new ArrayDeque<>();
+		stack.push(term);
+		inverses.push(false);
+		while (!stack.isEmpty()) {
+			Term t = stack.pop();
+			boolean inverse = inverses.pop();
+			String op = t.label.type() == Type.OPERATOR ? t.label.symbol() : "";
+			// 除数の中の除算は平らにすると0除算が分子に移って消えるため、1つの因数として扱う
+			if (op.equals("*") || (op.equals("/") && !inverse)) {
+				stack.push(t.right);
+				inverses.push(inverse || op.equals("/"));
+				stack.push(t.left);
+				inverses.push(inverse);
+				continue;
+			}
+			(inverse ? denominators : numerators).add(optimizeNode(t));
+		}
+		Operand numerator = huffman(numerators, (a, b) -> combine("*", a, b));
+		if (denominators.isEmpty()) return numerator;
+		return combine("/", numerator, huffman(denominators, (a, b) -> combine("*", a, b)));
+	}
+
+	/**
+	 * 推定ビット長の小さい2項を取り出して結合し、結果を戻すことを1項になるまで繰り返す。
+	 */
+	private static <T extends Weighted> T huffman(List<T> items, BinaryOperator<T> merge) {
+		if (items.size() == 1) return items.get(0);
+		PriorityQueue<Entry<T>> queue = new PriorityQueue<>(Comparator.<Entry<T>>comparingLong(e -> e.item.weight())
+				.thenComparingLong(e -> e.order));
+		long order = 0;
+		for (T item : items) queue.add(new Entry<>(item, order++));
+		while (queue.size() > 1) {
+			T a = queue.poll().item;
+			T b = queue.poll().item;
+			queue.add(new Entry<>(merge.apply(a, b), order++));
+		}
+		return queue.poll().item;
+	}
+
+	/**
+	 * 符号付きの2項を、できるだけ符号を外に出さずに加算・減算で結合する。
+	 */
+	private static Signed addSigned(Signed a, Signed b) {
+		if (a.negative == b.negative) return new Signed(combine("+", a.operand, b.operand), a.negative);
+		if (b.negative) return new Signed(combine("-", a.operand, b.operand), false);
+		return new Signed(combine("-", b.operand, a.operand), false);
+	}
+
+	/**
+	 * 2項を演算子で結合し、結果のビット長を見積もる。
+	 */
+	private static Operand combine(String op, Operand a, Operand b) {
+		Term term = new Term(new Symbol(op, Type.OPERATOR), a.term, b.term);
+		if (a.exact != null && b.exact != null && !(op.equals("/") && b.exact.numerator().signum() == 0)) {
+			BigFraction value = switch (op) {
+				case "+" -> a.exact.add(b.exact);
+				case "-" -> a.exact.sub(b.exact);
+				case "*" -> a.exact.mul(b.exact);
+				default -> a.exact.div(b.exact);
+			};
+			if (value.numerator().bitLength() <= EXACT_BITS && value.denominator().bitLength() <= EXACT_BITS) return exact(term, value);
+		}
+		return switch (op) {
+			case "+", "-" -> new Operand(term, Math.max(a.numBits + b.denBits, b.numBits + a.denBits) + 1, a.denBits + b.denBits, null);
+			case "*" -> new Operand(term, a.numBits + b.numBits, a.denBits + b.denBits, null);
+			default -> new Operand(term, a.numBits + b.denBits, a.denBits + b.numBits, null);
+		};
+	}
+
+	private static Operand exact(Term term, BigFraction value) {
+		return new Operand(term, value.numerator().bitLength(), value.denominator().bitLength(), value);
+	}
+
+	/**
+	 * 結合の順序を決めるための重み。
+	 */
+	private interface Weighted {
+		long weight();
+	}
+
+	/**
+	 * 最適化した部分木と、その値の分子・分母の推定ビット長。 小さな定数の場合は正確な値も持つ。
+	 */
+	private record Operand(Term term, int numBits, int denBits, BigFraction exact) implements Weighted {
+		@Override
+		public long weight() {
+			return (long) numBits + denBits;
+		}
+	}
+
+	/**
+	 * 和の中の項とその符号。
+	 */
+	private record Signed(Operand operand, boolean negative) implements Weighted {
+		@Override
+		public long weight() {
+			return operand.weight();
+		}
+	}
+
+	private record Entry<T>(T item, long order) {
+	}
+
+	/**
+	 * 分母が共通の因数でつながった和の項の集まりと、その分母の最小公倍数。
+	 */
+	private static final class Group {
+		private final List<Signed> members = new ArrayList<>();
+		private BigInteger denominator = BigInteger.ONE;
+
+		private void add(Signed s, BigInteger d) {
+			members.add(s);
+			denominator = lcm(denominator, d);
+		}
+
+		private void merge(Group other) {
+			members.addAll(other.members);
+			denominator = lcm(denominator, other.denominator);
+		}
+
+		private static BigInteger lcm(BigInteger a, BigInteger b) {
+			return a.divide(a.gcd(b)).multiply(b);
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import model.BigFraction;
+import model.Term;
+import model.Type;
+import parser.Parser;
+
+/**
+ * 一度だけ解析した数式を、値を差し替えながら繰り返し評価するためのクラス。
+ * 変数は出現順にスロット番号へ解決され、評価時には文字列処理を一切行わない後置記法の命令列を実行します。
+ */
+public final class PreparedExpression {
+
+	static final byte CONST = 0;
+	static final byte LOAD = 1;
+	static final byte ADD = 2;
+	static final byte SUB = 3;
+	static final byte MUL = 4;
+	static final byte DIV = 5;
+
+	private final Term term;
+	private final String[] variables;
+	private final byte[] ops;
+	private final int[] args;
+	private final BigFraction[] constants;
+	private final double[] doubleConstants;
+	private final int maxStack;
+
+	private PreparedExpression(Term term, String[] variables, byte[] ops, int[] args, BigFraction[] constants,
+			int maxStack) {
+		this.term = term;
+		this.variables = variables;
+		this.ops = ops;
+		this.args = args;
+		this.constants = constants;
+		this.maxStack = maxStack;
+		doubleConstants = new double[constants.length];
+		for (int i = 0; i < constants.length; i++) doubleConstants[i] = constants[i].doubleValue();
+	}
+
+	/**
+	 * 数式を解析し、評価可能な形に変換します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 準備済みの数式
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 */
+	public static PreparedExpression prepare(String expression) {
+		return of(Parser.doParse(expression));
+	}
+
+	/**
+	 * 解析済みのTermを評価可能な形に変換します。
+	 *
+	 * @param term 数式を表現するTermオブジェクト
+	 * @return 準備済みの数式
+	 */
+	public static PreparedExpression of(Term term) {
+		Compiler c = new Compiler();
+		c.emit(term, 1);
+		return new PreparedExpression(term, c.variables.toArray(new String[0]), Arrays.copyOf(c.ops, c.size),
+				Arrays.copyOf(c.args, c.size), c.constants.toArray(new BigFraction[0]), c.maxStack);
+	}
+
+	/**
+	 * 変数に分数を割り当てて評価します。 values[i] はスロット i の変数に対応します。
+	 *
+	 * @param values 各スロットの値
+	 * @return 計算結果
+	 * @throws IllegalArgumentException 値の数が変数の数より少ない場合
+	 * @throws ArithmeticException      0で除算した場合
+	 */
+	public BigFraction evaluate(BigFraction... values) {
+		checkArity(values.length);
+		BigFraction[] stack = new BigFraction[maxStack];
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+				case CONST -> stack[sp++] = constants[args[pc]];
+				case LOAD -> stack[sp++] = values[args[pc]];
+				case ADD -> {
+					sp--;
+					stack[sp - 1] = stack[sp - 1].add(stack[sp]);
+				}
+				case SUB -> {
+					sp--;
+					stack[sp - 1] = stack[sp - 1].sub(stack[sp]);
+				}
+				case MUL -> {
+					sp--;
+					stack[sp - 1] = stack[sp - 1].mul(stack[sp]);
+				}
+				case DIV -> {
+					sp--;
+					stack[sp - 1] = stack[sp - 1].div(stack[sp]);
+				}
+				default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * 変数に実数を割り当てて浮動小数点数で評価します。 values[i] はスロット i の変数に対応します。
+	 *
+	 * @param values 各スロットの値
+	 * @return 計算結果
+	 * @throws IllegalArgumentException 値の数が変数の数より少ない場合
+	 */
+	public double evaluateDouble(double... values) {
+		checkArity(values.length);
+		double[] stack = new double[maxStack];
+		int sp = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+				case CONST -> stack[sp++] = doubleConstants[args[pc]];
+				case LOAD -> stack[sp++] = values[args[pc]];
+				case ADD -> {
+					sp--;
+					stack[sp - 1] += stack[sp];
+				}
+				case SUB -> {
+					sp--;
+					stack[sp - 1] -= stack[sp];
+				}
+				case MUL -> {
+					sp--;
+					stack[sp - 1] *= stack[sp];
+				}
+				case DIV -> {
+					sp--;
+					stack[sp - 1] /= stack[sp];
+				}
+				default -> throw new IllegalStateException("Unexpected opcode: " + ops[pc]);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * 変数名に対応するスロット番号を返します。
+	 *
+	 * @param name 変数名
+	 * @return スロット番号、存在しない場合は-1
+	 */
+	public int slotOf(String name) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].equals(name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * スロット順に並んだ変数名を返します。
+	 *
+	 * @return 変数名の配列
+	 */
+	public String[] variables() {
+		return variables.clone();
+	}
+
+	/**
+	 * 変数の数を返します。
+	 *
+	 * @return 変数の数
+	 */
+	public int arity() {
+		return variables.length;
+	}
+
+	/**
+	 * 元のTermを返します。
+	 *
+	 * @return 数式を表現するTermオブジェクト
+	 */
+	public Term term() {
+		return term;
+	}
+
+	public String toString() {
+		return term + " " + Arrays.toString(variables);
+	}
+
+	// 同一パッケージの評価器が命令列を共有するためのアクセサ
+
+	byte[] ops() {
+		return ops;
+	}
+
+	int[] args() {
+		return args;
+	}
+
+	BigFraction[] constants() {
+		return constants;
+	}
+
+	double[] doubleConstants() {
+		return doubleConstants;
+	}
+
+	int maxStack() {
+		return maxStack;
+	}
+
+	void checkArity(int length) {
+		if (length < variables.length)
+			throw new IllegalArgumentException("Expected " + variables.length + " values, but found " + length);
+	}
+
+	/**
+	 * Termを後置記法の命令列に変換する。
+	 */
+	private static final class Compiler {
+		private final List<String> variables = new ArrayList<>();
+		private final List<BigFraction> constants = new ArrayList<>();
+		private byte[] ops = new byte[16];
+		private int[] args = new int[16];
+		private int size;
+		private int maxStack;
+
+		/**
+		 * "a + b + c + ..." のように左に連なる演算子は再帰せずにたどり、再帰の深さを右の部分木の深さに抑える。
+		 * 左の被演算子はその演算子と同じスタックの深さで評価される。
+		 */
+		private void emit(Term term, int depth) {
+			Deque<Term> spine = new ArrayDeque<>();
+			Term t = term;
+			while (t.label.type() == Type.OPERATOR) {
+				spine.push(t);
+				t = t.left;
+			}
+			emitOperand(t, depth);
+			while (!spine.isEmpty()) {
+				Term op = spine.pop();
+				emit(op.right, depth + 1);
+				add(switch (op.label.symbol()) {
+					case "+" -> ADD;
+					case "-" -> SUB;
+					case "*" -> MUL;
+					case "/" -> DIV;
+					default -> throw new IllegalStateException("Unexpected value: " + op.label.symbol());
+				}, 0);
+			}
+		}
+
+		private void emitOperand(Term term, int depth) {
+			maxStack = Math.max(maxStack, depth);
+			if (term.label.type() == Type.VARIABLE) {
+				int slot = variables.indexOf(term.label.symbol());
+				if (slot < 0) {
+					slot = variables.size();
+					variables.add(term.label.symbol());
+				}
+				add(LOAD, slot);
+				return;
+			}
+			constants.add(BigFraction.parseBigFraction(term.label.symbol()));
+			add(CONST, constants.size() - 1);
+		}
+
+		private void add(byte op, int arg) {
+			if (size == ops.length) {
+				ops = Arrays.copyOf(ops, size * 2);
+				args = Arrays.copyOf(args, size * 2);
+			}
+			ops[size] = op;
+			args[size++] = arg;
+		}
+	}
+}
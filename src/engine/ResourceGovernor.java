@@ -0,0 +1,184 @@
+package engine;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import model.BigFraction;
+import model.EvaluationMonitor;
+import model.Term;
+import parser.Parser;
+
+/**
+ * 数式の解析・評価に使える資源に上限を設けるクラス。 1つの数式が巨大な分子・分母を作り続けて
+ * コアを占有することを防ぎます。 上限を超えると ResourceLimitExceededException が投げられます。
+ * <p>
+ * ノード数と括弧の深さは構文木を作る前に文字列を走査して調べるため、巨大な入力は解析前に拒否されます。
+ * 構文木を作った後にも、ノード数と評価時の入れ子の深さを調べます。
+ * ビット長と時間は各ノードの計算後に調べるため、上限を超えた計算は1回の演算を終えた時点で中断されます。
+ */
+public final class ResourceGovernor {
+
+	/**
+	 * 上限を設けないGovernor。
+	 */
+	public static final ResourceGovernor UNLIMITED = new ResourceGovernor(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+
+	private final int maxBitLength;
+	private final int maxNodes;
+	private final int maxDepth;
+	private final Duration timeLimit;
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param maxBitLength 分子・分母それぞれのビット長の上限
+	 * @param maxNodes     構文木のノード数の上限
+	 * @param maxDepth     括弧と構文木の入れ子の深さの上限
+	 * @param timeLimit    解析と評価にかけられる時間、null の場合は制限なし
+	 */
+	public ResourceGovernor(int maxBitLength, int maxNodes, int maxDepth, Duration timeLimit) {
+		if (maxBitLength <= 0 || maxNodes <= 0 || maxDepth < 0) throw new IllegalArgumentException("limits must be positive");
+		if (timeLimit != null && timeLimit.isNegative()) throw new IllegalArgumentException("negative time limit: " + timeLimit);
+		this.maxBitLength = maxBitLength;
+		this.maxNodes = maxNodes;
+		this.maxDepth = maxDepth;
+		this.timeLimit = timeLimit;
+	}
+
+	/**
+	 * 上限を確認しながら数式を解析します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 数式を表現するTermオブジェクト
+	 * @throws ResourceLimitExceededException  ノード数または深さが上限を超えた場合
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 */
+	public Term parse(String expression) {
+		scan(expression);
+		Term term = Parser.doParse(expression);
+		checkTree(term);
+		return term;
+	}
+
+	/**
+	 * 上限を確認しながら数式を解析・評価します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 計算結果
+	 * @throws ResourceLimitExceededException  いずれかの上限を超えた場合
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 * @throws ArithmeticException             0で除算した場合
+	 */
+	public BigFraction evaluate(String expression) {
+		long start = System.nanoTime();
+		Term term = parse(expression);
+		return term.calc(monitor(start));
+	}
+
+	/**
+	 * 上限を確認しながら構文木を評価します。 ノード数と深さは確認しません。
+	 *
+	 * @param term 構文木
+	 * @return 計算結果
+	 * @throws ResourceLimitExceededException ビット長または時間が上限を超えた場合
+	 * @throws ArithmeticException            0で除算した場合
+	 */
+	public BigFraction evaluate(Term term) {
+		return term.calc(monitor(System.nanoTime()));
+	}
+
+	/**
+	 * 各ノードの計算結果のビット長と経過時間を調べる監視者を作る。
+	 */
+	private EvaluationMonitor monitor(long start) {
+		long limitNanos = timeLimit == null ? Long.MAX_VALUE : timeLimit.toNanos();
+		checkTime(start, limitNanos);
+		return (term, value) -> {
+			if (value.numerator().bitLength() > maxBitLength || value.denominator().bitLength() > maxBitLength)
+				throw new ResourceLimitExceededException(ResourceLimitExceededException.Resource.BIT_LENGTH, maxBitLength);
+			checkTime(start, limitNanos);
+		};
+	}
+
+	private void checkTime(long start, long limitNanos) {
+		if (System.nanoTime() - start > limitNanos)
+			throw new ResourceLimitExceededException(ResourceLimitExceededException.Resource.TIME, timeLimit.toMillis());
+	}
+
+	/**
+	 * 構文木を作らずに字句の数と括弧の深さを数える。 括弧以外の字句はそれぞれ1つ以上のノードになるため、
+	 * 字句の数が上限を超えていればノード数も上限を超えている。 被演算子の位置にある負号は直後の数値と合わせて
+	 * 1つの NUMBER ノードになるため、数値とまとめて1つと数える。
+	 */
+	private void scan(String expression) {
+		int tokens = 0;
+		int depth = 0;
+		boolean inToken = false;
+		boolean operand = false;
+		for (int i = 0; i < expression.length(); i++) {
+			char c = expression.charAt(i);
+			boolean word = Character.isLetterOrDigit(c) || c == '.' || c == '_';
+			if (word && inToken) continue;
+			inToken = word;
+			switch (c) {
+				case ' ' -> {
+					continue;
+				}
+				case '(' -> {
+					if (++depth > maxDepth)
+						throw new ResourceLimitExceededException(ResourceLimitExceededException.Resource.DEPTH, maxDepth);
+					operand = false;
+					continue;
+				}
+				case ')' -> {
+					depth--;
+					operand = true;
+					continue;
+				}
+				case '-' -> {
+					if (!operand && startsWithDigit(expression, i + 1)) continue;
+				}
+				default -> {
+				}
+			}
+			operand = word;
+			if (++tokens > maxNodes)
+				throw new ResourceLimitExceededException(ResourceLimitExceededException.Resource.NODE_COUNT, maxNodes);
+		}
+	}
+
+	private static boolean startsWithDigit(String expression, int from) {
+		int i = from;
+		while (i < expression.length() && expression.charAt(i) == ' ') i++;
+		return i < expression.length() && Character.isDigit(expression.charAt(i));
+	}
+
+	/**
+	 * 単項マイナスや暗黙の乗算で増えた分を含め、構文木のノード数と入れ子の深さを数える。
+	 * 左に連なる演算は評価時に反復でたどるため、深さは右の被演算子が演算子である場合にだけ増える。
+	 */
+	private void checkTree(Term term) {
+		Deque<Term> stack = new ArrayDeque<>();
+		Deque<Integer> depths = new ArrayDeque<>();
+		stack.push(term);
+		depths.push(0);
+		int nodes = 0;
+		while (!stack.isEmpty()) {
+			Term t = stack.pop();
+			int depth = depths.pop();
+			if (++nodes > maxNodes)
+				throw new ResourceLimitExceededException(ResourceLimitExceededException.Resource.NODE_COUNT, maxNodes);
+			if (depth > maxDepth)
+				throw new ResourceLimitExceededException(ResourceLimitExceededException.Resource.DEPTH, maxDepth);
+			if (t.left != null) {
+				stack.push(t.left);
+				depths.push(depth);
+			}
+			if (t.right != null) {
+				stack.push(t.right);
+				depths.push(t.right.right != null ? depth + 1 : depth);
+			}
+		}
+	}
+}
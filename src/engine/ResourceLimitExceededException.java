@@ -0,0 +1,60 @@
+package engine;
+
+import java.io.Serial;
+
+/**
+ * 数式の解析・評価が資源の上限を超えたときに投げられる例外。
+ * 算術演算の失敗として扱えるよう ArithmeticException を継承しているため、0除算と同じ箇所で処理できます。
+ */
+public class ResourceLimitExceededException extends ArithmeticException {
+
+	@Serial
+	private static final long serialVersionUID = 4809361027756514331L;
+
+	/**
+	 * 上限の種類。
+	 */
+	public enum Resource {
+		/** 分子・分母のビット長 */
+		BIT_LENGTH,
+		/** 構文木のノード数 */
+		NODE_COUNT,
+		/** 括弧または構文木の入れ子の深さ */
+		DEPTH,
+		/** 評価にかかる時間（ミリ秒） */
+		TIME
+	}
+
+	private final Resource resource;
+	private final long limit;
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param resource 超えた上限の種類
+	 * @param limit    上限の値
+	 */
+	public ResourceLimitExceededException(Resource resource, long limit) {
+		super(resource + " limit exceeded: " + limit);
+		this.resource = resource;
+		this.limit = limit;
+	}
+
+	/**
+	 * 超えた上限の種類を返します。
+	 *
+	 * @return 上限の種類
+	 */
+	public Resource resource() {
+		return resource;
+	}
+
+	/**
+	 * 上限の値を返します。
+	 *
+	 * @return 上限の値
+	 */
+	public long limit() {
+		return limit;
+	}
+}
@@ -0,0 +1,238 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import model.BigFraction;
+
+/**
+ * 数式の実行段階を自動で切り替える評価器。 最初は解釈実行し、呼び出し回数がしきい値を超えた数式を
+ * バックグラウンドでコンパイルします。 一定時間呼ばれなかったコンパイル済みの数式は破棄され、解釈実行に戻ります。
+ * <p>
+ * キャッシュする数式の数には上限があり、超えた場合は最後に使われた時刻の古い数式から破棄します。
+ */
+public final class TieredEvaluator implements AutoCloseable {
+
+	/** 既定のキャッシュの上限 */
+	private static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+	private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+	private final int maxEntries;
+	private final int hotThreshold;
+	private final long coldNanos;
+	private final Executor executor;
+	private final Function<PreparedExpression, FractionFormula> compiler;
+	private final ScheduledExecutorService sweeper;
+	private final LongAdder interpretedCalls = new LongAdder();
+	private final LongAdder compiledCalls = new LongAdder();
+	private final LongAdder promotions = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * 既定の設定（しきい値 1000 回、1分で破棄、10000 式までキャッシュ）で評価器を作成します。
+	 */
+	public TieredEvaluator() {
+		this(1000, 60_000, ForkJoinPool.commonPool(), BytecodeCompiler::compile);
+	}
+
+	/**
+	 * 10000 式までキャッシュする評価器を作成します。
+	 *
+	 * @param hotThreshold コンパイルに移行する呼び出し回数
+	 * @param coldMillis   コンパイル済みの数式を破棄するまでの未使用時間（ミリ秒）、0以下なら自動では破棄しない
+	 * @param executor     コンパイルを実行するExecutor
+	 * @param compiler     数式をコンパイルする関数
+	 */
+	public TieredEvaluator(int hotThreshold, long coldMillis, Executor executor,
+			Function<PreparedExpression, FractionFormula> compiler) {
+		this(hotThreshold, coldMillis, executor, compiler, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param hotThreshold コンパイルに移行する呼び出し回数
+	 * @param coldMillis   コンパイル済みの数式を破棄するまでの未使用時間（ミリ秒）、0以下なら自動では破棄しない
+	 * @param executor     コンパイルを実行するExecutor
+	 * @param compiler     数式をコンパイルする関数
+	 * @param maxEntries   キャッシュする数式の数の上限
+	 */
+	public TieredEvaluator(int hotThreshold, long coldMillis, Executor executor,
+			Function<PreparedExpression, FractionFormula> compiler, int maxEntries) {
+		if (hotThreshold < 0) throw new IllegalArgumentException("hotThreshold < 0: " + hotThreshold);
+		if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0: " + maxEntries);
+		this.maxEntries = maxEntries;
+		this.hotThreshold = hotThreshold;
+		this.coldNanos = TimeUnit.MILLISECONDS.toNanos(coldMillis);
+		this.executor = executor;
+		this.compiler = compiler;
+		if (coldMillis > 0) {
+			sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "tiered-evaluator-sweeper");
+				t.setDaemon(true);
+				return t;
+			});
+			sweeper.scheduleWithFixedDelay(this::evictCold, coldMillis, coldMillis, TimeUnit.MILLISECONDS);
+		} else {
+			sweeper = null;
+		}
+	}
+
+	/**
+	 * 数式を評価します。 数式は初回に解析されキャッシュされます。
+	 *
+	 * @param expression 数式の文字列
+	 * @param values     各スロットの値
+	 * @return 計算結果
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 * @throws IllegalArgumentException        値の数が変数の数より少ない場合
+	 */
+	public BigFraction evaluate(String expression, BigFraction... values) {
+		Entry entry = cache.get(expression);
+		if (entry == null) {
+			entry = cache.computeIfAbsent(expression, e -> new Entry(PreparedExpression.prepare(e)));
+			if (cache.size() > maxEntries) trim();
+		}
+		entry.lastAccess = System.nanoTime();
+		FractionFormula formula = entry.compiled;
+		if (formula != null) {
+			compiledCalls.increment();
+			entry.prepared.checkArity(values.length);
+			return formula.apply(values);
+		}
+		interpretedCalls.increment();
+		if (entry.calls.incrementAndGet() >= hotThreshold) promote(entry);
+		return entry.prepared.evaluate(values);
+	}
+
+	/**
+	 * 長い間使われていないコンパイル済みの数式を破棄し、解釈実行に戻します。
+	 */
+	public void evictCold() {
+		long now = System.nanoTime();
+		for (Entry entry : cache.values()) {
+			if (entry.compiled != null && now - entry.lastAccess >= coldNanos) {
+				entry.compiled = null;
+				entry.calls.set(0);
+				entry.compiling.set(false);
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * 段階ごとの統計を返します。
+	 *
+	 * @return 統計情報
+	 */
+	public Statistics statistics() {
+		int compiled = 0;
+		for (Entry entry : cache.values()) {
+			if (entry.compiled != null) compiled++;
+		}
+		return new Statistics(cache.size() - compiled, compiled, interpretedCalls.sum(), compiledCalls.sum(),
+				promotions.sum(), evictions.sum());
+	}
+
+	/**
+	 * キャッシュを空にします。
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	@Override
+	public void close() {
+		if (sweeper != null) sweeper.shutdownNow();
+		cache.clear();
+	}
+
+	/**
+	 * キャッシュが上限を超えた場合に、最後に使われた時刻の古い数式から上限の3/4まで破棄する。
+	 * 一度に多めに破棄することで、並べ替えの費用を挿入ごとに払わずに済ませる。
+	 */
+	private synchronized void trim() {
+		if (cache.size() <= maxEntries) return;
+		List<Map.Entry<String, Entry>> entries = new ArrayList<>(cache.entrySet());
+		entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+		int excess = entries.size() - (maxEntries - maxEntries / 4);
+		for (int i = 0; i < excess; i++) cache.remove(entries.get(i).getKey(), entries.get(i).getValue());
+	}
+
+	private void promote(Entry entry) {
+		if (!entry.compiling.compareAndSet(false, true)) return;
+		try {
+			executor.execute(() -> compile(entry));
+		} catch (RejectedExecutionException e) {
+			retryLater(entry);
+		}
+	}
+
+	private void compile(Entry entry) {
+		boolean finished = false;
+		try {
+			entry.compiled = compiler.apply(entry.prepared);
+			entry.lastAccess = System.nanoTime();
+			promotions.increment();
+			finished = true;
+		} catch (IllegalArgumentException e) {
+			// 大きすぎてコンパイルできない数式は解釈実行のまま残す
+			finished = true;
+		} catch (RuntimeException e) {
+			// その他の失敗は一時的なものかもしれないため、finally で再試行できる状態に戻す
+		} finally {
+			if (!finished) retryLater(entry);
+		}
+	}
+
+	/**
+	 * コンパイルを始められなかった、または失敗した数式を、再びしきい値に達したときにもう一度コンパイルする。
+	 */
+	private void retryLater(Entry entry) {
+		entry.calls.set(0);
+		entry.compiling.set(false);
+	}
+
+	/**
+	 * 段階ごとの統計。
+	 *
+	 * @param interpreted      解釈実行中の数式の数
+	 * @param compiled         コンパイル済みの数式の数
+	 * @param interpretedCalls 解釈実行による評価回数
+	 * @param compiledCalls    コンパイル済みの関数による評価回数
+	 * @param promotions       コンパイルに移行した回数
+	 * @param evictions        コンパイル済みの数式を破棄した回数
+	 */
+	public record Statistics(int interpreted, int compiled, long interpretedCalls, long compiledCalls,
+			long promotions, long evictions) {
+	}
+
+	/**
+	 * キャッシュされた数式ごとの状態。
+	 */
+	private static final class Entry {
+		private final PreparedExpression prepared;
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicBoolean compiling = new AtomicBoolean();
+		private volatile FractionFormula compiled;
+		private volatile long lastAccess;
+
+		private Entry(PreparedExpression prepared) {
+			this.prepared = prepared;
+			this.lastAccess = System.nanoTime();
+		}
+	}
+}
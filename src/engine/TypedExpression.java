@@ -0,0 +1,282 @@
+package engine;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import model.BigFraction;
+import model.Term;
+import model.Type;
+import parser.Parser;
+
+/**
+ * 構文木の各部分木が整数になるかを推論し、整数の部分木を分数を使わずに計算するクラス。
+ * <p>
+ * 整数のリテラルを "+", "-", "*" だけで組み合わせた部分木は必ず整数になります。 このような部分木は
+ * オーバーフローを検査しながら long で計算し、溢れた場合だけ BigInteger で計算し直します。
+ * 分数になるのは "/" のノードと整数でないリテラルだけで、整数どうしの "/" では約分が1回で済みます。
+ * リテラルの値は解析時に一度だけ求めるため、同じ式を繰り返し評価する場合にも文字列を解析し直しません。
+ * <p>
+ * "a + b + c + ..." のように左に連なる演算子は、推論でも評価でも再帰せずにたどります。
+ */
+public final class TypedExpression {
+
+	private final Node root;
+
+	private TypedExpression(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * 数式を解析し、各部分木の型を推論します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 型を推論した数式
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 */
+	public static TypedExpression analyze(String expression) {
+		return analyze(Parser.doParse(expression));
+	}
+
+	/**
+	 * 構文木の各部分木の型を推論します。
+	 *
+	 * @param term 構文木
+	 * @return 型を推論した数式
+	 * @throws ArithmeticException 分母が0のリテラルを含む場合
+	 */
+	public static TypedExpression analyze(Term term) {
+		return new TypedExpression(build(term));
+	}
+
+	/**
+	 * 式全体が整数になるかを返します。
+	 *
+	 * @return 除算を含まない整数だけの式の場合はtrue
+	 */
+	public boolean isInteger() {
+		return root.integer;
+	}
+
+	/**
+	 * long または BigInteger で計算する部分木のうち、演算子を含む極大なものの数を返します。
+	 *
+	 * @return 部分木の数
+	 */
+	public int integerSubtrees() {
+		return countIntegerSubtrees(root);
+	}
+
+	/**
+	 * 数式を評価します。
+	 *
+	 * @return 計算結果
+	 * @throws ArithmeticException   0で除算した場合
+	 * @throws IllegalStateException 値の決まっていない変数を含む場合
+	 */
+	public BigFraction evaluate() {
+		return fraction(root);
+	}
+
+	/**
+	 * 整数の式を評価します。
+	 *
+	 * @return 計算結果
+	 * @throws IllegalStateException 式が整数にならない場合
+	 */
+	public BigInteger evaluateInteger() {
+		if (!root.integer) throw new IllegalStateException("Not an integer expression");
+		return integer(root);
+	}
+
+	private static Node build(Term term) {
+		Deque<Term> spine = new ArrayDeque<>();
+		Term t = term;
+		while (t.label.type() == Type.OPERATOR) {
+			spine.push(t);
+			t = t.left;
+		}
+		Node node = leaf(t);
+		while (!spine.isEmpty()) {
+			Term parent = spine.pop();
+			char op = parent.label.symbol().charAt(0);
+			Node right = build(parent.right);
+			node = new Node(op, node.integer && right.integer && op != '/', node, right);
+		}
+		return node;
+	}
+
+	private static Node leaf(Term term) {
+		String symbol = term.label.symbol();
+		if (term.label.type() == Type.VARIABLE) return new Node(symbol);
+		if (isDigits(symbol)) {
+			if (symbol.length() <= 18) return new Node(Long.parseLong(symbol), null);
+			return new Node(0, new BigInteger(symbol));
+		}
+		BigFraction value = BigFraction.parseBigFraction(symbol);
+		if (!value.isInteger()) return new Node(value);
+		BigInteger n = value.numerator();
+		return n.bitLength() < 64 ? new Node(n.longValue(), null) : new Node(0, n);
+	}
+
+	private static boolean isDigits(String s) {
+		if (s.isEmpty()) return false;
+		for (int i = 0; i < s.length(); i++) if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+		return true;
+	}
+
+	private static int countIntegerSubtrees(Node node) {
+		int count = 0;
+		Node n = node;
+		while (n.op != 0 && !n.integer) {
+			count += countIntegerSubtrees(n.right);
+			n = n.left;
+		}
+		return n.op == 0 ? count : count + 1;
+	}
+
+	/**
+	 * 分数の部分木を評価する。 整数の子は BigInteger のまま演算に渡し、整数どうしの "/" は分数を1回だけ作る。
+	 */
+	private static BigFraction fraction(Node node) {
+		if (node.integer) return new BigFraction(integer(node));
+		if (node.op == 0) {
+			if (node.variable != null) throw new IllegalStateException("Unbound variable: " + node.variable);
+			return node.fraction;
+		}
+		if (node.op == '/' && node.left.integer && node.right.integer)
+			return new BigFraction(integer(node.left), integer(node.right));
+		Deque<Node> spine = new ArrayDeque<>();
+		Node n = node;
+		while (n.op != 0 && !n.integer && !(n.op == '/' && n.left.integer && n.right.integer)) {
+			spine.push(n);
+			n = n.left;
+		}
+		BigFraction left = fraction(n);
+		while (!spine.isEmpty()) {
+			Node parent = spine.pop();
+			left = apply(parent.op, left, parent.right);
+		}
+		return left;
+	}
+
+	private static BigFraction apply(char op, BigFraction left, Node node) {
+		if (node.integer) {
+			BigInteger right = integer(node);
+			return switch (op) {
+				case '+' -> left.add(right);
+				case '-' -> left.sub(right);
+				case '*' -> left.mul(right);
+				default -> left.div(right);
+			};
+		}
+		BigFraction right = fraction(node);
+		return switch (op) {
+			case '+' -> left.add(right);
+			case '-' -> left.sub(right);
+			case '*' -> left.mul(right);
+			default -> left.div(right);
+		};
+	}
+
+	/**
+	 * 整数の部分木を long で計算し、溢れた場合は BigInteger で計算し直す。
+	 */
+	private static BigInteger integer(Node node) {
+		if (node.big == null) {
+			try {
+				return BigInteger.valueOf(small(node));
+			} catch (ArithmeticException e) {
+				// long に収まらないため BigInteger で計算する
+			}
+		}
+		return big(node);
+	}
+
+	private static long small(Node node) {
+		if (node.op == 0) {
+			if (node.big != null) throw new ArithmeticException("long overflow");
+			return node.small;
+		}
+		Deque<Node> spine = new ArrayDeque<>();
+		Node n = node;
+		while (n.op != 0) {
+			spine.push(n);
+			n = n.left;
+		}
+		long a = small(n);
+		while (!spine.isEmpty()) {
+			Node parent = spine.pop();
+			long b = small(parent.right);
+			a = switch (parent.op) {
+				case '+' -> Math.addExact(a, b);
+				case '-' -> Math.subtractExact(a, b);
+				default -> Math.multiplyExact(a, b);
+			};
+		}
+		return a;
+	}
+
+	private static BigInteger big(Node node) {
+		if (node.op == 0) return node.big != null ? node.big : BigInteger.valueOf(node.small);
+		Deque<Node> spine = new ArrayDeque<>();
+		Node n = node;
+		while (n.op != 0) {
+			spine.push(n);
+			n = n.left;
+		}
+		BigInteger a = big(n);
+		while (!spine.isEmpty()) {
+			Node parent = spine.pop();
+			BigInteger b = big(parent.right);
+			a = switch (parent.op) {
+				case '+' -> a.add(b);
+				case '-' -> a.subtract(b);
+				default -> a.multiply(b);
+			};
+		}
+		return a;
+	}
+
+	/**
+	 * 型を推論したノード。 op が0の場合はリテラルか変数で、整数のリテラルは small か big に値を持つ。
+	 */
+	private static final class Node {
+		private final char op;
+		private final boolean integer;
+		private final Node left;
+		private final Node right;
+		private final long small;
+		private final BigInteger big;
+		private final BigFraction fraction;
+		private final String variable;
+
+		private Node(char op, boolean integer, Node left, Node right) {
+			this(op, integer, left, right, 0, null, null, null);
+		}
+
+		private Node(long small, BigInteger big) {
+			this((char) 0, true, null, null, small, big, null, null);
+		}
+
+		private Node(BigFraction fraction) {
+			this((char) 0, false, null, null, 0, null, fraction, null);
+		}
+
+		private Node(String variable) {
+			this((char) 0, false, null, null, 0, null, null, variable);
+		}
+
+		private Node(char op, boolean integer, Node left, Node right, long small, BigInteger big, BigFraction fraction,
+				String variable) {
+			this.op = op;
+			this.integer = integer;
+			this.left = left;
+			this.right = right;
+			this.small = small;
+			this.big = big;
+			this.fraction = fraction;
+			this.variable = variable;
+		}
+	}
+}
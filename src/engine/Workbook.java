@@ -0,0 +1,310 @@
+package engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import model.BigFraction;
+import parser.Reader;
+
+/**
+ * 名前付きの数式の集まり。 数式中の変数は他の数式の名前として参照されます。
+ * 数式は定義時に一度だけ解析され、変更があった場合は影響を受ける数式だけをトポロジカル順に再計算します。
+ * 互いに依存しない数式は並列に計算されます。
+ */
+public final class Workbook {
+
+	private static final int PARALLEL_THRESHOLD = 64;
+
+	private final Map<String, Cell> cells = new LinkedHashMap<>();
+	private final Map<String, Set<String>> dependents = new HashMap<>();
+	private final Executor executor;
+	private int lastRecalculated;
+
+	/**
+	 * 共通のForkJoinPoolで計算するWorkbookを作成します。
+	 */
+	public Workbook() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param executor 再計算に用いるExecutor
+	 */
+	public Workbook(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * "名前 = 数式" の形式で数式を定義します。
+	 *
+	 * @param definition 定義の文字列
+	 * @throws IllegalArgumentException        形式が不正な場合、または循環参照になる場合
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 */
+	public synchronized void define(String definition) {
+		int pos = definition.indexOf('=');
+		if (pos < 0) throw new IllegalArgumentException("無効な定義: '" + definition + "' (例: 'total = a + b')");
+		define(definition.substring(0, pos).trim(), definition.substring(pos + 1));
+	}
+
+	/**
+	 * 数式を定義し、影響を受ける数式を再計算します。 既に定義されている場合は置き換えます。
+	 *
+	 * @param name       名前
+	 * @param expression 数式の文字列
+	 * @throws IllegalArgumentException        名前が不正な場合、または循環参照になる場合
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 */
+	public synchronized void define(String name, String expression) {
+		defineAll(Map.of(name, expression));
+	}
+
+	/**
+	 * 複数の数式をまとめて定義し、一度だけ再計算します。
+	 *
+	 * @param definitions 名前と数式の組
+	 * @throws IllegalArgumentException        名前が不正な場合、または循環参照になる場合
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 */
+	public synchronized void defineAll(Map<String, String> definitions) {
+		Map<String, PreparedExpression> prepared = new LinkedHashMap<>();
+		for (Map.Entry<String, String> e : definitions.entrySet()) {
+			checkName(e.getKey());
+			prepared.put(e.getKey(), PreparedExpression.prepare(e.getValue()));
+		}
+		checkCycles(prepared);
+		for (Map.Entry<String, PreparedExpression> e : prepared.entrySet()) {
+			Cell old = cells.get(e.getKey());
+			if (old != null) unlink(old);
+			Cell cell = new Cell(e.getKey(), e.getValue());
+			cells.put(cell.name, cell);
+			for (String dependency : cell.expression.variables()) {
+				dependents.computeIfAbsent(dependency, k -> new HashSet<>()).add(cell.name);
+			}
+		}
+		recalculate(prepared.keySet());
+	}
+
+	/**
+	 * 数式を削除し、それを参照している数式を再計算します。
+	 *
+	 * @param name 名前
+	 */
+	public synchronized void remove(String name) {
+		Cell cell = cells.remove(name);
+		if (cell == null) return;
+		unlink(cell);
+		recalculate(dependents.getOrDefault(name, Set.of()));
+	}
+
+	/**
+	 * 数式の計算結果を取得します。
+	 *
+	 * @param name 名前
+	 * @return 計算結果
+	 * @throws IllegalArgumentException 定義されていない場合
+	 * @throws ArithmeticException      0で除算した場合
+	 * @throws IllegalStateException    未定義の名前を参照している場合
+	 */
+	public synchronized BigFraction get(String name) {
+		Cell cell = cells.get(name);
+		if (cell == null) throw new IllegalArgumentException("Undefined name: " + name);
+		if (cell.error != null) throw cell.error;
+		return cell.value;
+	}
+
+	/**
+	 * 定義されている名前を定義順に返します。
+	 *
+	 * @return 名前の集合
+	 */
+	public synchronized Set<String> names() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(cells.keySet()));
+	}
+
+	/**
+	 * 直前の再計算で計算し直した数式の数を返します。
+	 *
+	 * @return 数式の数
+	 */
+	public synchronized int lastRecalculated() {
+		return lastRecalculated;
+	}
+
+	private void unlink(Cell cell) {
+		for (String dependency : cell.expression.variables()) {
+			Set<String> set = dependents.get(dependency);
+			if (set != null) set.remove(cell.name);
+		}
+	}
+
+	/**
+	 * 名前が数式中の変数として字句解析できるかを、Reader と同じ規則で確かめる。
+	 */
+	private static void checkName(String name) {
+		if (name.isEmpty() || !Reader.isIdentifierStart(name.charAt(0)))
+			throw new IllegalArgumentException("無効な名前: '" + name + "'");
+		for (int i = 1; i < name.length(); i++) {
+			if (!Reader.isIdentifierPart(name.charAt(i))) throw new IllegalArgumentException("無効な名前: '" + name + "'");
+		}
+	}
+
+	/**
+	 * 新しい定義を適用した依存グラフに循環がないか調べる。
+	 */
+	private void checkCycles(Map<String, PreparedExpression> prepared) {
+		Map<String, Integer> state = new HashMap<>(); // 1: 探索中, 2: 探索済み
+		for (String start : prepared.keySet()) {
+			if (state.containsKey(start)) continue;
+			Deque<String> path = new ArrayDeque<>();
+			Deque<Frame> stack = new ArrayDeque<>();
+			state.put(start, 1);
+			path.push(start);
+			stack.push(new Frame(dependencies(start, prepared)));
+			while (!stack.isEmpty()) {
+				Frame it = stack.peek();
+				if (it.index == it.names.length) {
+					state.put(path.pop(), 2);
+					stack.pop();
+					continue;
+				}
+				String next = it.names[it.index++];
+				Integer s = state.get(next);
+				if (s == null) {
+					state.put(next, 1);
+					path.push(next);
+					stack.push(new Frame(dependencies(next, prepared)));
+				} else if (s == 1) {
+					List<String> cycle = new ArrayList<>();
+					for (String n : path) {
+						cycle.add(0, n);
+						if (n.equals(next)) break;
+					}
+					cycle.add(next);
+					throw new IllegalArgumentException("Circular reference: " + String.join(" -> ", cycle));
+				}
+			}
+		}
+	}
+
+	private String[] dependencies(String name, Map<String, PreparedExpression> prepared) {
+		PreparedExpression expression = prepared.get(name);
+		if (expression == null) {
+			Cell cell = cells.get(name);
+			if (cell == null) return new String[0];
+			expression = cell.expression;
+		}
+		return expression.variables();
+	}
+
+	/**
+	 * 変更された名前から到達できる数式を集め、トポロジカル順に再計算する。
+	 */
+	private void recalculate(Set<String> changed) {
+		Set<String> affected = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>(changed);
+		while (!queue.isEmpty()) {
+			String name = queue.poll();
+			if (!affected.add(name)) continue;
+			queue.addAll(dependents.getOrDefault(name, Set.of()));
+		}
+		affected.retainAll(cells.keySet());
+
+		// Kahn のアルゴリズムで影響範囲内の順序を決める
+		Map<String, Integer> indegree = new HashMap<>();
+		for (String name : affected) {
+			int n = 0;
+			for (String dependency : cells.get(name).expression.variables()) {
+				if (affected.contains(dependency)) n++;
+			}
+			indegree.put(name, n);
+		}
+		List<Cell> order = new ArrayList<>(affected.size());
+		for (Map.Entry<String, Integer> e : indegree.entrySet()) {
+			if (e.getValue() == 0) queue.add(e.getKey());
+		}
+		while (!queue.isEmpty()) {
+			String name = queue.poll();
+			order.add(cells.get(name));
+			for (String dependent : dependents.getOrDefault(name, Set.of())) {
+				if (affected.contains(dependent) && indegree.merge(dependent, -1, Integer::sum) == 0) queue.add(dependent);
+			}
+		}
+		lastRecalculated = order.size();
+
+		if (order.size() < PARALLEL_THRESHOLD) {
+			for (Cell cell : order) evaluate(cell);
+			return;
+		}
+		Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+		for (Cell cell : order) {
+			List<CompletableFuture<Void>> inputs = new ArrayList<>();
+			for (String dependency : cell.expression.variables()) {
+				CompletableFuture<Void> f = futures.get(dependency);
+				if (f != null) inputs.add(f);
+			}
+			CompletableFuture<Void> ready = CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[0]));
+			futures.put(cell.name, ready.thenRunAsync(() -> evaluate(cell), executor));
+		}
+		CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	private void evaluate(Cell cell) {
+		String[] variables = cell.expression.variables();
+		BigFraction[] values = new BigFraction[variables.length];
+		try {
+			for (int i = 0; i < variables.length; i++) {
+				Cell dependency = cells.get(variables[i]);
+				if (dependency == null) throw new IllegalStateException("Undefined name: " + variables[i]);
+				if (dependency.error != null) throw dependency.error;
+				values[i] = dependency.value;
+			}
+			cell.value = cell.expression.evaluate(values);
+			cell.error = null;
+		} catch (ArithmeticException | IllegalStateException e) {
+			cell.value = null;
+			cell.error = e;
+		}
+	}
+
+	/**
+	 * 名前付きの数式とその計算結果。
+	 */
+	private static final class Cell {
+		private final String name;
+		private final PreparedExpression expression;
+		private volatile BigFraction value;
+		private volatile RuntimeException error;
+
+		private Cell(String name, PreparedExpression expression) {
+			this.name = name;
+			this.expression = expression;
+		}
+	}
+
+	/**
+	 * 循環検出の深さ優先探索の状態。
+	 */
+	private static final class Frame {
+		private final String[] names;
+		private int index;
+
+		private Frame(String[] names) {
+			this.names = names;
+		}
+	}
+}
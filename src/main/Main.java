@@ -1,16 +1,37 @@
 package main;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.util.Scanner;
 
 import model.Term;
 import parser.Parser;
+import service.EvaluationServer;
+import service.Pipeline;
 
 /**
- * Main.
+ * Main. 引数に "--server ポート番号" または "--server unix:パス" を指定するとサーバーとして起動します。
+ * "--pipeline" を指定すると標準入力の各行を並行に評価し、結果を同じ順で標準出力に書き出します。
  */
 public class Main {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length >= 1 && args[0].equals("--server")) {
+			String address = args.length >= 2 ? args[1] : "7070";
+			try (EvaluationServer server = new EvaluationServer(EvaluationServer.parseAddress(address))) {
+				System.out.println("Listening on " + server.address());
+				Thread.currentThread().join();
+			}
+			return;
+		}
+		if (args.length >= 1 && args[0].equals("--pipeline")) {
+			try (Pipeline pipeline = new Pipeline()) {
+				pipeline.run(new BufferedReader(new InputStreamReader(System.in)), new PrintWriter(System.out));
+			}
+			return;
+		}
 		Scanner sc = new Scanner(System.in);
 		String s = sc.nextLine();
 		while (!s.isEmpty()) {
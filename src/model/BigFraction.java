@@ -18,7 +18,6 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	public static final BigFraction ONETHIRD = new BigFraction(1, 3);
 	@Serial
 	private static final long serialVersionUID = -7805459192748824132L;
-	private static final BigDecimal HUNDRED = new BigDecimal(100);
 	private BigInteger numer;
 	private BigInteger denom;
 
@@ -294,6 +293,9 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	 * @return 計算後のFraction
 	 */
 	public BigFraction add(BigFraction f) {
+		if (Metrics.ENABLED) Metrics.recordOperation(Metrics.ADD, this, f);
+		if (ParallelArithmetic.THRESHOLD > 0 && ParallelArithmetic.isLarge(this, f, ParallelArithmetic.THRESHOLD))
+			return ParallelArithmetic.DEFAULT.add(this, f);
 		BigInteger n = numer.multiply(f.denom).add(f.numer.multiply(denom));
 		BigInteger d = denom.multiply(f.denom);
 		return new BigFraction(n, d);
@@ -346,6 +348,9 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	 * @return 計算後のFraction
 	 */
 	public BigFraction sub(BigFraction f) {
+		if (Metrics.ENABLED) Metrics.recordOperation(Metrics.ADD, this, f);
+		if (ParallelArithmetic.THRESHOLD > 0 && ParallelArithmetic.isLarge(this, f, ParallelArithmetic.THRESHOLD))
+			return ParallelArithmetic.DEFAULT.sub(this, f);
 		BigInteger n = numer.multiply(f.denom).subtract(f.numer.multiply(denom));
 		BigInteger d = denom.multiply(f.denom);
 		return new BigFraction(n, d);
@@ -398,6 +403,9 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	 * @return 計算後のFraction
 	 */
 	public BigFraction mul(BigFraction f) {
+		if (Metrics.ENABLED) Metrics.recordOperation(Metrics.MUL, this, f);
+		if (ParallelArithmetic.THRESHOLD > 0 && ParallelArithmetic.isLarge(this, f, ParallelArithmetic.THRESHOLD))
+			return ParallelArithmetic.DEFAULT.mul(this, f);
 		BigInteger n = numer.multiply(f.numer);
 		BigInteger d = denom.multiply(f.denom);
 		return new BigFraction(n, d);
@@ -450,6 +458,9 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	 * @return 計算後のFraction
 	 */
 	public BigFraction div(BigFraction f) {
+		if (Metrics.ENABLED) Metrics.recordOperation(Metrics.DIV, this, f);
+		if (ParallelArithmetic.THRESHOLD > 0 && ParallelArithmetic.isLarge(this, f, ParallelArithmetic.THRESHOLD))
+			return ParallelArithmetic.DEFAULT.div(this, f);
 		BigInteger n = numer.multiply(f.denom);
 		BigInteger d = denom.multiply(f.numer);
 		return new BigFraction(n, d);
@@ -610,9 +621,116 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 		return new BigDecimal(numer).divide(new BigDecimal(denom), n, RoundingMode.HALF_UP);
 	}
 
+	/**
+	 * 小数部分の数字を先頭から順に返すイテレータを取得します。
+	 *
+	 * @return 小数部分の数字のイテレータ
+	 */
+	public DecimalExpansion decimalDigits() {
+		return new DecimalExpansion(this);
+	}
+
+	/**
+	 * 分母が maxDenominator 以下の分数のうち、この値に最も近いものを返します。 連分数の近似分数から求めます。
+	 *
+	 * @param maxDenominator 分母の上限（1以上）
+	 * @return 最良近似分数
+	 * @throws IllegalArgumentException maxDenominator が1未満の場合
+	 */
+	public BigFraction limitDenominator(BigInteger maxDenominator) {
+		if (maxDenominator.signum() <= 0) throw new IllegalArgumentException("maxDenominator < 1: " + maxDenominator);
+		if (denom.compareTo(maxDenominator) <= 0) return this;
+		BigInteger p0 = BigInteger.ZERO, q0 = BigInteger.ONE, p1 = BigInteger.ONE, q1 = BigInteger.ZERO;
+		BigInteger n = numer, d = denom;
+		while (true) {
+			BigInteger[] qr = floorDivideAndRemainder(n, d);
+			BigInteger q2 = q0.add(qr[0].multiply(q1));
+			if (q2.compareTo(maxDenominator) > 0) break;
+			BigInteger p2 = p0.add(qr[0].multiply(p1));
+			p0 = p1;
+			q0 = q1;
+			p1 = p2;
+			q1 = q2;
+			n = d;
+			d = qr[1];
+		}
+		// 最後の近似分数と、分母が上限に収まる最大の中間近似分数のうち近い方
+		BigInteger k = maxDenominator.subtract(q0).divide(q1);
+		BigFraction bound1 = ofReduced(p0.add(k.multiply(p1)), q0.add(k.multiply(q1)));
+		BigFraction bound2 = ofReduced(p1, q1);
+		return bound2.sub(this).abs().compareTo(bound1.sub(this).abs()) <= 0 ? bound2 : bound1;
+	}
+
+	/**
+	 * 分母が maxDenominator 以下の分数のうち、この値に最も近いものを返します。
+	 *
+	 * @param maxDenominator 分母の上限（1以上）
+	 * @return 最良近似分数
+	 * @throws IllegalArgumentException maxDenominator が1未満の場合
+	 */
+	public BigFraction limitDenominator(long maxDenominator) {
+		return limitDenominator(BigInteger.valueOf(maxDenominator));
+	}
+
+	/**
+	 * この値との差が tolerance 以下の分数のうち、分母が最小のもの（最も簡単な分数）を返します。
+	 * 例えば 0.333 は許容誤差 1/1000 で 1/3 になります。
+	 *
+	 * @param tolerance 許容誤差（0以上）
+	 * @return 最も簡単な分数
+	 * @throws IllegalArgumentException tolerance が負の場合
+	 */
+	public BigFraction bestApproximation(BigFraction tolerance) {
+		if (tolerance.numer.signum() < 0) throw new IllegalArgumentException("tolerance < 0: " + tolerance);
+		if (tolerance.numer.signum() == 0 || isInteger()) return this;
+		return simplestBetween(sub(tolerance), add(tolerance));
+	}
+
+	/**
+	 * 閉区間 [lo, hi] に含まれる、分母が最小の分数を返します。
+	 *
+	 * @param lo 下端
+	 * @param hi 上端（lo 以上）
+	 * @return 最も簡単な分数
+	 */
+	public static BigFraction simplestBetween(BigFraction lo, BigFraction hi) {
+		if (lo.compareTo(hi) > 0) throw new IllegalArgumentException("lo > hi: " + lo + " > " + hi);
+		if (lo.numer.signum() <= 0 && hi.numer.signum() >= 0) return ZERO;
+		if (hi.numer.signum() < 0) return simplestBetween(hi.negate(), lo.negate()).negate();
+		// 区間 [a/b, c/d] に整数があればそれを選び、なければ整数部分 f を連分数の項にして [1/(hi-f), 1/(lo-f)] に進む
+		BigInteger a = lo.numer, b = lo.denom, c = hi.numer, d = hi.denom;
+		BigInteger p0 = BigInteger.ZERO, q0 = BigInteger.ONE, p1 = BigInteger.ONE, q1 = BigInteger.ZERO;
+		while (true) {
+			BigInteger[] qr = a.divideAndRemainder(b);
+			BigInteger t = qr[1].signum() == 0 ? qr[0] : qr[0].add(BigInteger.ONE);
+			if (t.multiply(d).compareTo(c) <= 0) return ofReduced(t.multiply(p1).add(p0), t.multiply(q1).add(q0));
+			BigInteger f = qr[0];
+			BigInteger p2 = f.multiply(p1).add(p0);
+			BigInteger q2 = f.multiply(q1).add(q0);
+			p0 = p1;
+			q0 = q1;
+			p1 = p2;
+			q1 = q2;
+			BigInteger na = d, nb = c.subtract(f.multiply(d)), nc = b, nd = qr[1];
+			a = na;
+			b = nb;
+			c = nc;
+			d = nd;
+		}
+	}
+
 	// 7. 文字列変換
 	public String toString() {
-		return isInteger() ? numer.toString() : numer + "/" + denom;
+		return NumberFormatter.toString(this);
+	}
+
+	/**
+	 * toString と同じ文字列を、文字列を作らずに書き込みます。
+	 *
+	 * @param out 書き込み先
+	 */
+	public void appendTo(Appendable out) {
+		NumberFormatter.append(this, out);
 	}
 
 	/**
@@ -631,7 +749,19 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	 * @return 小数表記
 	 */
 	public String toDecimalString(int precision) {
-		return String.format("%f." + precision + "f", getDecimal(precision));
+		StringBuilder sb = new StringBuilder(NumberFormatter.estimateDigits(integerPart()) + precision + 2);
+		NumberFormatter.appendDecimal(this, precision, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * 循環節を括弧で囲んだ小数表記で返します。 例えば 1/7 は "0.(142857)" になります。
+	 *
+	 * @param maxDigits 小数部分の桁数の上限。 超える場合は "..." で省略します
+	 * @return 小数表記
+	 */
+	public String toRepeatingString(int maxDigits) {
+		return DecimalExpansion.toRepeatingString(this, maxDigits);
 	}
 
 	// 8. staticユーティリティ
@@ -643,7 +773,9 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 	 * @return パーセンテージ表記文字列
 	 */
 	public String toPercent(int precision) {
-		return String.format("%f." + precision + "f%%", getDecimal(precision + 2).multiply(HUNDRED));
+		StringBuilder sb = new StringBuilder(NumberFormatter.estimateDigits(integerPart()) + precision + 5);
+		NumberFormatter.appendPercent(this, precision, sb);
+		return sb.toString();
 	}
 
 	/**
@@ -681,6 +813,38 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 
 	// 9. 内部処理
 
+	/**
+	 * 負の数でも切り捨て方向に丸める整数除算。 余りは0以上になる。
+	 */
+	private static BigInteger[] floorDivideAndRemainder(BigInteger n, BigInteger d) {
+		BigInteger[] qr = n.divideAndRemainder(d);
+		if (qr[1].signum() < 0) {
+			qr[0] = qr[0].subtract(BigInteger.ONE);
+			qr[1] = qr[1].add(d);
+		}
+		return qr;
+	}
+
+	/**
+	 * 既約で分母が正の分子と分母から、約分せずに分数を作成します。
+	 *
+	 * @param n 分子
+	 * @param d 分母（正）
+	 * @return 作成された分数
+	 */
+	static BigFraction ofReduced(BigInteger n, BigInteger d) {
+		BigFraction f = new BigFraction();
+		f.numer = n;
+		f.denom = d;
+		return f;
+	}
+
+	/**
+	 * 約分を行わない ofReduced 専用のコンストラクタ。
+	 */
+	private BigFraction() {
+	}
+
 	/**
 	 * 分数を既約分数にします。
 	 */
@@ -689,6 +853,7 @@ public final class BigFraction extends Number implements Comparable<BigFraction>
 			denom = BigInteger.ONE;
 			return;
 		}
+		if (Metrics.ENABLED) Metrics.GCD.increment();
 		BigInteger gcd = numer.gcd(denom);
 		numer = numer.divide(gcd);
 		denom = denom.divide(gcd);
@@ -0,0 +1,342 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 構文木を、ノードごとのオブジェクトではなく演算の種類・左の子・右の子の配列で表すクラス。
+ * <p>
+ * ノードは後置記法の順（子が親より前）に並び、最後のノードが根になります。 1ノードあたりの大きさは約9バイトで、
+ * long に収まる整数のリテラルは値を左右の子の配列に直接持ちます。 それ以外のリテラルと変数の名前は別の表に持ちます。
+ * 評価は配列を先頭から順に読むだけで行い、ノードをたどるための参照の読み込みが発生しません。
+ * <p>
+ * 数千万ノードの数式を読み込む場合は、Term を作らずに parser.CompactParser で直接このクラスを作成します。
+ */
+public final class CompactTree {
+
+	/** リテラル。 left はリテラルの表の番号 */
+	public static final byte NUMBER = 0;
+	/** long に収まる整数のリテラル。 left と right は値の上位と下位32ビット */
+	public static final byte INTEGER = 1;
+	/** 変数。 left は変数の表の番号 */
+	public static final byte VARIABLE = 2;
+	public static final byte ADD = 3;
+	public static final byte SUB = 4;
+	public static final byte MUL = 5;
+	public static final byte DIV = 6;
+
+	private final byte[] ops;
+	private final int[] left;
+	private final int[] right;
+	private final String[] literals;
+	private final String[] variables;
+	private final int maxStack;
+
+	private CompactTree(byte[] ops, int[] left, int[] right, String[] literals, String[] variables, int maxStack) {
+		this.ops = ops;
+		this.left = left;
+		this.right = right;
+		this.literals = literals;
+		this.variables = variables;
+		this.maxStack = maxStack;
+	}
+
+	/**
+	 * 構文木を変換します。
+	 *
+	 * @param term 構文木
+	 * @return 変換した木
+	 */
+	public static CompactTree of(Term term) {
+		Builder builder = new Builder();
+		Deque<Term> stack = new ArrayDeque<>();
+		Deque<Boolean> expanded = new ArrayDeque<>();
+		stack.push(term);
+		expanded.push(false);
+		while (!stack.isEmpty()) {
+			Term t = stack.pop();
+			boolean done = expanded.pop();
+			if (t.label.type() != Type.OPERATOR) {
+				if (t.label.type() == Type.VARIABLE) builder.variable(t.label.symbol());
+				else builder.number(t.label.symbol());
+			} else if (done) {
+				builder.operator(t.label.symbol().charAt(0));
+			} else {
+				stack.push(t);
+				expanded.push(true);
+				stack.push(t.right);
+				expanded.push(false);
+				stack.push(t.left);
+				expanded.push(false);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * ノードの数を返します。
+	 *
+	 * @return ノードの数
+	 */
+	public int size() {
+		return ops.length;
+	}
+
+	/**
+	 * 根のノードの番号を返します。
+	 *
+	 * @return 根の番号
+	 */
+	public int root() {
+		return ops.length - 1;
+	}
+
+	/**
+	 * ノードの種類を返します。
+	 *
+	 * @param node ノードの番号
+	 * @return NUMBER, INTEGER, VARIABLE, ADD, SUB, MUL, DIV のいずれか
+	 */
+	public byte op(int node) {
+		return ops[node];
+	}
+
+	/**
+	 * 演算子のノードの左の子の番号を返します。
+	 *
+	 * @param node ノードの番号
+	 * @return 左の子の番号
+	 */
+	public int left(int node) {
+		return left[node];
+	}
+
+	/**
+	 * 演算子のノードの右の子の番号を返します。
+	 *
+	 * @param node ノードの番号
+	 * @return 右の子の番号
+	 */
+	public int right(int node) {
+		return right[node];
+	}
+
+	/**
+	 * リテラルまたは変数のノードの文字列を返します。 Term のラベルと同じ文字列です。
+	 *
+	 * @param node ノードの番号
+	 * @return リテラルまたは変数の名前
+	 * @throws IllegalArgumentException 演算子のノードの場合
+	 */
+	public String symbol(int node) {
+		return switch (ops[node]) {
+			case NUMBER -> literals[left[node]];
+			case INTEGER -> Long.toString(integer(node));
+			case VARIABLE -> variables[left[node]];
+			default -> throw new IllegalArgumentException("Not a leaf: " + node);
+		};
+	}
+
+	/**
+	 * 変数の名前を初出順に返します。
+	 *
+	 * @return 変数の名前の配列
+	 */
+	public String[] variables() {
+		return variables.clone();
+	}
+
+	/**
+	 * 配列と表が使うおよそのメモリ量を返します。
+	 *
+	 * @return バイト数
+	 */
+	public long memoryBytes() {
+		long bytes = ops.length + 8L * left.length;
+		for (String s : literals) bytes += 48 + s.length();
+		for (String s : variables) bytes += 48 + s.length();
+		return bytes;
+	}
+
+	/**
+	 * 数式を評価します。
+	 *
+	 * @return 計算結果
+	 * @throws ArithmeticException   0で除算した場合
+	 * @throws IllegalStateException 変数を含む場合
+	 */
+	public BigFraction evaluate() {
+		BigFraction[] stack = new BigFraction[maxStack];
+		int sp = 0;
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+				case NUMBER -> stack[sp++] = BigFraction.parseBigFraction(literals[left[i]]);
+				case INTEGER -> stack[sp++] = BigFraction.valueOf(integer(i));
+				case VARIABLE -> throw new IllegalStateException("Unbound variable: " + variables[left[i]]);
+				default -> {
+					BigFraction b = stack[--sp];
+					BigFraction a = stack[sp - 1];
+					stack[sp - 1] = switch (ops[i]) {
+						case ADD -> a.add(b);
+						case SUB -> a.sub(b);
+						case MUL -> a.mul(b);
+						default -> a.div(b);
+					};
+				}
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * Term の構文木に変換します。
+	 *
+	 * @return 構文木
+	 */
+	public Term toTerm() {
+		Term[] stack = new Term[maxStack];
+		int sp = 0;
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+				case NUMBER, INTEGER -> stack[sp++] = new Term(new Symbol(symbol(i), Type.NUMBER), null, null);
+				case VARIABLE -> stack[sp++] = new Term(new Symbol(symbol(i), Type.VARIABLE), null, null);
+				default -> {
+					Term b = stack[--sp];
+					stack[sp - 1] = new Term(new Symbol(operator(ops[i]), Type.OPERATOR), stack[sp - 1], b);
+				}
+			}
+		}
+		return stack[0];
+	}
+
+	private long integer(int node) {
+		return ((long) left[node] << 32) | (right[node] & 0xFFFFFFFFL);
+	}
+
+	private static String operator(byte op) {
+		return switch (op) {
+			case ADD -> "+";
+			case SUB -> "-";
+			case MUL -> "*";
+			default -> "/";
+		};
+	}
+
+	/**
+	 * 後置記法の順にノードを追加して CompactTree を作るクラス。 演算子は直前に追加された2つの部分木を子にします。
+	 */
+	public static final class Builder {
+		private byte[] ops = new byte[16];
+		private int[] left = new int[16];
+		private int[] right = new int[16];
+		private String[] literals = new String[4];
+		private int literalCount;
+		private final Map<String, Integer> variableIndex = new HashMap<>();
+		private String[] variables = new String[4];
+		private int[] roots = new int[16];
+		private int size;
+		private int sp;
+		private int maxStack;
+
+		/**
+		 * リテラルのノードを追加します。 long に収まる整数で、文字列が Long.toString と一致する場合は値を直接持ちます。
+		 *
+		 * @param symbol リテラルの文字列
+		 * @return 追加したノードの番号
+		 */
+		public int number(String symbol) {
+			if (isCanonicalLong(symbol)) return integer(Long.parseLong(symbol));
+			if (literalCount == literals.length) literals = Arrays.copyOf(literals, literalCount * 2);
+			literals[literalCount] = symbol;
+			return push(NUMBER, literalCount++, 0);
+		}
+
+		/**
+		 * 整数のリテラルのノードを追加します。
+		 *
+		 * @param value 値
+		 * @return 追加したノードの番号
+		 */
+		public int integer(long value) {
+			return push(INTEGER, (int) (value >>> 32), (int) value);
+		}
+
+		/**
+		 * 変数のノードを追加します。 同じ名前の変数は同じ表の番号を共有します。
+		 *
+		 * @param name 変数の名前
+		 * @return 追加したノードの番号
+		 */
+		public int variable(String name) {
+			Integer index = variableIndex.get(name);
+			if (index == null) {
+				index = variableIndex.size();
+				if (index == variables.length) variables = Arrays.copyOf(variables, index * 2);
+				variables[index] = name;
+				variableIndex.put(name, index);
+			}
+			return push(VARIABLE, index, 0);
+		}
+
+		/**
+		 * 直前の2つの部分木を子とする演算子のノードを追加します。
+		 *
+		 * @param operator '+', '-', '*', '/' のいずれか
+		 * @return 追加したノードの番号
+		 * @throws IllegalStateException 部分木が2つ未満の場合
+		 */
+		public int operator(char operator) {
+			byte op = switch (operator) {
+				case '+' -> ADD;
+				case '-' -> SUB;
+				case '*' -> MUL;
+				case '/' -> DIV;
+				default -> throw new IllegalArgumentException("Unexpected operator: " + operator);
+			};
+			if (sp < 2) throw new IllegalStateException("Operator needs two operands");
+			int r = roots[--sp];
+			int l = roots[--sp];
+			return push(op, l, r);
+		}
+
+		/**
+		 * 追加したノードから CompactTree を作成します。
+		 *
+		 * @return 作成した木
+		 * @throws IllegalStateException 部分木がちょうど1つになっていない場合
+		 */
+		public CompactTree build() {
+			if (sp != 1) throw new IllegalStateException("Expected one root but found " + sp);
+			return new CompactTree(Arrays.copyOf(ops, size), Arrays.copyOf(left, size), Arrays.copyOf(right, size),
+					Arrays.copyOf(literals, literalCount), Arrays.copyOf(variables, variableIndex.size()), maxStack);
+		}
+
+		private int push(byte op, int l, int r) {
+			if (size == ops.length) {
+				int capacity = size + (size >> 1);
+				ops = Arrays.copyOf(ops, capacity);
+				left = Arrays.copyOf(left, capacity);
+				right = Arrays.copyOf(right, capacity);
+			}
+			ops[size] = op;
+			left[size] = l;
+			right[size] = r;
+			if (sp == roots.length) roots = Arrays.copyOf(roots, sp * 2);
+			roots[sp++] = size;
+			maxStack = Math.max(maxStack, sp);
+			return size++;
+		}
+
+		private static boolean isCanonicalLong(String s) {
+			int start = s.startsWith("-") ? 1 : 0;
+			int digits = s.length() - start;
+			if (digits == 0 || digits > 18) return false;
+			if (s.charAt(start) == '0' && (digits > 1 || start == 1)) return false;
+			for (int i = start; i < s.length(); i++) if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 分数の小数部分の数字を、筆算の割り算で先頭から順に1桁ずつ返すイテレータ。
+ * 数字はまとめて求めてから1桁ずつ返し、途中で止めても続きから再開できます。
+ * 保持するのは分母未満の余りと、求めた数字の1ブロックだけのため、何桁読み進めてもメモリは増えません。
+ * <p>
+ * 有限小数の場合は最後の0でない桁で終わり、循環小数の場合は終わりません。
+ * 循環節の開始位置と長さは preperiod と period で求められ、toRepeatingString で "0.(142857)" の形式に変換できます。
+ */
+public final class DecimalExpansion implements PrimitiveIterator.OfInt {
+
+	private static final BigInteger FIVE = BigInteger.valueOf(5);
+	/** 1回の割り算で求める桁数の下限と上限 */
+	private static final int MIN_BLOCK = 18;
+	private static final int MAX_BLOCK = 4096;
+
+	private final boolean negative;
+	private final BigInteger integerPart;
+	private final BigInteger denominator;
+	private final BigInteger firstRemainder;
+	private final int blockSize;
+	private final BigInteger blockPower;
+	private BigInteger remainder;
+	private String block = "";
+	private int blockPos;
+	private long position;
+
+	/**
+	 * 分数の小数部分を展開するイテレータを作成します。
+	 *
+	 * @param value 分数
+	 */
+	public DecimalExpansion(BigFraction value) {
+		BigInteger[] qr = value.numerator().abs().divideAndRemainder(value.denominator());
+		negative = value.numerator().signum() < 0;
+		integerPart = qr[0];
+		firstRemainder = qr[1];
+		remainder = qr[1];
+		denominator = value.denominator();
+		blockSize = Math.min(Math.max(denominator.bitLength() * 3 / 10, MIN_BLOCK), MAX_BLOCK);
+		blockPower = BigInteger.TEN.pow(blockSize);
+	}
+
+	/**
+	 * 分数の小数部分の数字のストリームを返します。 循環小数の場合は無限のストリームになります。
+	 *
+	 * @param value 分数
+	 * @return 数字（0〜9）のストリーム
+	 */
+	public static IntStream digits(BigFraction value) {
+		Spliterator.OfInt spliterator = Spliterators.spliteratorUnknownSize(new DecimalExpansion(value),
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.intStream(spliterator, false);
+	}
+
+	/**
+	 * 分数を循環節を括弧で囲んだ小数表記で返します。 例えば 1/7 は "0.(142857)"、1/6 は "0.1(6)" になります。
+	 * 小数部分が maxDigits 桁を超える場合は、maxDigits 桁の後に "..." を付けて返します。
+	 *
+	 * @param value     分数
+	 * @param maxDigits 小数部分の桁数の上限
+	 * @return 小数表記
+	 */
+	public static String toRepeatingString(BigFraction value, long maxDigits) {
+		StringBuilder sb = new StringBuilder();
+		new DecimalExpansion(value).appendRepeating(sb, maxDigits);
+		return sb.toString();
+	}
+
+	/**
+	 * 負の数かどうかを返します。
+	 *
+	 * @return 負の場合はtrue
+	 */
+	public boolean isNegative() {
+		return negative;
+	}
+
+	/**
+	 * 絶対値の整数部分を返します。
+	 *
+	 * @return 整数部分
+	 */
+	public BigInteger integerPart() {
+		return integerPart;
+	}
+
+	/**
+	 * これまでに返した（または読み飛ばした）桁数を返します。
+	 *
+	 * @return 桁数
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * 小数点以下で循環節が始まるまでの桁数を返します。 有限小数の場合は小数部分の桁数です。
+	 * 分母に含まれる2と5の個数の大きい方に等しくなります。
+	 *
+	 * @return 桁数
+	 */
+	public long preperiod() {
+		return Math.max(denominator.getLowestSetBit(), countFactor(denominator, FIVE));
+	}
+
+	/**
+	 * 循環節の長さを返します。 有限小数の場合は0です。 長さが limit を超える場合は探索を打ち切り、-1を返します。
+	 *
+	 * @param limit 探索する長さの上限
+	 * @return 循環節の長さ、または-1
+	 */
+	public long period(long limit) {
+		BigInteger m = denominator.shiftRight(denominator.getLowestSetBit());
+		m = m.divide(FIVE.pow((int) countFactor(m, FIVE)));
+		if (m.equals(BigInteger.ONE)) return 0;
+		// 10^k ≡ 1 (mod m) となる最小の k
+		BigInteger x = BigInteger.TEN.mod(m);
+		for (long k = 1; k <= limit; k++) {
+			if (x.equals(BigInteger.ONE)) return k;
+			x = x.multiply(BigInteger.TEN).mod(m);
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return blockPos < block.length() || remainder.signum() != 0;
+	}
+
+	@Override
+	public int nextInt() {
+		if (blockPos == block.length()) {
+			if (remainder.signum() == 0) throw new NoSuchElementException();
+			fill();
+		}
+		position++;
+		return block.charAt(blockPos++) - '0';
+	}
+
+	/**
+	 * 次の n 桁を読み飛ばします。 有限小数の最後の桁を超える場合は、最後の桁の後まで進みます。
+	 * 既に求めたブロックを超える分は 10^n を分母で割った余りから直接求めるため、1桁ずつ展開しません。
+	 *
+	 * @param n 読み飛ばす桁数
+	 */
+	public void skip(long n) {
+		if (n < 0) throw new IllegalArgumentException("n < 0: " + n);
+		long buffered = block.length() - blockPos;
+		if (n <= buffered) {
+			blockPos += (int) n;
+			position += n;
+			return;
+		}
+		blockPos = block.length();
+		position += buffered;
+		n -= buffered;
+		if (remainder.signum() == 0) return;
+		BigInteger r = remainder.multiply(BigInteger.TEN.modPow(BigInteger.valueOf(n), denominator)).mod(denominator);
+		if (r.signum() == 0) n = Math.min(n, preperiod() - position);
+		remainder = r;
+		position += n;
+	}
+
+	/**
+	 * 次の最大 count 桁を out に書き込みます。
+	 *
+	 * @param out   書き込み先
+	 * @param count 書き込む桁数の上限
+	 * @return 書き込んだ桁数。 有限小数の最後の桁に達した場合は count より小さくなります
+	 * @throws UncheckedIOException 書き込みに失敗した場合
+	 */
+	public long appendDigits(Appendable out, long count) {
+		long written = 0;
+		try {
+			while (written < count) {
+				if (blockPos == block.length()) {
+					if (remainder.signum() == 0) break;
+					fill();
+				}
+				int end = (int) Math.min(block.length(), blockPos + (count - written));
+				out.append(block, blockPos, end);
+				written += end - blockPos;
+				blockPos = end;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		position += written;
+		return written;
+	}
+
+	/**
+	 * 循環節を括弧で囲んだ小数表記を、先頭から out に書き込みます。 このイテレータの位置は使わず、最初から展開し直します。
+	 *
+	 * @param out       書き込み先
+	 * @param maxDigits 小数部分の桁数の上限
+	 * @throws UncheckedIOException 書き込みに失敗した場合
+	 */
+	public void appendRepeating(Appendable out, long maxDigits) {
+		DecimalExpansion digits = new DecimalExpansion(this);
+		try {
+			if (negative) out.append('-');
+			out.append(integerPart.toString());
+			if (!digits.hasNext()) return;
+			out.append('.');
+			long mu = preperiod();
+			long lambda = mu > maxDigits ? -1 : period(maxDigits - mu);
+			if (lambda < 0) {
+				digits.appendDigits(out, maxDigits);
+				out.append("...");
+				return;
+			}
+			digits.appendDigits(out, mu);
+			if (lambda == 0) return;
+			out.append('(');
+			digits.appendDigits(out, lambda);
+			out.append(')');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 同じ値を先頭から展開し直すコピーを作る。
+	 */
+	private DecimalExpansion(DecimalExpansion original) {
+		negative = original.negative;
+		integerPart = original.integerPart;
+		denominator = original.denominator;
+		firstRemainder = original.firstRemainder;
+		blockSize = original.blockSize;
+		blockPower = original.blockPower;
+		remainder = firstRemainder;
+	}
+
+	/**
+	 * 次のブロックの数字を1回の割り算で求める。 割り切れた場合は末尾の0を除く。
+	 */
+	private void fill() {
+		BigInteger[] qr = remainder.multiply(blockPower).divideAndRemainder(denominator);
+		String digits = qr[0].toString();
+		StringBuilder sb = new StringBuilder(blockSize);
+		for (int i = digits.length(); i < blockSize; i++) sb.append('0');
+		sb.append(digits);
+		int end = sb.length();
+		if (qr[1].signum() == 0) while (sb.charAt(end - 1) == '0') end--;
+		block = sb.substring(0, end);
+		blockPos = 0;
+		remainder = qr[1];
+	}
+
+	/**
+	 * n を割り切る p の個数。 p, p^2, p^4, ... で割れるだけ割ってから、逆順に1つずつ割ることで除算の回数を対数に抑える。
+	 */
+	private static long countFactor(BigInteger n, BigInteger p) {
+		if (n.mod(p).signum() != 0) return 0;
+		List<BigInteger> powers = new ArrayList<>();
+		long count = 0;
+		BigInteger q = p;
+		while (true) {
+			BigInteger[] qr = n.divideAndRemainder(q);
+			if (qr[1].signum() != 0) break;
+			n = qr[0];
+			count += 1L << powers.size();
+			powers.add(q);
+			q = q.multiply(q);
+		}
+		for (int i = powers.size() - 1; i >= 0; i--) {
+			BigInteger[] qr = n.divideAndRemainder(powers.get(i));
+			if (qr[1].signum() == 0) {
+				n = qr[0];
+				count += 1L << i;
+			}
+		}
+		return count;
+	}
+}
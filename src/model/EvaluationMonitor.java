@@ -0,0 +1,17 @@
+package model;
+
+/**
+ * Termの評価を監視するためのインターフェース。 各ノードの計算が終わるたびに呼ばれます。
+ * 例外を投げると評価はそこで中断されます。
+ */
+@FunctionalInterface
+public interface EvaluationMonitor {
+
+	/**
+	 * ノードの計算が終わったときに呼ばれます。
+	 *
+	 * @param term  計算したノード
+	 * @param value ノードの計算結果
+	 */
+	void visit(Term term, BigFraction value);
+}
@@ -0,0 +1,183 @@
+package model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 字句解析・構文解析・評価と分数演算の計測値。 システムプロパティ "calculator.metrics" が true の場合だけ記録します。
+ * 無効の場合、計測箇所は定数の判定だけになり JIT によって取り除かれます。
+ * <p>
+ * 時間はナノ秒、ビット長は分子と分母の大きい方で、いずれも2の累乗ごとの区間に分けて数えます。
+ */
+public final class Metrics {
+
+	/** 計測が有効かどうか */
+	public static final boolean ENABLED = Boolean.getBoolean("calculator.metrics");
+
+	/** 1回の解析のうち字句解析にかかった時間 */
+	public static final Histogram LEX = new Histogram("lex", "ns");
+	/** 1回の解析にかかった時間（字句解析を含む） */
+	public static final Histogram PARSE = new Histogram("parse", "ns");
+	/** 1回の評価にかかった時間 */
+	public static final Histogram EVALUATE = new Histogram("evaluate", "ns");
+	/** 演算に渡された分数のビット長 */
+	public static final Histogram OPERAND_BITS = new Histogram("operand", "bits");
+
+	/** 読み込んだ字句の数 */
+	public static final LongAdder TOKENS = new LongAdder();
+	/** 加算・減算の回数 */
+	public static final LongAdder ADD = new LongAdder();
+	/** 乗算の回数 */
+	public static final LongAdder MUL = new LongAdder();
+	/** 除算の回数 */
+	public static final LongAdder DIV = new LongAdder();
+	/** 約分のための最大公約数の計算回数 */
+	public static final LongAdder GCD = new LongAdder();
+
+	private Metrics() {
+	}
+
+	/**
+	 * 2項演算を1回数え、両方の被演算子のビット長を記録します。
+	 *
+	 * @param counter 演算の種類の計数
+	 * @param a       左の被演算子
+	 * @param b       右の被演算子
+	 */
+	public static void recordOperation(LongAdder counter, BigFraction a, BigFraction b) {
+		counter.increment();
+		OPERAND_BITS.record(Math.max(a.numerator().bitLength(), a.denominator().bitLength()));
+		OPERAND_BITS.record(Math.max(b.numerator().bitLength(), b.denominator().bitLength()));
+	}
+
+	/**
+	 * すべての計測値を0に戻します。
+	 */
+	public static void reset() {
+		LEX.reset();
+		PARSE.reset();
+		EVALUATE.reset();
+		OPERAND_BITS.reset();
+		TOKENS.reset();
+		ADD.reset();
+		MUL.reset();
+		DIV.reset();
+		GCD.reset();
+	}
+
+	/**
+	 * 現在の計測値を人が読める文字列で返します。
+	 *
+	 * @return 計測値の一覧
+	 */
+	public static String snapshot() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("metrics enabled: ").append(ENABLED).append('\n');
+		sb.append("tokens: ").append(TOKENS.sum()).append('\n');
+		sb.append("add: ").append(ADD.sum()).append(", mul: ").append(MUL.sum())
+				.append(", div: ").append(DIV.sum()).append(", gcd: ").append(GCD.sum()).append('\n');
+		LEX.appendTo(sb);
+		PARSE.appendTo(sb);
+		EVALUATE.appendTo(sb);
+		OPERAND_BITS.appendTo(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * 値を2の累乗ごとの区間に分けて数えるヒストグラム。 区間 i には 2^(i-1) 以上 2^i 未満の値が入ります（区間 0 は 0 以下）。
+	 */
+	public static final class Histogram {
+		private final String name;
+		private final String unit;
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAdder sum = new LongAdder();
+
+		/**
+		 * コンストラクタ。
+		 *
+		 * @param name 名前
+		 * @param unit 値の単位
+		 */
+		public Histogram(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+			for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+		}
+
+		/**
+		 * 値を1つ記録します。
+		 *
+		 * @param value 値
+		 */
+		public void record(long value) {
+			buckets[value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), buckets.length - 1)].increment();
+			if (value > 0) sum.add(value);
+		}
+
+		/**
+		 * 記録した値の数を返します。
+		 *
+		 * @return 値の数
+		 */
+		public long count() {
+			long count = 0;
+			for (LongAdder bucket : buckets) count += bucket.sum();
+			return count;
+		}
+
+		/**
+		 * 記録した値の合計を返します。
+		 *
+		 * @return 値の合計
+		 */
+		public long sum() {
+			return sum.sum();
+		}
+
+		/**
+		 * 区間ごとの値の数を返します。
+		 *
+		 * @return 区間 i の値の数を i 番目に持つ配列
+		 */
+		public long[] buckets() {
+			long[] counts = new long[buckets.length];
+			for (int i = 0; i < counts.length; i++) counts[i] = buckets[i].sum();
+			return counts;
+		}
+
+		/**
+		 * 値の数が分位点 q に達する区間の上端を返します。 値がない場合は0を返します。
+		 *
+		 * @param q 分位点（0 以上 1 以下）
+		 * @return 区間の上端
+		 */
+		public long quantile(double q) {
+			long[] counts = buckets();
+			long total = 0;
+			for (long c : counts) total += c;
+			if (total == 0) return 0;
+			long target = (long) Math.ceil(q * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= Math.max(target, 1)) return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+			}
+			return Long.MAX_VALUE;
+		}
+
+		private void reset() {
+			for (LongAdder bucket : buckets) bucket.reset();
+			sum.reset();
+		}
+
+		private void appendTo(StringBuilder sb) {
+			long count = count();
+			sb.append(name).append(": count=").append(count);
+			if (count > 0) {
+				sb.append(", mean=").append(sum() / count).append(unit)
+						.append(", p50<=").append(quantile(0.5)).append(unit)
+						.append(", p99<=").append(quantile(0.99)).append(unit);
+			}
+			sb.append('\n');
+		}
+	}
+}
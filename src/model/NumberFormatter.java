@@ -0,0 +1,242 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * 巨大な整数・分数を10進数の文字列に変換して書き込むクラス。
+ * <p>
+ * 整数は 10^(2^k) で上位と下位に分ける分割統治で変換し、最後は long の変換で数字を書き込みます。
+ * 10^(2^k) は一度求めたものを使い回します。 結果は呼び出し側の Appendable や ByteBuffer に直接書き込み、
+ * 途中で文字列を作りません。
+ * <p>
+ * 変換にかかる時間の大半は BigInteger の除算で、BigInteger.toString とほぼ同じです。 このクラスの利点は速さではなく、
+ * 数百万桁の結果を String を経由せずに書き込み先へ直接出力できることです。
+ */
+public final class NumberFormatter {
+
+	private static final double LOG10_2 = Math.log10(2);
+	/** POWERS[k] = 10^(2^k)。 不変なオブジェクトのため、複数のスレッドから同時に書き込んでも同じ値になる */
+	private static final BigInteger[] POWERS = new BigInteger[31];
+	private static final BigInteger HUNDRED = BigInteger.valueOf(100);
+	private static final char[] ZEROS = "000000000000000000000000000000000000000000000000000000000000000".toCharArray();
+
+	static {
+		POWERS[0] = BigInteger.TEN;
+	}
+
+	private NumberFormatter() {
+	}
+
+	/**
+	 * 整数を10進数で書き込みます。
+	 *
+	 * @param value 整数
+	 * @param out   書き込み先
+	 * @throws UncheckedIOException 書き込みに失敗した場合
+	 */
+	public static void append(BigInteger value, Appendable out) {
+		try {
+			if (value.signum() < 0) {
+				out.append('-');
+				value = value.negate();
+			}
+			appendDigits(value, 0, out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 分数を BigFraction.toString と同じ "分子/分母" の形式で書き込みます。 整数の場合は分子だけを書き込みます。
+	 *
+	 * @param value 分数
+	 * @param out   書き込み先
+	 * @throws UncheckedIOException 書き込みに失敗した場合
+	 */
+	public static void append(BigFraction value, Appendable out) {
+		append(value.numerator(), out);
+		if (value.denominator().equals(BigInteger.ONE)) return;
+		try {
+			out.append('/');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		append(value.denominator(), out);
+	}
+
+	/**
+	 * 分数を小数第 precision 位に四捨五入した小数表記で書き込みます。 precision が0の場合は小数点を書き込みません。
+	 *
+	 * @param value     分数
+	 * @param precision 小数点以下の桁数
+	 * @param out       書き込み先
+	 * @throws UncheckedIOException 書き込みに失敗した場合
+	 */
+	public static void appendDecimal(BigFraction value, int precision, Appendable out) {
+		appendScaled(value.numerator(), value.denominator(), precision, out);
+	}
+
+	/**
+	 * 分数を百分率にし、小数第 precision 位に四捨五入して "%" を付けて書き込みます。
+	 *
+	 * @param value     分数
+	 * @param precision 小数点以下の桁数
+	 * @param out       書き込み先
+	 * @throws UncheckedIOException 書き込みに失敗した場合
+	 */
+	public static void appendPercent(BigFraction value, int precision, Appendable out) {
+		appendScaled(value.numerator().multiply(HUNDRED), value.denominator(), precision, out);
+		try {
+			out.append('%');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 分数の文字列表記を、容量を見積もった StringBuilder に書き込んで返します。
+	 *
+	 * @param value 分数
+	 * @return "分子/分母" の形式の文字列
+	 */
+	public static String toString(BigFraction value) {
+		StringBuilder sb = new StringBuilder(estimateDigits(value.numerator()) + estimateDigits(value.denominator()) + 2);
+		append(value, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * ByteBuffer に ASCII で書き込む Appendable を返します。 容量が足りない場合は BufferOverflowException が発生します。
+	 *
+	 * @param buffer 書き込み先
+	 * @return buffer の現在の位置から書き込む Appendable
+	 */
+	public static Appendable asAppendable(ByteBuffer buffer) {
+		return new ByteBufferAppendable(buffer);
+	}
+
+	/**
+	 * 整数の10進数の桁数の上限を返します。
+	 *
+	 * @param value 整数
+	 * @return 桁数の上限（符号を含む）
+	 */
+	public static int estimateDigits(BigInteger value) {
+		return (int) (value.bitLength() * LOG10_2) + 2;
+	}
+
+	/**
+	 * n/d * 10^precision を四捨五入して、小数点を precision 桁の位置に入れて書き込む。
+	 */
+	private static void appendScaled(BigInteger n, BigInteger d, int precision, Appendable out) {
+		if (precision < 0) throw new IllegalArgumentException("precision < 0: " + precision);
+		BigInteger[] qr = n.abs().multiply(BigInteger.TEN.pow(precision)).divideAndRemainder(d);
+		BigInteger scaled = qr[1].shiftLeft(1).compareTo(d) >= 0 ? qr[0].add(BigInteger.ONE) : qr[0];
+		try {
+			if (n.signum() < 0 && scaled.signum() != 0) out.append('-');
+			if (precision == 0) {
+				appendDigits(scaled, 0, out);
+				return;
+			}
+			BigInteger[] parts = scaled.divideAndRemainder(BigInteger.TEN.pow(precision));
+			appendDigits(parts[0], 1, out);
+			out.append('.');
+			appendDigits(parts[1], precision, out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 非負の整数を、少なくとも pad 桁になるよう先頭を0で埋めて書き込む。 pad が0の場合、0は "0" と書き込む。
+	 */
+	private static void appendDigits(BigInteger value, int pad, Appendable out) throws IOException {
+		char[] buf = new char[19];
+		if (value.bitLength() < 63) {
+			appendLong(value.longValue(), pad, buf, out);
+			return;
+		}
+		// 2^k < 桁数 <= 2^(k+1) となる k から分け始める
+		int k = 31 - Integer.numberOfLeadingZeros(estimateDigits(value) - 1);
+		appendDigits(value, k, pad, buf, out);
+	}
+
+	/**
+	 * value < 10^(2^(k+1)) を 10^(2^k) で上位と下位に分けて書き込む。 桁数の半分に近い位置で分けるため、
+	 * 上位が下位より大きく偏ることはない。
+	 */
+	private static void appendDigits(BigInteger value, int k, int pad, char[] buf, Appendable out) throws IOException {
+		if (value.bitLength() < 63) {
+			appendLong(value.longValue(), pad, buf, out);
+			return;
+		}
+		BigInteger p = power(k);
+		if (value.compareTo(p) < 0) {
+			appendDigits(value, k - 1, pad, buf, out);
+			return;
+		}
+		int low = 1 << k;
+		BigInteger[] qr = value.divideAndRemainder(p);
+		appendDigits(qr[0], k - 1, Math.max(pad - low, 0), buf, out);
+		appendDigits(qr[1], k - 1, low, buf, out);
+	}
+
+	private static void appendLong(long value, int pad, char[] buf, Appendable out) throws IOException {
+		int pos = buf.length;
+		do {
+			buf[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		for (int zeros = pad - (buf.length - pos); zeros > 0; zeros -= ZEROS.length) append(ZEROS, 0, Math.min(zeros, ZEROS.length), out);
+		append(buf, pos, buf.length - pos, out);
+	}
+
+	private static void append(char[] chars, int offset, int length, Appendable out) throws IOException {
+		if (out instanceof StringBuilder sb) sb.append(chars, offset, length);
+		else out.append(CharBuffer.wrap(chars, offset, length));
+	}
+
+	/**
+	 * 10^(2^k) を返す。
+	 */
+	private static BigInteger power(int k) {
+		BigInteger p = POWERS[k];
+		if (p == null) {
+			p = power(k - 1).pow(2);
+			POWERS[k] = p;
+		}
+		return p;
+	}
+
+	/**
+	 * ByteBuffer に ASCII で書き込む Appendable。
+	 */
+	private static final class ByteBufferAppendable implements Appendable {
+		private final ByteBuffer buffer;
+
+		private ByteBufferAppendable(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) {
+			return append(csq, 0, csq.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) {
+			for (int i = start; i < end; i++) buffer.put((byte) csq.charAt(i));
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) {
+			buffer.put((byte) c);
+			return this;
+		}
+	}
+}
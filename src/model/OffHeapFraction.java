@@ -0,0 +1,198 @@
+package model;
+
+/**
+ * 分子と分母を OffHeapInteger で持つ分数。 常に既約で、分母は正です。
+ * <p>
+ * 四則演算は ParallelArithmetic と同じく、演算前の分子・分母どうしの小さな最大公約数で約分します（Henrici の方法）。
+ * 分子・分母が数百万桁になる式でも、中間結果はヒープの外か一時ファイルに置かれ、ヒープには語の列への参照だけが残ります。
+ */
+public final class OffHeapFraction {
+
+	private final OffHeapInteger numer;
+	private final OffHeapInteger denom;
+
+	private OffHeapFraction(OffHeapInteger numer, OffHeapInteger denom) {
+		this.numer = numer;
+		this.denom = denom;
+	}
+
+	/**
+	 * 既定の Allocator を使って BigFraction を変換します。
+	 *
+	 * @param value 値
+	 * @return 変換した値
+	 */
+	public static OffHeapFraction valueOf(BigFraction value) {
+		return valueOf(value, OffHeapInteger.Allocator.DEFAULT);
+	}
+
+	/**
+	 * BigFraction を変換します。
+	 *
+	 * @param value     値
+	 * @param allocator 分子・分母の語の列を確保する Allocator
+	 * @return 変換した値
+	 */
+	public static OffHeapFraction valueOf(BigFraction value, OffHeapInteger.Allocator allocator) {
+		return new OffHeapFraction(OffHeapInteger.valueOf(value.numerator(), allocator),
+				OffHeapInteger.valueOf(value.denominator(), allocator));
+	}
+
+	/**
+	 * 構文木をヒープ外の分数で評価します。 ノードは CompactTree と同じ後置記法の順に計算し、再帰しません。
+	 *
+	 * @param term      構文木
+	 * @param allocator 中間結果の語の列を確保する Allocator
+	 * @return 計算結果
+	 * @throws ArithmeticException   0で除算した場合
+	 * @throws IllegalStateException 変数を含む場合
+	 */
+	public static OffHeapFraction evaluate(Term term, OffHeapInteger.Allocator allocator) {
+		return evaluate(CompactTree.of(term), allocator);
+	}
+
+	/**
+	 * CompactTree をヒープ外の分数で評価します。
+	 *
+	 * @param tree      数式
+	 * @param allocator 中間結果の語の列を確保する Allocator
+	 * @return 計算結果
+	 * @throws ArithmeticException   0で除算した場合
+	 * @throws IllegalStateException 変数を含む場合
+	 */
+	public static OffHeapFraction evaluate(CompactTree tree, OffHeapInteger.Allocator allocator) {
+		OffHeapFraction[] stack = new OffHeapFraction[tree.size()];
+		int sp = 0;
+		for (int i = 0; i < tree.size(); i++) {
+			switch (tree.op(i)) {
+				case CompactTree.NUMBER, CompactTree.INTEGER ->
+						stack[sp++] = valueOf(BigFraction.parseBigFraction(tree.symbol(i)), allocator);
+				case CompactTree.VARIABLE -> throw new IllegalStateException("Unbound variable: " + tree.symbol(i));
+				default -> {
+					OffHeapFraction b = stack[--sp];
+					OffHeapFraction a = stack[sp - 1];
+					stack[sp - 1] = switch (tree.op(i)) {
+						case CompactTree.ADD -> a.add(b);
+						case CompactTree.SUB -> a.sub(b);
+						case CompactTree.MUL -> a.mul(b);
+						default -> a.div(b);
+					};
+				}
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * 分子を返します。
+	 *
+	 * @return 分子
+	 */
+	public OffHeapInteger numerator() {
+		return numer;
+	}
+
+	/**
+	 * 分母を返します。
+	 *
+	 * @return 分母（正）
+	 */
+	public OffHeapInteger denominator() {
+		return denom;
+	}
+
+	/**
+	 * ヒープ上の BigFraction に変換します。
+	 *
+	 * @return 値
+	 */
+	public BigFraction toBigFraction() {
+		return BigFraction.ofReduced(numer.toBigInteger(), denom.toBigInteger());
+	}
+
+	/**
+	 * 分数を加算します。 a/b + c/d は g = gcd(b, d) を用いて、分母の小さな最大公約数だけで約分します。
+	 *
+	 * @param f 加数
+	 * @return 和
+	 */
+	public OffHeapFraction add(OffHeapFraction f) {
+		return sum(f.numer, f.denom);
+	}
+
+	/**
+	 * 分数を減算します。
+	 *
+	 * @param f 減数
+	 * @return 差
+	 */
+	public OffHeapFraction sub(OffHeapFraction f) {
+		return sum(f.numer.negate(), f.denom);
+	}
+
+	/**
+	 * 分数を乗算します。 a/b * c/d は gcd(a, d) と gcd(c, b) で先に約分します。
+	 *
+	 * @param f 乗数
+	 * @return 積
+	 */
+	public OffHeapFraction mul(OffHeapFraction f) {
+		return product(f.numer, f.denom);
+	}
+
+	/**
+	 * 分数を除算します。
+	 *
+	 * @param f 除数
+	 * @return 商
+	 * @throws ArithmeticException 除数が0の場合
+	 */
+	public OffHeapFraction div(OffHeapFraction f) {
+		if (f.numer.signum() == 0) throw new ArithmeticException("/ by zero");
+		return f.numer.signum() < 0 ? product(f.denom.negate(), f.numer.negate()) : product(f.denom, f.numer);
+	}
+
+	private OffHeapFraction sum(OffHeapInteger c, OffHeapInteger d) {
+		OffHeapInteger g = denom.gcd(d);
+		if (g.isOne()) {
+			OffHeapInteger t = numer.multiply(d).add(c.multiply(denom));
+			return t.signum() == 0 ? new OffHeapFraction(t, t.one()) : new OffHeapFraction(t, denom.multiply(d));
+		}
+		OffHeapInteger b1 = denom.divide(g);
+		OffHeapInteger t = numer.multiply(d.divide(g)).add(c.multiply(b1));
+		if (t.signum() == 0) return new OffHeapFraction(t, t.one());
+		OffHeapInteger g2 = t.gcd(g);
+		if (g2.isOne()) return new OffHeapFraction(t, b1.multiply(d));
+		return new OffHeapFraction(t.divide(g2), b1.multiply(d.divide(g2)));
+	}
+
+	/**
+	 * this * c/d。 d は正とする。
+	 */
+	private OffHeapFraction product(OffHeapInteger c, OffHeapInteger d) {
+		if (numer.signum() == 0 || c.signum() == 0) return new OffHeapFraction(numer.signum() == 0 ? numer : c, denom.one());
+		OffHeapInteger g1 = numer.gcd(d);
+		OffHeapInteger g2 = c.gcd(denom);
+		OffHeapInteger a = g1.isOne() ? numer : numer.divide(g1);
+		OffHeapInteger b = g2.isOne() ? denom : denom.divide(g2);
+		OffHeapInteger c1 = g2.isOne() ? c : c.divide(g2);
+		OffHeapInteger d1 = g1.isOne() ? d : d.divide(g1);
+		return new OffHeapFraction(a.multiply(c1), b.multiply(d1));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		return obj instanceof OffHeapFraction other && numer.equals(other.numer) && denom.equals(other.denom);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * numer.hashCode() + denom.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return toBigFraction().toString();
+	}
+}
@@ -0,0 +1,775 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 値をヒープの外のメモリに持つ多倍長整数。 絶対値を32ビットの語の列（下位の語から順）として ByteBuffer に持ち、
+ * 加減乗除と最大公約数はその語の列を直接読み書きして計算します。
+ * <p>
+ * 小さな値はヒープ上の ByteBuffer に、Allocator の directBytes 以上の値は allocateDirect で確保したメモリに、
+ * mappedBytes 以上の値は一時ファイルをメモリにマップした領域に置きます。 マップした一時ファイルは作成直後に削除され、
+ * 領域が使われなくなると解放されます。 このため数百MBの中間結果でもヒープをほとんど使いません。
+ * <p>
+ * 乗算は Karatsuba 法で分割し、4096語以下の部分だけをヒープ上の BigInteger で計算します。
+ * 除算は Burnikel-Ziegler 法で乗算に帰着させ、小さな除数だけを Knuth の Algorithm D で割ります。
+ * 最大公約数は Lehmer の方法で求めます。
+ */
+public final class OffHeapInteger implements Comparable<OffHeapInteger> {
+
+	private static final long MASK = 0xFFFFFFFFL;
+	/** これ以下の語数の乗算はヒープ上の BigInteger で行う */
+	private static final int BASE_LIMBS = 4096;
+	/** 除数と商がともにこれ以上の語数の除算は Burnikel-Ziegler 法で分割する */
+	private static final int DIVIDE_LIMBS = 64;
+	/** 商を1減らすための1語の1。 書き込まれることはない */
+	private static final Mag ONE = new Mag(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, 1), 0, 1);
+
+	private final Allocator allocator;
+	private final ByteBuffer limbs;
+	private final int length;
+	private final int signum;
+
+	private OffHeapInteger(Allocator allocator, ByteBuffer limbs, int length, int signum) {
+		this.allocator = allocator;
+		this.limbs = limbs;
+		this.length = length;
+		this.signum = length == 0 ? 0 : signum;
+	}
+
+	/**
+	 * 既定の Allocator を使って BigInteger を変換します。
+	 *
+	 * @param value 値
+	 * @return 変換した値
+	 */
+	public static OffHeapInteger valueOf(BigInteger value) {
+		return valueOf(value, Allocator.DEFAULT);
+	}
+
+	/**
+	 * BigInteger を変換します。
+	 *
+	 * @param value     値
+	 * @param allocator 語の列を確保する Allocator
+	 * @return 変換した値
+	 */
+	public static OffHeapInteger valueOf(BigInteger value, Allocator allocator) {
+		Mag m = fromBigInteger(value.abs(), allocator);
+		return new OffHeapInteger(allocator, m.buffer, m.length, value.signum());
+	}
+
+	/**
+	 * ヒープ上の BigInteger に変換します。
+	 *
+	 * @return 値
+	 */
+	public BigInteger toBigInteger() {
+		BigInteger magnitude = toBigInteger(limbs, 0, length);
+		return signum < 0 ? magnitude.negate() : magnitude;
+	}
+
+	/**
+	 * 符号を返します。
+	 *
+	 * @return 負なら-1、0なら0、正なら1
+	 */
+	public int signum() {
+		return signum;
+	}
+
+	/**
+	 * 絶対値のビット長を返します。
+	 *
+	 * @return ビット長
+	 */
+	public long bitLength() {
+		if (length == 0) return 0;
+		return 32L * length - Integer.numberOfLeadingZeros(limbs.getInt((length - 1) << 2));
+	}
+
+	/**
+	 * 語の列を置いている場所を返します。
+	 *
+	 * @return 置き場所
+	 */
+	public Storage storage() {
+		return allocator.storage(limbs.capacity());
+	}
+
+	/**
+	 * 符号を反転した値を返します。 語の列は共有します。
+	 *
+	 * @return -this
+	 */
+	public OffHeapInteger negate() {
+		return new OffHeapInteger(allocator, limbs, length, -signum);
+	}
+
+	/**
+	 * 絶対値を返します。 語の列は共有します。
+	 *
+	 * @return |this|
+	 */
+	public OffHeapInteger abs() {
+		return signum < 0 ? negate() : this;
+	}
+
+	/**
+	 * 和を返します。
+	 *
+	 * @param other 加数
+	 * @return this + other
+	 */
+	public OffHeapInteger add(OffHeapInteger other) {
+		if (other.signum == 0) return this;
+		if (signum == 0) return other;
+		if (signum == other.signum) return result(addMag(mag(), other.mag(), allocator), signum);
+		int c = compareMag(mag(), other.mag());
+		if (c == 0) return zero(allocator);
+		return c > 0 ? result(subMag(mag(), other.mag(), allocator), signum) : result(subMag(other.mag(), mag(), allocator), other.signum);
+	}
+
+	/**
+	 * 差を返します。
+	 *
+	 * @param other 減数
+	 * @return this - other
+	 */
+	public OffHeapInteger subtract(OffHeapInteger other) {
+		return add(other.negate());
+	}
+
+	/**
+	 * 積を返します。
+	 *
+	 * @param other 乗数
+	 * @return this * other
+	 */
+	public OffHeapInteger multiply(OffHeapInteger other) {
+		if (signum == 0 || other.signum == 0) return zero(allocator);
+		return result(multiplyMag(mag(), other.mag(), allocator), signum * other.signum);
+	}
+
+	/**
+	 * 0の方向に切り捨てた商と、被除数と同じ符号の余りを返します。
+	 *
+	 * @param divisor 除数
+	 * @return 商と余りの配列
+	 * @throws ArithmeticException 除数が0の場合
+	 */
+	public OffHeapInteger[] divideAndRemainder(OffHeapInteger divisor) {
+		if (divisor.signum == 0) throw new ArithmeticException("/ by zero");
+		if (compareMag(mag(), divisor.mag()) < 0) return new OffHeapInteger[] { zero(allocator), this };
+		Mag[] qr = divideMag(mag(), divisor.mag(), allocator, true);
+		return new OffHeapInteger[] { result(qr[0], signum * divisor.signum), result(qr[1], signum) };
+	}
+
+	/**
+	 * 0の方向に切り捨てた商を返します。
+	 *
+	 * @param divisor 除数
+	 * @return 商
+	 * @throws ArithmeticException 除数が0の場合
+	 */
+	public OffHeapInteger divide(OffHeapInteger divisor) {
+		if (divisor.signum == 0) throw new ArithmeticException("/ by zero");
+		if (compareMag(mag(), divisor.mag()) < 0) return zero(allocator);
+		return result(divideMag(mag(), divisor.mag(), allocator, false)[0], signum * divisor.signum);
+	}
+
+	/**
+	 * 絶対値の最大公約数を返します。
+	 *
+	 * @param other 相手の値
+	 * @return 最大公約数（0以上）
+	 */
+	public OffHeapInteger gcd(OffHeapInteger other) {
+		if (signum == 0) return other.abs();
+		if (other.signum == 0) return abs();
+		return result(gcdMag(mag(), other.mag(), allocator), 1);
+	}
+
+	/**
+	 * 1と等しいかを返します。
+	 *
+	 * @return 1ならtrue
+	 */
+	public boolean isOne() {
+		return signum > 0 && length == 1 && limbs.getInt(0) == 1;
+	}
+
+	/**
+	 * 同じ Allocator を使う1を返す。
+	 */
+	OffHeapInteger one() {
+		return valueOf(BigInteger.ONE, allocator);
+	}
+
+	@Override
+	public int compareTo(OffHeapInteger other) {
+		if (signum != other.signum) return Integer.compare(signum, other.signum);
+		int c = compareMag(mag(), other.mag());
+		return signum < 0 ? -c : c;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		return obj instanceof OffHeapInteger other && compareTo(other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = signum;
+		for (int i = 0; i < length; i++) h = 31 * h + limbs.getInt(i << 2);
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return toBigInteger().toString();
+	}
+
+	private Mag mag() {
+		return new Mag(limbs, 0, length);
+	}
+
+	private OffHeapInteger result(Mag m, int sign) {
+		return new OffHeapInteger(allocator, m.buffer, m.trimmedLength(), sign);
+	}
+
+	private static OffHeapInteger zero(Allocator allocator) {
+		return new OffHeapInteger(allocator, allocator.allocate(0), 0, 0);
+	}
+
+	// 語の列の演算。 Mag は buffer の offset 語目から length 語の非負整数を表す
+
+	/**
+	 * 語の列の一部。 offset と length は語の単位。
+	 */
+	private record Mag(ByteBuffer buffer, int offset, int length) {
+		long get(int i) {
+			return buffer.getInt((offset + i) << 2) & MASK;
+		}
+
+		void set(int i, long value) {
+			buffer.putInt((offset + i) << 2, (int) value);
+		}
+
+		/** 上位の0の語を除いた長さ */
+		int trimmedLength() {
+			int n = length;
+			while (n > 0 && buffer.getInt((offset + n - 1) << 2) == 0) n--;
+			return n;
+		}
+
+		Mag trim() {
+			int n = trimmedLength();
+			return n == length ? this : new Mag(buffer, offset, n);
+		}
+
+		Mag slice(int from, int to) {
+			return new Mag(buffer, offset + from, Math.max(0, Math.min(to, length) - from)).trim();
+		}
+	}
+
+	private static Mag allocateMag(int length, Allocator allocator) {
+		return new Mag(allocator.allocate(length), 0, length);
+	}
+
+	private static int compareMag(Mag a, Mag b) {
+		a = a.trim();
+		b = b.trim();
+		if (a.length != b.length) return Integer.compare(a.length, b.length);
+		for (int i = a.length - 1; i >= 0; i--) {
+			long x = a.get(i), y = b.get(i);
+			if (x != y) return x < y ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private static Mag addMag(Mag a, Mag b, Allocator allocator) {
+		if (a.length < b.length) return addMag(b, a, allocator);
+		Mag r = allocateMag(a.length + 1, allocator);
+		long carry = 0;
+		for (int i = 0; i < a.length; i++) {
+			long t = a.get(i) + (i < b.length ? b.get(i) : 0) + carry;
+			r.set(i, t);
+			carry = t >>> 32;
+		}
+		r.set(a.length, carry);
+		return r;
+	}
+
+	/**
+	 * a - b。 a >= b とする。
+	 */
+	private static Mag subMag(Mag a, Mag b, Allocator allocator) {
+		Mag r = allocateMag(a.length, allocator);
+		long borrow = 0;
+		for (int i = 0; i < a.length; i++) {
+			long t = a.get(i) - (i < b.length ? b.get(i) : 0) - borrow;
+			r.set(i, t);
+			borrow = t < 0 ? 1 : 0;
+		}
+		return r;
+	}
+
+	/**
+	 * dst の shift 語目以降に src を加える。 結果が dst に収まることは呼び出し側が保証する。
+	 */
+	private static void addInto(Mag dst, int shift, Mag src) {
+		long carry = 0;
+		int i = 0;
+		for (; i < src.length; i++) {
+			long t = dst.get(shift + i) + src.get(i) + carry;
+			dst.set(shift + i, t);
+			carry = t >>> 32;
+		}
+		for (; carry != 0; i++) {
+			long t = dst.get(shift + i) + carry;
+			dst.set(shift + i, t);
+			carry = t >>> 32;
+		}
+	}
+
+	/**
+	 * dst から src を引く。 dst >= src とする。
+	 */
+	private static void subtractInto(Mag dst, Mag src) {
+		long borrow = 0;
+		int i = 0;
+		for (; i < src.length; i++) {
+			long t = dst.get(i) - src.get(i) - borrow;
+			dst.set(i, t);
+			borrow = t < 0 ? 1 : 0;
+		}
+		for (; borrow != 0; i++) {
+			long t = dst.get(i) - borrow;
+			dst.set(i, t);
+			borrow = t < 0 ? 1 : 0;
+		}
+	}
+
+	/**
+	 * 積。 結果は a.length + b.length 語。 小さな部分はヒープ上で、大きな部分は Karatsuba 法で分割して計算する。
+	 */
+	private static Mag multiplyMag(Mag a, Mag b, Allocator allocator) {
+		a = a.trim();
+		b = b.trim();
+		if (a.length < b.length) {
+			Mag t = a;
+			a = b;
+			b = t;
+		}
+		Mag r = allocateMag(a.length + b.length, allocator);
+		if (b.length == 0) return r;
+		if (a.length <= BASE_LIMBS) {
+			write(r, 0, toBigInteger(a).multiply(toBigInteger(b)));
+			return r;
+		}
+		if (b.length <= BASE_LIMBS || a.length >= 2 * b.length) {
+			// 長さの違う積は、長い方を短い方の長さ（BASE_LIMBS 以上）ごとに分けて足し合わせる
+			int chunk = Math.max(b.length, BASE_LIMBS);
+			for (int from = 0; from < a.length; from += chunk) {
+				Mag part = a.slice(from, from + chunk);
+				if (part.length > 0) addInto(r, from, multiplyMag(part, b, allocator).trim());
+			}
+			return r;
+		}
+		int h = a.length / 2;
+		Mag a0 = a.slice(0, h), a1 = a.slice(h, a.length);
+		Mag b0 = b.slice(0, h), b1 = b.slice(h, b.length);
+		Mag z0 = multiplyMag(a0, b0, allocator).trim();
+		Mag z2 = multiplyMag(a1, b1, allocator).trim();
+		Mag z1 = multiplyMag(addMag(a0, a1, allocator), addMag(b0, b1, allocator), allocator);
+		subtractInto(z1, z0);
+		subtractInto(z1, z2);
+		addInto(r, 0, z0);
+		addInto(r, 2 * h, z2);
+		addInto(r, h, z1.trim());
+		return r;
+	}
+
+	/**
+	 * 商と余り。 b > 0 とする。 needRemainder が false の場合、余りは null になることがある。
+	 * 除数と商が大きい場合は Burnikel-Ziegler 法で、除数を n 語に揃えて被除数を n 語ずつの塊に分け、
+	 * 上位から2塊ずつ divide2n1n で割る。 除算は乗算の数倍の時間で済む。
+	 */
+	private static Mag[] divideMag(Mag a, Mag b, Allocator allocator, boolean needRemainder) {
+		a = a.trim();
+		b = b.trim();
+		if (compareMag(a, b) < 0) return new Mag[] { allocateMag(0, allocator), copy(a, allocator) };
+		if (b.length < DIVIDE_LIMBS || a.length - b.length < DIVIDE_LIMBS) return divideKnuth(a, b, allocator, needRemainder);
+		// n は m = 2^k の倍数で、n / m が DIVIDE_LIMBS 未満になるように選ぶ。 divide2n1n は k 回半分に分けてから Algorithm D に移る
+		int m = 1 << (32 - Integer.numberOfLeadingZeros(b.length / DIVIDE_LIMBS));
+		int n = (b.length + m - 1) / m * m;
+		int sigma = (int) (32L * n - bitLength(b));
+		Mag bn = shiftLeft(b, sigma, allocator).slice(0, n);
+		Mag an = shiftLeft(a, sigma, allocator);
+		// 最上位の塊の最上位ビットが0になるよう、塊の数 t を1つ多めに取る
+		int t = (int) Math.max(2, (bitLength(an) + 32L * n) / (32L * n));
+		Mag q = allocateMag((t - 1) * n, allocator);
+		Mag z = an.slice((t - 2) * n, t * n);
+		Mag r = null;
+		for (int i = t - 2; i >= 0; i--) {
+			Mag[] qr = divide2n1n(z, bn, n, allocator);
+			addInto(q, i * n, qr[0].trim());
+			r = qr[1];
+			if (i > 0) z = join(r, an.slice((i - 1) * n, i * n), n, allocator);
+		}
+		return new Mag[] { q, needRemainder ? shiftRight(r, sigma, allocator) : null };
+	}
+
+	/**
+	 * a < β^n b、b はちょうど n 語で最上位ビットが1のとき、a を b で割る（β = 2^32）。 a を上位から n/2 語ずつ4つに分け、
+	 * 上位3つと残り1つに対して divide3n2n を2回行う。
+	 */
+	private static Mag[] divide2n1n(Mag a, Mag b, int n, Allocator allocator) {
+		if ((n & 1) != 0 || n < DIVIDE_LIMBS) {
+			if (compareMag(a, b) < 0) return new Mag[] { allocateMag(0, allocator), a };
+			return divideKnuth(a.trim(), b, allocator, true);
+		}
+		int h = n / 2;
+		Mag[] qr1 = divide3n2n(a.slice(3 * h, 4 * h), a.slice(2 * h, 3 * h), a.slice(h, 2 * h), b, h, allocator);
+		Mag r = qr1[1];
+		Mag[] qr2 = divide3n2n(r.slice(h, 2 * h), r.slice(0, h), a.slice(0, h), b, h, allocator);
+		return new Mag[] { join(qr1[0], qr2[0], h, allocator), qr2[1] };
+	}
+
+	/**
+	 * a1 a2 a3（各 h 語、a1 が上位）を 2h 語の b で割る。 a1 a2 a3 < β^h b とする。 上位 h 語の b1 で商を見積もり、
+	 * 下位の b2 の分を引いて負になった場合だけ商を減らす。 減らす回数は2回以下。
+	 */
+	private static Mag[] divide3n2n(Mag a1, Mag a2, Mag a3, Mag b, int h, Allocator allocator) {
+		Mag b1 = b.slice(h, 2 * h), b2 = b.slice(0, h);
+		Mag a12 = join(a1, a2, h, allocator);
+		Mag q, r1;
+		if (compareMag(a1, b1) < 0) {
+			Mag[] qr = divide2n1n(a12, b1, h, allocator);
+			q = qr[0];
+			r1 = qr[1];
+		} else {
+			// a1 = b1 の場合、商は β^h - 1 で、a12 - q b1 = a2 + b1
+			q = allocateMag(h, allocator);
+			for (int i = 0; i < h; i++) q.set(i, MASK);
+			r1 = addMag(a2, b1, allocator);
+		}
+		Mag d = multiplyMag(q, b2, allocator);
+		Mag r = join(r1, a3, h, allocator);
+		while (compareMag(r, d) < 0) {
+			r = addMag(r, b, allocator);
+			q = subMag(q.trim(), ONE, allocator);
+		}
+		return new Mag[] { q, subMag(r.trim(), d.trim(), allocator) };
+	}
+
+	/**
+	 * 商と余り（Knuth の Algorithm D）。 a >= b > 0 とする。 needRemainder が false の場合、余りは求めない。
+	 */
+	private static Mag[] divideKnuth(Mag a, Mag b, Allocator allocator, boolean needRemainder) {
+		int n = b.length, m = a.length - n;
+		Mag q = allocateMag(m + 1, allocator);
+		if (n == 1) {
+			long d = b.get(0), rem = 0;
+			for (int i = a.length - 1; i >= 0; i--) {
+				long cur = (rem << 32) | a.get(i);
+				q.set(i, Long.divideUnsigned(cur, d));
+				rem = Long.remainderUnsigned(cur, d);
+			}
+			Mag r = allocateMag(1, allocator);
+			r.set(0, rem);
+			return new Mag[] { q, r };
+		}
+		// 除数の最上位の語の最上位ビットが1になるよう、両方を左にずらす
+		int s = Integer.numberOfLeadingZeros((int) b.get(n - 1));
+		Mag vn = allocateMag(n, allocator);
+		for (int i = n - 1; i > 0; i--) vn.set(i, (b.get(i) << s) | (s == 0 ? 0 : b.get(i - 1) >>> (32 - s)));
+		vn.set(0, b.get(0) << s);
+		Mag un = allocateMag(a.length + 1, allocator);
+		un.set(a.length, s == 0 ? 0 : a.get(a.length - 1) >>> (32 - s));
+		for (int i = a.length - 1; i > 0; i--) un.set(i, (a.get(i) << s) | (s == 0 ? 0 : a.get(i - 1) >>> (32 - s)));
+		un.set(0, a.get(0) << s);
+		long vTop = vn.get(n - 1), vNext = vn.get(n - 2);
+		for (int j = m; j >= 0; j--) {
+			long num = (un.get(j + n) << 32) | un.get(j + n - 1);
+			long qhat = Long.divideUnsigned(num, vTop);
+			long rhat = Long.remainderUnsigned(num, vTop);
+			while (qhat > MASK || Long.compareUnsigned(qhat * vNext, (rhat << 32) | un.get(j + n - 2)) > 0) {
+				qhat--;
+				rhat += vTop;
+				if (rhat > MASK) break;
+			}
+			long k = 0, t;
+			for (int i = 0; i < n; i++) {
+				long p = qhat * vn.get(i);
+				t = un.get(i + j) - k - (p & MASK);
+				un.set(i + j, t);
+				k = (p >>> 32) - (t >> 32);
+			}
+			t = un.get(j + n) - k;
+			un.set(j + n, t);
+			if (t < 0) {
+				qhat--;
+				k = 0;
+				for (int i = 0; i < n; i++) {
+					t = un.get(i + j) + vn.get(i) + k;
+					un.set(i + j, t);
+					k = t >>> 32;
+				}
+				un.set(j + n, un.get(j + n) + k);
+			}
+			q.set(j, qhat);
+		}
+		if (!needRemainder) return new Mag[] { q, null };
+		Mag r = allocateMag(n, allocator);
+		for (int i = 0; i < n; i++) r.set(i, (un.get(i) >>> s) | (s == 0 ? 0 : un.get(i + 1) << (32 - s)));
+		return new Mag[] { q, r };
+	}
+
+	/**
+	 * 最大公約数（Lehmer の方法）。 上位31ビットだけで商の列を求め、まとめて1回の線形結合で語の列を更新する。
+	 */
+	private static Mag gcdMag(Mag a, Mag b, Allocator allocator) {
+		boolean ordered = compareMag(a, b) >= 0;
+		Mag u = copy(ordered ? a : b, allocator);
+		Mag v = copy(ordered ? b : a, allocator);
+		while (v.trimmedLength() > 2) {
+			u = u.trim();
+			v = v.trim();
+			long bits = 32L * u.length - Integer.numberOfLeadingZeros((int) u.get(u.length - 1));
+			long shift = bits - 31;
+			long uh = bitsAt(u, shift), vh = bitsAt(v, shift);
+			long A = 1, B = 0, C = 0, D = 1;
+			while (vh + C != 0 && vh + D != 0) {
+				long q = (uh + A) / (vh + C);
+				if (q != (uh + B) / (vh + D)) break;
+				long t = A - q * C;
+				A = C;
+				C = t;
+				t = B - q * D;
+				B = D;
+				D = t;
+				t = uh - q * vh;
+				uh = vh;
+				vh = t;
+			}
+			if (B == 0) {
+				Mag r = divideMag(u, v, allocator, true)[1];
+				u = v;
+				v = r;
+			} else {
+				combine(u, v, A, B, C, D);
+			}
+		}
+		u = u.trim();
+		v = v.trim();
+		if (v.length == 0) return u;
+		// v は64ビット以下。 u を v で割った余りから先は long で計算する
+		BigInteger small = toBigInteger(v);
+		BigInteger r = toBigInteger(divideMag(u, v, allocator, true)[1]).gcd(small);
+		return fromBigInteger(r, allocator);
+	}
+
+	/**
+	 * (u, v) を (Au + Bv, Cu + Dv) で置き換える。 係数の絶対値は2^31未満で、結果はどちらも0以上になる。
+	 */
+	private static void combine(Mag u, Mag v, long A, long B, long C, long D) {
+		long cu = 0, cv = 0;
+		for (int i = 0; i < u.length; i++) {
+			long ui = u.get(i), vi = i < v.length ? v.get(i) : 0;
+			long x = A * ui + B * vi + cu;
+			long y = C * ui + D * vi + cv;
+			u.set(i, x);
+			if (i < v.length) v.set(i, y);
+			cu = x >> 32;
+			cv = y >> 32;
+		}
+	}
+
+	/**
+	 * shift ビット目から上位31ビットを取り出す。
+	 */
+	private static long bitsAt(Mag m, long shift) {
+		int word = (int) (shift >>> 5), bit = (int) (shift & 31);
+		long lo = word < m.length ? m.get(word) : 0;
+		long hi = word + 1 < m.length ? m.get(word + 1) : 0;
+		return (((hi << 32) | lo) >>> bit) & 0x7FFFFFFFL;
+	}
+
+	/**
+	 * hi β^k + lo。 lo は k 語以下とする。
+	 */
+	private static Mag join(Mag hi, Mag lo, int k, Allocator allocator) {
+		hi = hi.trim();
+		lo = lo.trim();
+		Mag r = allocateMag(hi.length + k, allocator);
+		for (int i = 0; i < lo.length; i++) r.set(i, lo.get(i));
+		for (int i = 0; i < hi.length; i++) r.set(k + i, hi.get(i));
+		return r;
+	}
+
+	private static long bitLength(Mag m) {
+		m = m.trim();
+		return m.length == 0 ? 0 : 32L * m.length - Integer.numberOfLeadingZeros((int) m.get(m.length - 1));
+	}
+
+	private static Mag shiftLeft(Mag m, int bits, Allocator allocator) {
+		int words = bits >>> 5, s = bits & 31;
+		Mag r = allocateMag(m.length + words + 1, allocator);
+		long carry = 0;
+		for (int i = 0; i < m.length; i++) {
+			long w = m.get(i);
+			r.set(words + i, (w << s) | carry);
+			carry = s == 0 ? 0 : w >>> (32 - s);
+		}
+		r.set(words + m.length, carry);
+		return r;
+	}
+
+	private static Mag shiftRight(Mag m, int bits, Allocator allocator) {
+		int words = bits >>> 5, s = bits & 31;
+		int length = Math.max(0, m.length - words);
+		Mag r = allocateMag(length, allocator);
+		for (int i = 0; i < length; i++) {
+			long hi = words + i + 1 < m.length ? m.get(words + i + 1) : 0;
+			r.set(i, (m.get(words + i) >>> s) | (s == 0 ? 0 : hi << (32 - s)));
+		}
+		return r;
+	}
+
+	private static Mag copy(Mag m, Allocator allocator) {
+		m = m.trim();
+		Mag r = allocateMag(m.length, allocator);
+		for (int i = 0; i < m.length; i++) r.set(i, m.get(i));
+		return r;
+	}
+
+	private static BigInteger toBigInteger(Mag m) {
+		return toBigInteger(m.buffer, m.offset, m.trimmedLength());
+	}
+
+	private static BigInteger toBigInteger(ByteBuffer buffer, int offset, int length) {
+		byte[] bytes = new byte[length * 4 + 1];
+		for (int i = 0; i < length; i++) {
+			int w = buffer.getInt((offset + i) << 2);
+			int p = bytes.length - 4 * (i + 1);
+			bytes[p] = (byte) (w >>> 24);
+			bytes[p + 1] = (byte) (w >>> 16);
+			bytes[p + 2] = (byte) (w >>> 8);
+			bytes[p + 3] = (byte) w;
+		}
+		return new BigInteger(bytes);
+	}
+
+	private static Mag fromBigInteger(BigInteger value, Allocator allocator) {
+		Mag m = allocateMag((value.bitLength() + 31) >>> 5, allocator);
+		write(m, 0, value);
+		return m;
+	}
+
+	/**
+	 * 非負の value を dst の shift 語目から書き込む。
+	 */
+	private static void write(Mag dst, int shift, BigInteger value) {
+		byte[] bytes = value.toByteArray();
+		int words = (value.bitLength() + 31) >>> 5;
+		for (int i = 0; i < words; i++) {
+			int w = 0;
+			for (int k = 3; k >= 0; k--) {
+				int p = bytes.length - 1 - (4 * i + k);
+				w = (w << 8) | (p >= 0 ? bytes[p] & 0xFF : 0);
+			}
+			dst.set(shift + i, w & MASK);
+		}
+	}
+
+	/**
+	 * 語の列の置き場所。
+	 */
+	public enum Storage {
+		/** ヒープ上の配列 */
+		HEAP,
+		/** allocateDirect で確保したヒープ外のメモリ */
+		DIRECT,
+		/** 一時ファイルをマップした領域 */
+		MAPPED
+	}
+
+	/**
+	 * 語の列の置き場所を大きさで選んで確保するクラス。
+	 * <p>
+	 * 既定の値はシステムプロパティ "calculator.offHeapBytes"（既定 1MB）と "calculator.mappedBytes"（既定 256MB）、
+	 * 一時ファイルの場所は "java.io.tmpdir" です。
+	 */
+	public static final class Allocator {
+		/** システムプロパティから作った既定の Allocator */
+		public static final Allocator DEFAULT = new Allocator(Long.getLong("calculator.offHeapBytes", 1L << 20),
+				Long.getLong("calculator.mappedBytes", 1L << 28), Path.of(System.getProperty("java.io.tmpdir")));
+
+		private final long directBytes;
+		private final long mappedBytes;
+		private final Path directory;
+
+		/**
+		 * コンストラクタ。
+		 *
+		 * @param directBytes ヒープ外に置く大きさの下限（バイト）
+		 * @param mappedBytes 一時ファイルに置く大きさの下限（バイト）
+		 * @param directory   一時ファイルを作るディレクトリ
+		 */
+		public Allocator(long directBytes, long mappedBytes, Path directory) {
+			this.directBytes = directBytes;
+			this.mappedBytes = mappedBytes;
+			this.directory = directory;
+		}
+
+		/**
+		 * 0で初期化した limbs 語の領域を確保します。
+		 *
+		 * @param limbs 語数
+		 * @return 確保した領域
+		 * @throws UncheckedIOException 一時ファイルを作れない場合
+		 */
+		ByteBuffer allocate(int limbs) {
+			long bytes = 4L * limbs;
+			if (bytes > Integer.MAX_VALUE) throw new ArithmeticException("Integer too large: " + limbs + " words");
+			ByteBuffer buffer = switch (storage(bytes)) {
+				case MAPPED -> map(bytes);
+				case DIRECT -> ByteBuffer.allocateDirect((int) bytes);
+				default -> ByteBuffer.allocate((int) bytes);
+			};
+			return buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * 大きさが bytes の領域の置き場所を返す。 allocateDirect の領域も MappedByteBuffer になるため、型ではなく大きさで判定する。
+		 */
+		private Storage storage(long bytes) {
+			if (bytes > 0 && bytes >= mappedBytes) return Storage.MAPPED;
+			if (bytes > 0 && bytes >= directBytes) return Storage.DIRECT;
+			return Storage.HEAP;
+		}
+
+		private ByteBuffer map(long bytes) {
+			try {
+				Path file = Files.createTempFile(directory, "calculator-", ".limbs");
+				// 削除してもマップした領域は使われなくなるまで残る
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.DELETE_ON_CLOSE)) {
+					return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package model;
+
+import java.io.Serial;
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 巨大な分数の四則演算を複数のコアで行うクラス。 演算の中の互いに独立な乗算と最大公約数の計算を並行に行い、
+ * しきい値を超える大きさの乗算は被乗数を分割して並列に計算します。
+ * <p>
+ * 約分は結果全体の最大公約数ではなく、演算前の分子・分母どうしの小さな最大公約数で行います（Henrici の方法）。
+ * 結果は BigFraction の演算と常に一致します。
+ * <p>
+ * システムプロパティ "calculator.parallelThreshold" にビット長を指定すると、BigFraction の演算のうち
+ * 被演算子がそのビット長を超えるものはこのクラスで計算されます。 指定しない場合は使われません。
+ */
+public final class ParallelArithmetic {
+
+	/** BigFraction の演算を並列に行う被演算子のビット長。 0 の場合は並列に行わない */
+	static final int THRESHOLD = Integer.getInteger("calculator.parallelThreshold", 0);
+
+	/** BigFraction の演算に使うインスタンス */
+	static final ParallelArithmetic DEFAULT = new ParallelArithmetic(ForkJoinPool.commonPool(), Math.max(THRESHOLD, 1));
+
+	private final ForkJoinPool pool;
+	private final int threshold;
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param pool      計算に用いるForkJoinPool
+	 * @param threshold 分割して並列に計算する乗算の、小さい方の被演算子のビット長の下限
+	 */
+	public ParallelArithmetic(ForkJoinPool pool, int threshold) {
+		if (threshold <= 0) throw new IllegalArgumentException("threshold <= 0: " + threshold);
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * 被演算子のどちらかの分子または分母がビット長 bits を超えるかを判定します。
+	 *
+	 * @param a    被演算子
+	 * @param b    被演算子
+	 * @param bits ビット長
+	 * @return 超える場合はtrue
+	 */
+	static boolean isLarge(BigFraction a, BigFraction b, int bits) {
+		return a.numerator().bitLength() > bits || a.denominator().bitLength() > bits
+				|| b.numerator().bitLength() > bits || b.denominator().bitLength() > bits;
+	}
+
+	/**
+	 * 2つの整数の積を並列に求めます。
+	 *
+	 * @param x 被乗数
+	 * @param y 乗数
+	 * @return 積
+	 */
+	public BigInteger multiply(BigInteger x, BigInteger y) {
+		return invoke(new Multiply(x, y, depth()));
+	}
+
+	/**
+	 * 分数を加算します。 a/b + c/d は g = gcd(b, d) を用いて、分母の小さな最大公約数だけで約分します。
+	 *
+	 * @param x 被加数
+	 * @param y 加数
+	 * @return 和
+	 */
+	public BigFraction add(BigFraction x, BigFraction y) {
+		return invoke(new Sum(x, y, false, depth()));
+	}
+
+	/**
+	 * 分数を減算します。
+	 *
+	 * @param x 被減数
+	 * @param y 減数
+	 * @return 差
+	 */
+	public BigFraction sub(BigFraction x, BigFraction y) {
+		return invoke(new Sum(x, y, true, depth()));
+	}
+
+	/**
+	 * 分数を乗算します。 a/b * c/d は gcd(a, d) と gcd(c, b) を並行に求めて先に約分してから掛けます。
+	 *
+	 * @param x 被乗数
+	 * @param y 乗数
+	 * @return 積
+	 */
+	public BigFraction mul(BigFraction x, BigFraction y) {
+		return invoke(new Product(x.numerator(), x.denominator(), y.numerator(), y.denominator(), depth()));
+	}
+
+	/**
+	 * 分数を除算します。
+	 *
+	 * @param x 被除数
+	 * @param y 除数
+	 * @return 商
+	 * @throws ArithmeticException 0で除算した場合
+	 */
+	public BigFraction div(BigFraction x, BigFraction y) {
+		if (y.numerator().signum() == 0) throw new ArithmeticException("/ by zero");
+		BigInteger c = y.denominator(), d = y.numerator();
+		if (d.signum() < 0) {
+			c = c.negate();
+			d = d.negate();
+		}
+		return invoke(new Product(x.numerator(), x.denominator(), c, d, depth()));
+	}
+
+	/**
+	 * 並列に分割する深さ。 プールの並列度を使い切る程度に分ける。
+	 */
+	private int depth() {
+		return 32 - Integer.numberOfLeadingZeros(pool.getParallelism());
+	}
+
+	/**
+	 * 既にプールの中で実行されている場合はそのまま計算し、そうでなければプールに渡す。
+	 */
+	private <T> T invoke(RecursiveTask<T> task) {
+		return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+	}
+
+	private BigInteger multiply(BigInteger x, BigInteger y, int depth) {
+		return new Multiply(x, y, depth).compute();
+	}
+
+	/**
+	 * 大きい方の被演算子を上下に分け、2つの部分積を並列に求めて足し合わせる。
+	 */
+	private final class Multiply extends RecursiveTask<BigInteger> {
+		@Serial
+		private static final long serialVersionUID = 3517263098822043562L;
+
+		private final BigInteger x;
+		private final BigInteger y;
+		private final int depth;
+
+		private Multiply(BigInteger x, BigInteger y, int depth) {
+			this.x = x;
+			this.y = y;
+			this.depth = depth;
+		}
+
+		@Override
+		protected BigInteger compute() {
+			BigInteger a = x.bitLength() >= y.bitLength() ? x : y;
+			BigInteger b = a == x ? y : x;
+			if (depth <= 0 || b.bitLength() < threshold) return a.multiply(b);
+			int half = a.bitLength() / 2;
+			BigInteger high = a.shiftRight(half);
+			BigInteger low = a.subtract(high.shiftLeft(half));
+			Multiply task = new Multiply(high, b, depth - 1);
+			task.fork();
+			BigInteger lowProduct = new Multiply(low, b, depth - 1).compute();
+			return task.join().shiftLeft(half).add(lowProduct);
+		}
+	}
+
+	/**
+	 * a/b ± c/d。 g = gcd(b, d) が1なら約分は不要。 そうでなければ t = a(d/g) ± c(b/g) と g の最大公約数だけで約分する。
+	 */
+	private final class Sum extends RecursiveTask<BigFraction> {
+		@Serial
+		private static final long serialVersionUID = -6145920371858409219L;
+
+		private final BigFraction x;
+		private final BigFraction y;
+		private final boolean subtract;
+		private final int depth;
+
+		private Sum(BigFraction x, BigFraction y, boolean subtract, int depth) {
+			this.x = x;
+			this.y = y;
+			this.subtract = subtract;
+			this.depth = depth;
+		}
+
+		@Override
+		protected BigFraction compute() {
+			BigInteger a = x.numerator(), b = x.denominator(), c = y.numerator(), d = y.denominator();
+			if (Metrics.ENABLED) Metrics.GCD.increment();
+			BigInteger g = b.gcd(d);
+			BigInteger b1 = g.equals(BigInteger.ONE) ? b : b.divide(g);
+			BigInteger d1 = g.equals(BigInteger.ONE) ? d : d.divide(g);
+			ForkJoinTask<BigInteger> left = new Multiply(a, d1, depth - 1).fork();
+			ForkJoinTask<BigInteger> right = new Multiply(c, b1, depth - 1).fork();
+			BigInteger denominator = multiply(b1, d, depth - 1);
+			BigInteger t = subtract ? left.join().subtract(right.join()) : left.join().add(right.join());
+			if (t.signum() == 0) return BigFraction.ZERO;
+			if (g.equals(BigInteger.ONE)) return BigFraction.ofReduced(t, denominator);
+			BigInteger g2 = t.gcd(g);
+			if (g2.equals(BigInteger.ONE)) return BigFraction.ofReduced(t, denominator);
+			return BigFraction.ofReduced(t.divide(g2), denominator.divide(g2));
+		}
+	}
+
+	/**
+	 * (a/b)(c/d)。 gcd(a, d) と gcd(c, b) で先に約分してから、分子どうし・分母どうしの積を並行に求める。 d は正とする。
+	 */
+	private final class Product extends RecursiveTask<BigFraction> {
+		@Serial
+		private static final long serialVersionUID = 8830431766210995427L;
+
+		private final BigInteger a;
+		private final BigInteger b;
+		private final BigInteger c;
+		private final BigInteger d;
+		private final int depth;
+
+		private Product(BigInteger a, BigInteger b, BigInteger c, BigInteger d, int depth) {
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.d = d;
+			this.depth = depth;
+		}
+
+		@Override
+		protected BigFraction compute() {
+			if (a.signum() == 0 || c.signum() == 0) return BigFraction.ZERO;
+			if (Metrics.ENABLED) Metrics.GCD.increment();
+			ForkJoinTask<BigInteger> gcd = ForkJoinTask.adapt(() -> a.gcd(d)).fork();
+			BigInteger g2 = c.gcd(b);
+			BigInteger g1 = gcd.join();
+			ForkJoinTask<BigInteger> numerator = new Multiply(a.divide(g1), c.divide(g2), depth - 1).fork();
+			BigInteger denominator = multiply(b.divide(g2), d.divide(g1), depth - 1);
+			return BigFraction.ofReduced(numerator.join(), denominator);
+		}
+	}
+}
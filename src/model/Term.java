@@ -2,9 +2,14 @@ package model;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayDeque;
 import java.util.Objects;
 
 public class Term {
+	/** BigDecimal で計算する場合に、途中の丸め誤差を吸収するため余分に保持する桁数 */
+	private static final int GUARD_DIGITS = 10;
+
 	public Symbol label;
 	public Term left, right;
 
@@ -22,11 +27,59 @@ public class Term {
 	}
 
 	public BigFraction calc() {
-		return calcFraction();
+		if (!Metrics.ENABLED) return calcFraction();
+		long start = System.nanoTime();
+		BigFraction value = calcFraction();
+		Metrics.EVALUATE.record(System.nanoTime() - start);
+		return value;
+	}
+
+	/**
+	 * 各ノードの計算後に monitor を呼びながら分数計算を行う。 monitor が例外を投げた場合は評価を中断する。
+	 *
+	 * @param monitor 評価の監視者
+	 * @return このノードをルートとする部分木の計算結果（Fraction オブジェクト）
+	 */
+	public BigFraction calc(EvaluationMonitor monitor) {
+		if (monitor == null) return calc();
+		if (!Metrics.ENABLED) return calcFraction(monitor);
+		long start = System.nanoTime();
+		BigFraction value = calcFraction(monitor);
+		Metrics.EVALUATE.record(System.nanoTime() - start);
+		return value;
+	}
+
+	/**
+	 * 各演算の結果を、相対誤差 tolerance 以内で分母が最小の分数に置き換えながら計算する。
+	 * 分子・分母の大きさがおよそ 1/tolerance で頭打ちになるため、反復の多い式でも1回の演算の時間とメモリが増え続けない。
+	 * 誤差は演算ごとに tolerance 以下だが、打ち消し合う引き算では全体の相対誤差が大きくなることがある。
+	 *
+	 * @param tolerance 1回の演算で許す相対誤差（0以上）。 0の場合は calc と同じ
+	 * @return このノードをルートとする部分木の近似値
+	 */
+	public BigFraction calcApproximate(BigFraction tolerance) {
+		if (tolerance.numerator().signum() < 0) throw new IllegalArgumentException("tolerance < 0: " + tolerance);
+		if (tolerance.numerator().signum() == 0) return calc();
+		return calcFraction(tolerance);
 	}
 
 	public BigDecimal calc(int n) {
-		return calcFraction().getDecimal(n);
+		return calc().getDecimal(n);
+	}
+
+	/**
+	 * 分数を使わず、BigDecimal だけで計算する。 途中の演算は mc の精度に GUARD_DIGITS 桁を足した精度で丸め、
+	 * 最後に mc で丸める。 打ち消し合う引き算で有効桁が大きく失われない限り、結果は正しく丸められた値になる。
+	 * 分子・分母が大きくならないため、長い式では calc より大幅に速い。
+	 *
+	 * @param mc 結果の精度と丸めモード（精度は1以上）
+	 * @return このノードをルートとする部分木の計算結果
+	 * @throws ArithmeticException      0で除算した場合
+	 * @throws IllegalArgumentException 精度が0（無制限）の場合
+	 */
+	public BigDecimal calc(MathContext mc) {
+		if (mc.getPrecision() == 0) throw new IllegalArgumentException("Unlimited precision is not supported");
+		return calcDecimal(new MathContext(mc.getPrecision() + GUARD_DIGITS, mc.getRoundingMode())).round(mc);
 	}
 
 	/**
@@ -36,7 +89,7 @@ public class Term {
 	 * @return このノードをルートとする部分木の計算結果（整数）
 	 */
 	public BigInteger calcInteger() {
-		return calcFraction().integerPart();
+		return calc().integerPart();
 	}
 
 	/**
@@ -46,15 +99,126 @@ public class Term {
 	 * @return このノードをルートとする部分木の計算結果（Fraction オブジェクト）
 	 */
 	private BigFraction calcFraction() {
-		return switch (label.symbol()) {
-			case "+" -> left.calcFraction().add(right.calcFraction());
-			case "-" -> left.calcFraction().sub(right.calcFraction());
-			case "*" -> left.calcFraction().mul(right.calcFraction());
-			case "/" -> left.calcFraction().div(right.calcFraction());
-			default -> BigFraction.parseBigFraction(label.symbol());
+		if (label.type() != Type.OPERATOR) {
+			if (label.type() == Type.VARIABLE) throw new IllegalStateException("Unbound variable: " + label.symbol());
+			return BigFraction.parseBigFraction(label.symbol());
+		}
+		// "a + b + c + ..." のように左に連なる演算子は再帰せずにたどり、スタックの深さを右の部分木の深さに抑える
+		ArrayDeque<Term> spine = new ArrayDeque<>();
+		Term t = this;
+		while (t.label.type() == Type.OPERATOR) {
+			spine.push(t);
+			t = t.left;
+		}
+		BigFraction value = t.calcFraction();
+		while (!spine.isEmpty()) {
+			Term op = spine.pop();
+			value = apply(op, value, op.right.calcFraction());
+		}
+		return value;
+	}
+
+	/**
+	 * 監視者に各ノードの計算結果を通知しながら分数計算を行う。 通知の順は左部分木、右部分木、そのノードの順で、
+	 * calcFraction() と同じく左に連なる演算子は再帰せずにたどる。
+	 */
+	private BigFraction calcFraction(EvaluationMonitor monitor) {
+		if (label.type() != Type.OPERATOR) {
+			if (label.type() == Type.VARIABLE) throw new IllegalStateException("Unbound variable: " + label.symbol());
+			BigFraction value = BigFraction.parseBigFraction(label.symbol());
+			monitor.visit(this, value);
+			return value;
+		}
+		ArrayDeque<Term> spine = new ArrayDeque<>();
+		Term t = this;
+		while (t.label.type() == Type.OPERATOR) {
+			spine.push(t);
+			t = t.left;
+		}
+		BigFraction value = t.calcFraction(monitor);
+		while (!spine.isEmpty()) {
+			Term op = spine.pop();
+			value = apply(op, value, op.right.calcFraction(monitor));
+			monitor.visit(op, value);
+		}
+		return value;
+	}
+
+	/**
+	 * 演算子のノード op の演算を行う。
+	 */
+	private static BigFraction apply(Term op, BigFraction a, BigFraction b) {
+		return switch (op.label.symbol()) {
+			case "+" -> a.add(b);
+			case "-" -> a.sub(b);
+			case "*" -> a.mul(b);
+			case "/" -> a.div(b);
+			default -> throw new IllegalStateException("Unexpected value: " + op.label.symbol());
 		};
 	}
 
+	/**
+	 * 演算ごとに結果を近似しながら分数計算を行う。 calcFraction() と同じく左に連なる演算子は再帰せずにたどる。
+	 */
+	private BigFraction calcFraction(BigFraction tolerance) {
+		if (label.type() != Type.OPERATOR) {
+			if (label.type() == Type.VARIABLE) throw new IllegalStateException("Unbound variable: " + label.symbol());
+			return approximate(BigFraction.parseBigFraction(label.symbol()), tolerance);
+		}
+		ArrayDeque<Term> spine = new ArrayDeque<>();
+		Term t = this;
+		while (t.label.type() == Type.OPERATOR) {
+			spine.push(t);
+			t = t.left;
+		}
+		BigFraction value = t.calcFraction(tolerance);
+		while (!spine.isEmpty()) {
+			Term op = spine.pop();
+			value = approximate(apply(op, value, op.right.calcFraction(tolerance)), tolerance);
+		}
+		return value;
+	}
+
+	private static BigFraction approximate(BigFraction value, BigFraction tolerance) {
+		return value.bestApproximation(value.abs().mul(tolerance));
+	}
+
+	/**
+	 * 精度 mc で丸めながら BigDecimal の計算を行う。 calcFraction() と同じく左に連なる演算子は再帰せずにたどる。
+	 */
+	private BigDecimal calcDecimal(MathContext mc) {
+		if (label.type() != Type.OPERATOR) {
+			if (label.type() == Type.VARIABLE) throw new IllegalStateException("Unbound variable: " + label.symbol());
+			int slash = label.symbol().indexOf('/');
+			if (slash < 0) return new BigDecimal(label.symbol(), mc);
+			BigDecimal denominator = new BigDecimal(label.symbol().substring(slash + 1));
+			if (denominator.signum() == 0) throw new ArithmeticException("/ by zero");
+			return new BigDecimal(label.symbol().substring(0, slash)).divide(denominator, mc);
+		}
+		ArrayDeque<Term> spine = new ArrayDeque<>();
+		Term t = this;
+		while (t.label.type() == Type.OPERATOR) {
+			spine.push(t);
+			t = t.left;
+		}
+		BigDecimal value = t.calcDecimal(mc);
+		while (!spine.isEmpty()) {
+			Term op = spine.pop();
+			BigDecimal operand = op.right.calcDecimal(mc);
+			value = switch (op.label.symbol()) {
+				case "+" -> value.add(operand, mc);
+				case "-" -> value.subtract(operand, mc);
+				case "*" -> value.multiply(operand, mc);
+				case "/" -> {
+					if (operand.signum() == 0) throw new ArithmeticException("/ by zero");
+					yield value.divide(operand, mc);
+				}
+				default -> throw new IllegalStateException("Unexpected value: " + op.label.symbol());
+			};
+		}
+		return value;
+	}
+
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
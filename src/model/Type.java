@@ -1,7 +1,7 @@
 package model;
 
 public enum Type {
-	NUMBER, MATHFUNCTION, OPERATOR, PARENTHESIS;
+	NUMBER, MATHFUNCTION, OPERATOR, PARENTHESIS, VARIABLE;
 
 	public String toString() {
 		return super.toString();
@@ -0,0 +1,207 @@
+package parser;
+
+import model.CompactTree;
+import model.Metrics;
+
+/**
+ * 数式を Term を作らずに解析し、CompactTree を直接作成するパーサー。
+ * <p>
+ * 文法とエラーメッセージは Parser と同じで、作成した木を Term に変換すると Parser の結果と一致します。
+ * 字句解析は Symbol や文字列を作らずに入力の文字を直接読み、long に収まる整数のリテラルは数値のまま木に格納します。
+ */
+public final class CompactParser {
+
+	private static final int END = 0;
+	private static final int OPERATOR = 1;
+	private static final int PARENTHESIS = 2;
+	private static final int NUMBER = 3;
+	private static final int IDENTIFIER = 4;
+
+	private final String source;
+	private final int len;
+	private final CompactTree.Builder builder = new CompactTree.Builder();
+	private int pos;
+	/** read で読んだ演算子・括弧の文字、または peek で見た最初の文字 */
+	private char tokenChar;
+	private char peekChar;
+	/** read で読んだ数値・識別子の範囲 */
+	private int tokenStart;
+	private int tokenEnd;
+
+	private CompactParser(String expression) {
+		source = expression;
+		len = expression.length();
+	}
+
+	/**
+	 * 数式を解析し、CompactTree を返します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 数式を表現する木
+	 * @throws ExpressionParseException 式が不正な場合
+	 */
+	public static CompactTree parse(String expression) {
+		CompactParser parser = new CompactParser(expression);
+		if (!Metrics.ENABLED) {
+			parser.parsePolynomial();
+			return parser.builder.build();
+		}
+		long start = System.nanoTime();
+		parser.parsePolynomial();
+		CompactTree tree = parser.builder.build();
+		Metrics.PARSE.record(System.nanoTime() - start);
+		return tree;
+	}
+
+	/**
+	 * 多項式を解析する。 単項式を "+", "-" で結合する。
+	 */
+	private void parsePolynomial() {
+		char operator = 0;
+		while (true) {
+			parseMonomial();
+			if (operator != 0) builder.operator(operator);
+			int next = peek();
+			if (next == END) break;
+			if (next == PARENTHESIS && peekChar == ')') break;
+			read();
+			operator = tokenChar;
+		}
+	}
+
+	/**
+	 * 単項式を解析する。 数値、括弧、負の数、変数を "*", "/" または暗黙の乗算で結合する。
+	 */
+	private void parseMonomial() {
+		char operator = 0;
+		while (true) {
+			switch (read()) {
+				case NUMBER -> number(false);
+				case OPERATOR -> parseNegatedTerm(tokenChar);
+				case PARENTHESIS -> parseParenthesizedTerm(tokenChar);
+				case IDENTIFIER -> parseIdentifier();
+				default -> throw new ExpressionParseException("a number or parenthesis", source);
+			}
+			if (operator != 0) builder.operator(operator);
+
+			int next = peek();
+			if (next == END) break;
+			if (next == OPERATOR) {
+				if (peekChar == '+' || peekChar == '-') return;
+				read();
+				operator = tokenChar;
+			} else if (next == PARENTHESIS) {
+				if (peekChar == ')') return;
+				operator = '*';
+			} else {
+				throw new ExpressionParseException("operator or parenthesis", String.valueOf(peekChar), source, pos + 1);
+			}
+		}
+	}
+
+	private void parseParenthesizedTerm(char c) {
+		if (c == '(') {
+			parsePolynomial();
+			if (peek() == END) throw new ExpressionParseException("')'", source);
+			read();
+			return;
+		}
+		throw new ExpressionParseException("'('", String.valueOf(c), source, pos - 1);
+	}
+
+	private void parseNegatedTerm(char c) {
+		if (c != '-') throw new ExpressionParseException("a number or parenthesis", String.valueOf(c), source, pos - 1);
+		switch (read()) {
+			case NUMBER -> number(true);
+			case PARENTHESIS -> {
+				builder.integer(-1);
+				parseParenthesizedTerm(tokenChar);
+				builder.operator('*');
+			}
+			case IDENTIFIER -> {
+				builder.integer(-1);
+				parseIdentifier();
+				builder.operator('*');
+			}
+			case OPERATOR -> throw new ExpressionParseException("a number or parenthesis", String.valueOf(tokenChar), source, pos);
+			default -> throw new ExpressionParseException("a number or parenthesis", source);
+		}
+	}
+
+	private void parseIdentifier() {
+		String name = source.substring(tokenStart, tokenEnd);
+		if (peek() == PARENTHESIS && peekChar == '(')
+			throw new ExpressionParseException("a number or variable", name + "(", source, pos - name.length());
+		builder.variable(name);
+	}
+
+	/**
+	 * 読んだ数値を木に追加する。 long に収まり Long.toString と同じ表記の整数は、文字列を作らずに値を格納する。
+	 */
+	private void number(boolean negative) {
+		int digits = tokenEnd - tokenStart;
+		if (digits <= 18 && (digits == 1 || source.charAt(tokenStart) != '0')) {
+			long value = 0;
+			int i = tokenStart;
+			for (; i < tokenEnd; i++) {
+				char c = source.charAt(i);
+				if (c < '0' || c > '9') break;
+				value = value * 10 + (c - '0');
+			}
+			if (i == tokenEnd && !(negative && value == 0)) {
+				builder.integer(negative ? -value : value);
+				return;
+			}
+		}
+		String symbol = source.substring(tokenStart, tokenEnd);
+		builder.number(negative ? "-" + symbol : symbol);
+	}
+
+	/**
+	 * Reader.read と同じ規則で次の字句を読み、種類を返す。 空白の後で入力が終わった場合や、読めない文字の場合は END。
+	 */
+	private int read() {
+		if (pos >= len) return END;
+		char c = source.charAt(pos++);
+		while (pos < len && c == ' ') c = source.charAt(pos++);
+		switch (c) {
+			case '-', '+', '*', '/':
+				tokenChar = c;
+				return OPERATOR;
+			case '(', ')':
+				tokenChar = c;
+				return PARENTHESIS;
+			case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9':
+				tokenStart = pos - 1;
+				while (pos < len && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) pos++;
+				tokenEnd = pos;
+				return NUMBER;
+			default:
+				if (Reader.isIdentifierStart(c)) {
+					tokenStart = pos - 1;
+					while (pos < len && Reader.isIdentifierPart(source.charAt(pos))) pos++;
+					tokenEnd = pos;
+					return IDENTIFIER;
+				}
+				return END;
+		}
+	}
+
+	/**
+	 * Reader.peek と同じ規則で次の字句の種類を返し、最初の文字を peekChar に入れる。 位置は進めない。
+	 */
+	private int peek() {
+		if (pos >= len) return END;
+		int p = pos;
+		char c = source.charAt(p++);
+		while (p < len && c == ' ') c = source.charAt(p++);
+		peekChar = c;
+		return switch (c) {
+			case '-', '+', '*', '/' -> OPERATOR;
+			case '(', ')' -> PARENTHESIS;
+			case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> NUMBER;
+			case ' ' -> END;
+			default -> IDENTIFIER;
+		};
+	}
+}
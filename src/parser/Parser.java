@@ -1,5 +1,6 @@
 package parser;
 
+import model.Metrics;
 import model.Symbol;
 import model.Term;
 import model.Type;
@@ -9,8 +10,6 @@ import model.Type;
  */
 public class Parser {
 
-	private static String EXPRESSION;
-
 	/**
 	 * 与えられた数式を解析し、抽象構文木（AST）として表現する。
 	 *
@@ -20,8 +19,12 @@ public class Parser {
 	 */
 	public static Term doParse(final String expression) {
 		Reader reader = new Reader(expression);
-		EXPRESSION = expression;
-		return parsePolynomial(reader);
+		if (!Metrics.ENABLED) return parsePolynomial(reader);
+		long start = System.nanoTime();
+		Term term = parsePolynomial(reader);
+		Metrics.PARSE.record(System.nanoTime() - start);
+		Metrics.LEX.record(reader.getLexNanos());
+		return term;
 	}
 
 	/**
@@ -58,12 +61,13 @@ public class Parser {
 		while (true) {
 			Symbol newSymbol = reader.read();
 			if (newSymbol == null)
-				throw new ExpressionParseException("a number or parenthesis", EXPRESSION);
+				throw new ExpressionParseException("a number or parenthesis", reader.getExpression());
 			term = switch (newSymbol.type()) {
 				case NUMBER -> getNextTerm(operator, term, new Term(newSymbol, null, null));
 				case OPERATOR -> getNextTerm(operator, term, parseNegatedTerm(newSymbol, reader));
 				case PARENTHESIS -> getNextTerm(operator, term, perseParenthesizedTerm(newSymbol, reader));
-				case MATHFUNCTION -> throw new ExpressionParseException("comming sooon");
+				case MATHFUNCTION -> getNextTerm(operator, term, parseIdentifier(newSymbol, reader));
+				case VARIABLE -> getNextTerm(operator, term, new Term(newSymbol, null, null));
 			};
 
 			operator = reader.peek();
@@ -80,7 +84,7 @@ public class Parser {
 					operator = new Symbol("*", Type.OPERATOR);
 					break;
 				default:
-					throw new ExpressionParseException("operator or parenthesis", symbol, EXPRESSION, reader.getPosition() + 1);
+					throw new ExpressionParseException("operator or parenthesis", symbol, reader.getExpression(), reader.getPosition() + 1);
 			}
 		}
 		return term;
@@ -98,11 +102,11 @@ public class Parser {
 		if (newSymbol.symbol().equals("(")) {
 			Term term = parsePolynomial(reader);
 			Symbol parenthesis = reader.peek();
-			if (parenthesis == null) throw new ExpressionParseException("')'", EXPRESSION);
+			if (parenthesis == null) throw new ExpressionParseException("')'", reader.getExpression());
 			reader.read();
 			return term;
 		}
-		throw new ExpressionParseException("'('", newSymbol.symbol(), EXPRESSION, reader.getPosition() - 1);
+		throw new ExpressionParseException("'('", newSymbol.symbol(), reader.getExpression(), reader.getPosition() - 1);
 	}
 
 	/**
@@ -124,18 +128,38 @@ public class Parser {
 					Symbol mul = new Symbol("*", Type.OPERATOR);
 					Term left = new Term(new Symbol("-1", Type.NUMBER), null, null);
 					return new Term(mul, left, perseParenthesizedTerm(newSymbol, reader));
+				} else if (newSymbol.type() == Type.MATHFUNCTION) {
+					Symbol mul = new Symbol("*", Type.OPERATOR);
+					Term left = new Term(new Symbol("-1", Type.NUMBER), null, null);
+					return new Term(mul, left, parseIdentifier(newSymbol, reader));
 				} else {
-					throw new ExpressionParseException("a number or parenthesis", newSymbol.symbol(), EXPRESSION,
+					throw new ExpressionParseException("a number or parenthesis", newSymbol.symbol(), reader.getExpression(),
 							reader.getPosition());
 				}
 			} else {
-				throw new ExpressionParseException("a number or parenthesis", EXPRESSION);
+				throw new ExpressionParseException("a number or parenthesis", reader.getExpression());
 			}
 		}
-		throw new ExpressionParseException("a number or parenthesis", newSymbol.symbol(), EXPRESSION,
+		throw new ExpressionParseException("a number or parenthesis", newSymbol.symbol(), reader.getExpression(),
 				reader.getPosition() - 1);
 	}
 
+	/**
+	 * 識別子を処理する。 直後に'('が続かない識別子は変数として扱う。 関数呼び出しは未対応。
+	 *
+	 * @param newSymbol 現在のシンボル（識別子）
+	 * @param reader    入力を管理するReaderオブジェクト
+	 * @return 変数を表現するTermオブジェクト
+	 * @throws ExpressionParseException 関数呼び出しの場合
+	 */
+	private static Term parseIdentifier(Symbol newSymbol, Reader reader) {
+		Symbol next = reader.peek();
+		if (next != null && next.symbol().equals("("))
+			throw new ExpressionParseException("a number or variable", newSymbol.symbol() + "(", reader.getExpression(),
+					reader.getPosition() - newSymbol.symbol().length());
+		return new Term(new Symbol(newSymbol.symbol(), Type.VARIABLE), null, null);
+	}
+
 	/**
 	 * 与えられた演算子で2つのTermオブジェクトを結合する。 演算子が存在しない場合、新しいTermとしてそのまま返す。
 	 *
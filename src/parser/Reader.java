@@ -1,16 +1,20 @@
 package parser;
 
+import model.Metrics;
 import model.Symbol;
 import model.Type;
 
 public class Reader {
+	private final String source;
 	private final char[] expression;
 	private final int len;
 	private int pos;
+	private long lexNanos;
 
 	public Reader(String expression) {
 		pos = 0;
 		len = expression.length();
+		source = expression;
 		this.expression = expression.toCharArray();
 	}
 
@@ -18,7 +22,36 @@ public class Reader {
 		return Character.toString(c);
 	}
 
+	/**
+	 * 識別子の先頭になれる文字（ASCII の英字）かを判定します。
+	 *
+	 * @param c 文字
+	 * @return 識別子の先頭になれる場合はtrue
+	 */
+	public static boolean isIdentifierStart(char c) {
+		return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+	}
+
+	/**
+	 * 識別子の2文字目以降になれる文字（ASCII の英字、数字、'_'）かを判定します。
+	 *
+	 * @param c 文字
+	 * @return 識別子の2文字目以降になれる場合はtrue
+	 */
+	public static boolean isIdentifierPart(char c) {
+		return isIdentifierStart(c) || Character.isDigit(c) || c == '_';
+	}
+
 	public Symbol read() {
+		if (!Metrics.ENABLED) return scan();
+		long start = System.nanoTime();
+		Symbol symbol = scan();
+		lexNanos += System.nanoTime() - start;
+		if (symbol != null) Metrics.TOKENS.increment();
+		return symbol;
+	}
+
+	private Symbol scan() {
 		if (pos >= len) return null;
 		// 空白スペースの読み込み
 		char c = expression[pos++];
@@ -54,11 +87,11 @@ public class Reader {
 				break;
 
 			default:
-				if (('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z')) {
+				if (isIdentifierStart(c)) {
 					StringBuilder sb2 = new StringBuilder(str(c));
 					while (pos < len) {
 						c = expression[pos];
-						if (('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z')) {
+						if (isIdentifierPart(c)) {
 							sb2.append(c);
 							pos++;
 						} else {
@@ -110,4 +143,17 @@ public class Reader {
 		return pos;
 	}
 
+	public String getExpression() {
+		return source;
+	}
+
+	/**
+	 * これまでの read にかかった時間の合計を返します。 計測が無効の場合は常に0です。
+	 *
+	 * @return 字句解析にかかった時間（ナノ秒）
+	 */
+	long getLexNanos() {
+		return lexNanos;
+	}
+
 }
\ No newline at end of file
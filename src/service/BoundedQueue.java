@@ -0,0 +1,126 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 容量固定のロックフリーなキュー。 複数の生産者と消費者から同時に使えます。
+ * 各スロットの通し番号で空き・使用中を判定する、リングバッファ上の MPMC キューです。
+ *
+ * @param <E> 要素の型
+ */
+final class BoundedQueue<E> {
+
+	private static final long MAX_PARK_NANOS = 1_000_000;
+
+	private final AtomicReferenceArray<E> buffer;
+	private final AtomicLongArray sequence;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * コンストラクタ。 容量は2の累乗に切り上げられます。
+	 *
+	 * @param capacity 容量
+	 */
+	BoundedQueue(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		buffer = new AtomicReferenceArray<>(size);
+		sequence = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) sequence.set(i, i);
+		mask = size - 1;
+	}
+
+	/**
+	 * 空きがあれば要素を追加します。
+	 *
+	 * @param e 要素
+	 * @return 追加できた場合はtrue
+	 */
+	boolean offer(E e) {
+		long pos = tail.get();
+		int index;
+		while (true) {
+			index = (int) (pos & mask);
+			long dif = sequence.get(index) - pos;
+			if (dif == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) break;
+				pos = tail.get();
+			} else if (dif < 0) {
+				return false;
+			} else {
+				pos = tail.get();
+			}
+		}
+		buffer.set(index, e);
+		sequence.set(index, pos + 1);
+		return true;
+	}
+
+	/**
+	 * 先頭の要素を取り出します。
+	 *
+	 * @return 先頭の要素、空の場合はnull
+	 */
+	E poll() {
+		long pos = head.get();
+		int index;
+		while (true) {
+			index = (int) (pos & mask);
+			long dif = sequence.get(index) - (pos + 1);
+			if (dif == 0) {
+				if (head.compareAndSet(pos, pos + 1)) break;
+				pos = head.get();
+			} else if (dif < 0) {
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+		E e = buffer.get(index);
+		buffer.set(index, null);
+		sequence.set(index, pos + mask + 1);
+		return e;
+	}
+
+	/**
+	 * 空きができるまで待ってから要素を追加します。
+	 *
+	 * @param e 要素
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 */
+	void put(E e) throws InterruptedException {
+		long park = 0;
+		while (!offer(e)) park = backoff(park);
+	}
+
+	/**
+	 * 要素が入るまで待ってから先頭の要素を取り出します。
+	 *
+	 * @return 先頭の要素
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 */
+	E take() throws InterruptedException {
+		long park = 0;
+		E e;
+		while ((e = poll()) == null) park = backoff(park);
+		return e;
+	}
+
+	/**
+	 * しばらくは回転待ちし、その後は待ち時間を倍にしながら休む。
+	 */
+	private static long backoff(long park) throws InterruptedException {
+		if (Thread.interrupted()) throw new InterruptedException();
+		if (park < 64) {
+			Thread.onSpinWait();
+			return park + 1;
+		}
+		LockSupport.parkNanos(park);
+		return Math.min(park * 2, MAX_PARK_NANOS);
+	}
+}
@@ -0,0 +1,161 @@
+package service;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jdk.jfr.FlightRecorder;
+
+import model.BigFraction;
+import model.EvaluationMonitor;
+import model.Term;
+import parser.Parser;
+
+/**
+ * 数式を非同期に評価するサービス。 評価は指定されたExecutorで行われます。
+ * 期限を過ぎた、または取り消された評価は、次のノードの計算に移る前に中断されるため、
+ * 巨大な BigInteger の計算がスレッドを占有し続けることはありません。
+ * <p>
+ * 各評価は JFR の calculator.Evaluation イベントとして記録されます。
+ */
+public final class Calculator implements AutoCloseable {
+
+	static {
+		// イベントクラスの初回の登録には数百ミリ秒かかることがあるため、最初の評価の期限に含めないよう先に済ませておく
+		FlightRecorder.register(EvaluationEvent.class);
+	}
+
+	private final Executor executor;
+	private final ExecutorService ownedExecutor;
+	private final Duration defaultTimeout;
+	private final ScheduledThreadPoolExecutor timer;
+
+	/**
+	 * プロセッサ数のスレッドで評価し、期限を設けないCalculatorを作成します。
+	 */
+	public Calculator() {
+		this(null, null);
+	}
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param executor       評価に用いるExecutor、null の場合はプロセッサ数のスレッドを持つ専用のExecutor
+	 * @param defaultTimeout 既定の期限、null の場合は期限なし
+	 */
+	public Calculator(Executor executor, Duration defaultTimeout) {
+		if (executor == null) {
+			ownedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "calculator-worker");
+				t.setDaemon(true);
+				return t;
+			});
+			this.executor = ownedExecutor;
+		} else {
+			ownedExecutor = null;
+			this.executor = executor;
+		}
+		this.defaultTimeout = defaultTimeout;
+		timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "calculator-timer");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * 数式を同期的に評価します。 期限は設けません。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 計算結果
+	 * @throws parser.ExpressionParseException 式が不正な場合
+	 * @throws ArithmeticException             0で除算した場合
+	 */
+	public BigFraction evaluate(String expression) {
+		EvaluationEvent event = new EvaluationEvent();
+		event.expression = expression;
+		event.begin();
+		try {
+			BigFraction value = Parser.doParse(expression).calc();
+			event.finish(value, null);
+			return value;
+		} catch (RuntimeException e) {
+			event.finish(null, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * 既定の期限で数式を非同期に評価します。
+	 *
+	 * @param expression 数式の文字列
+	 * @return 計算結果のFuture
+	 */
+	public CompletableFuture<BigFraction> evaluateAsync(String expression) {
+		return evaluateAsync(expression, defaultTimeout);
+	}
+
+	/**
+	 * 期限を指定して数式を非同期に評価します。 期限を過ぎると Future は TimeoutException で完了し、評価は中断されます。
+	 * Future を cancel した場合も評価は中断されます。
+	 *
+	 * @param expression 数式の文字列
+	 * @param timeout    期限、null の場合は期限なし
+	 * @return 計算結果のFuture
+	 */
+	public CompletableFuture<BigFraction> evaluateAsync(String expression, Duration timeout) {
+		CompletableFuture<BigFraction> future = new CompletableFuture<>();
+		long deadline = timeout == null ? 0 : System.nanoTime() + timeout.toNanos();
+		ScheduledFuture<?> expiry = timeout == null ? null : timer.schedule(
+				() -> future.completeExceptionally(new TimeoutException("Evaluation timed out after " + timeout)),
+				timeout.toNanos(), TimeUnit.NANOSECONDS);
+		EvaluationMonitor monitor = (term, value) -> {
+			if (future.isDone() || Thread.currentThread().isInterrupted()) throw new CancellationException();
+			if (timeout != null && System.nanoTime() - deadline > 0) {
+				future.completeExceptionally(new TimeoutException("Evaluation timed out after " + timeout));
+				throw new CancellationException();
+			}
+		};
+		try {
+			executor.execute(() -> {
+				if (future.isDone()) return;
+				EvaluationEvent event = new EvaluationEvent();
+				event.expression = expression;
+				event.begin();
+				try {
+					Term term = Parser.doParse(expression);
+					BigFraction value = term.calc(monitor);
+					event.finish(value, null);
+					future.complete(value);
+				} catch (CancellationException e) {
+					event.finish(null, e);
+					future.cancel(false);
+				} catch (Throwable e) {
+					// StackOverflowError なども Future に伝え、期限のない呼び出し元が待ち続けないようにする
+					event.finish(null, e);
+					future.completeExceptionally(e);
+				} finally {
+					if (expiry != null) expiry.cancel(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			if (expiry != null) expiry.cancel(false);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	@Override
+	public void close() {
+		timer.shutdownNow();
+		if (ownedExecutor != null) ownedExecutor.shutdownNow();
+	}
+}
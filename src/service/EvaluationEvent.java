@@ -0,0 +1,49 @@
+package service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import model.BigFraction;
+
+/**
+ * Calculator による1回の評価を表す JFR イベント。 JFR で記録していない間は begin/commit はほぼ何もしません。
+ */
+@Name("calculator.Evaluation")
+@Label("Expression Evaluation")
+@Category("Calculator")
+@Description("Parse and evaluation of one expression by the Calculator service")
+@StackTrace(false)
+final class EvaluationEvent extends Event {
+
+	@Label("Expression")
+	String expression;
+
+	@Label("Success")
+	boolean success;
+
+	@Label("Error")
+	String error;
+
+	@Label("Result Bits")
+	@Description("Larger of the numerator and denominator bit lengths of the result")
+	int resultBits;
+
+	/**
+	 * 評価の結果を記録してイベントを確定します。 記録対象でない場合は何もしません。
+	 *
+	 * @param value 計算結果、失敗した場合は null
+	 * @param e     失敗の原因、成功した場合は null
+	 */
+	void finish(BigFraction value, Throwable e) {
+		end();
+		if (!shouldCommit()) return;
+		success = e == null;
+		if (value != null) resultBits = Math.max(value.numerator().bitLength(), value.denominator().bitLength());
+		if (e != null) error = e.toString();
+		commit();
+	}
+}
@@ -0,0 +1,60 @@
+package service;
+
+import java.util.Objects;
+
+import model.BigFraction;
+
+/**
+ * 1つの数式の評価結果。 成功した場合は値を、失敗した場合はエラーメッセージを持ちます。
+ *
+ * @param sequence   入力の通し番号（0 から始まる）
+ * @param expression 数式の文字列
+ * @param value      計算結果、失敗した場合は null
+ * @param error      エラーメッセージ、成功した場合は null
+ */
+public record EvaluationOutcome(long sequence, String expression, BigFraction value, String error) {
+
+	/**
+	 * 成功した評価結果を作成します。
+	 *
+	 * @param sequence   入力の通し番号
+	 * @param expression 数式の文字列
+	 * @param value      計算結果
+	 * @return 評価結果
+	 */
+	public static EvaluationOutcome success(long sequence, String expression, BigFraction value) {
+		return new EvaluationOutcome(sequence, expression, value, null);
+	}
+
+	/**
+	 * 失敗した評価結果を作成します。
+	 *
+	 * @param sequence   入力の通し番号
+	 * @param expression 数式の文字列
+	 * @param error      エラーメッセージ
+	 * @return 評価結果
+	 * @throws NullPointerException error が null の場合
+	 */
+	public static EvaluationOutcome failure(long sequence, String expression, String error) {
+		return new EvaluationOutcome(sequence, expression, null, Objects.requireNonNull(error, "error"));
+	}
+
+	/**
+	 * 評価が成功したかどうかを返します。
+	 *
+	 * @return 成功した場合はtrue
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * 行プロトコルと同じ形式の文字列を返します。
+	 *
+	 * @return 計算結果の分数、または "error: " で始まるメッセージ
+	 */
+	@Override
+	public String toString() {
+		return isSuccess() ? value.toString() : "error: " + error;
+	}
+}
@@ -0,0 +1,214 @@
+package service;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.EvaluationMonitor;
+import parser.ExpressionParseException;
+import parser.Parser;
+
+/**
+ * 流れてくる数式を解析・評価し、評価結果を流す Flow.Processor。
+ * 数式は Executor で並列に評価されますが、結果は受け取った順に流れます。
+ * <p>
+ * 上流には「評価中と未着の数式の合計」が上限を超えない分だけ要求するため、下流が要求しない間は
+ * 上流からの受け取りも止まります。 式の誤りや0除算は失敗の評価結果として流れ、ストリームは終了しません。
+ * 購読者は1つだけ登録できます。
+ */
+public final class EvaluationProcessor implements Flow.Processor<String, EvaluationOutcome> {
+
+	private final Executor executor;
+	private final int maxInFlight;
+	private final Queue<CompletableFuture<EvaluationOutcome>> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicLong demand = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final EvaluationMonitor monitor;
+
+	private volatile Flow.Subscription upstream;
+	private volatile Flow.Subscriber<? super EvaluationOutcome> downstream;
+	private volatile boolean done;
+	private volatile boolean cancelled;
+	private volatile Throwable failure;
+	private long sequence;
+	private long requested;
+	private long emitted;
+	private boolean terminated;
+
+	/**
+	 * 共通のForkJoinPoolで評価し、プロセッサ数の4倍まで同時に評価するProcessorを作成します。
+	 */
+	public EvaluationProcessor() {
+		this(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param executor    評価に用いるExecutor
+	 * @param maxInFlight 上流に要求して、まだ下流に流していない数式の上限
+	 */
+	public EvaluationProcessor(Executor executor, int maxInFlight) {
+		if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight <= 0: " + maxInFlight);
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.monitor = (term, value) -> {
+			if (cancelled) throw new CancellationException();
+		};
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super EvaluationOutcome> subscriber) {
+		synchronized (this) {
+			if (downstream == null) {
+				downstream = subscriber;
+				subscriber.onSubscribe(new Subscription());
+				drain();
+				return;
+			}
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+			}
+
+			@Override
+			public void cancel() {
+			}
+		});
+		subscriber.onError(new IllegalStateException("EvaluationProcessor supports only one subscriber"));
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null || cancelled) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		drain();
+	}
+
+	@Override
+	public void onNext(String expression) {
+		long seq = sequence++;
+		CompletableFuture<EvaluationOutcome> future;
+		try {
+			future = CompletableFuture.supplyAsync(() -> evaluate(seq, expression), executor);
+		} catch (RejectedExecutionException e) {
+			future = CompletableFuture.completedFuture(EvaluationOutcome.failure(seq, expression, "rejected: " + e.getMessage()));
+		}
+		pending.add(future);
+		future.whenComplete((r, e) -> drain());
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		failure = throwable;
+		done = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		drain();
+	}
+
+	private EvaluationOutcome evaluate(long seq, String expression) {
+		try {
+			return EvaluationOutcome.success(seq, expression, Parser.doParse(expression).calc(monitor));
+		} catch (ExpressionParseException | ArithmeticException | IllegalStateException | NumberFormatException e) {
+			// 中断時の CancellationException などメッセージのない例外は、例外の名前を失敗の理由にする
+			return EvaluationOutcome.failure(seq, expression, e.getMessage() != null ? e.getMessage() : e.toString());
+		} catch (Throwable e) {
+			// 深すぎる入れ子による StackOverflowError なども、その数式だけの失敗として流す
+			return EvaluationOutcome.failure(seq, expression, e.toString());
+		}
+	}
+
+	/**
+	 * 先頭から評価の終わった結果を要求された数だけ流し、空いた分を上流に要求する。
+	 * 同時に呼ばれても1つのスレッドだけが処理し、他の呼び出しはそのスレッドにもう一周させる。
+	 */
+	private void drain() {
+		if (wip.getAndIncrement() != 0) return;
+		int missed = 1;
+		do {
+			Flow.Subscriber<? super EvaluationOutcome> subscriber = downstream;
+			if (cancelled) {
+				pending.clear();
+			} else if (subscriber != null && !terminated) {
+				long r = demand.get();
+				long e = 0;
+				while (e != r) {
+					CompletableFuture<EvaluationOutcome> head = pending.peek();
+					if (head == null || !head.isDone()) break;
+					pending.poll();
+					if (head.isCompletedExceptionally()) {
+						// evaluate は例外を投げないため通常は起きないが、起きた場合もストリームを止めずに終了を伝える
+						terminated = true;
+						cancelled = true;
+						Flow.Subscription s = upstream;
+						if (s != null) s.cancel();
+						Throwable cause = head.handle((v, t) -> t).join();
+						subscriber.onError(cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+						break;
+					}
+					subscriber.onNext(head.join());
+					e++;
+				}
+				emitted += e;
+				if (e != 0 && r != Long.MAX_VALUE) demand.addAndGet(-e);
+				boolean finished = done;
+				if (terminated) {
+					pending.clear();
+				} else if (finished && pending.isEmpty()) {
+					terminated = true;
+					if (failure != null) subscriber.onError(failure);
+					else subscriber.onComplete();
+				} else if (!finished && upstream != null) {
+					long room = maxInFlight - (requested - emitted);
+					if (room > 0) {
+						requested += room;
+						upstream.request(room);
+					}
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	/**
+	 * 下流の購読者に渡す購読。
+	 */
+	private final class Subscription implements Flow.Subscription {
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				downstream.onError(new IllegalArgumentException("non-positive request: " + n));
+				return;
+			}
+			demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			Flow.Subscription s = upstream;
+			if (s != null) s.cancel();
+			drain();
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import parser.ExpressionParseException;
+import parser.Parser;
+
+/**
+ * 1行1数式の行プロトコルで数式を評価するサーバー。 TCP と Unix ドメインソケットの両方で待ち受けられます。
+ * <p>
+ * 各接続は仮想スレッドで処理されます（Java 21 未満では通常のスレッド）。 受け取った数式は小さなバッチにまとめて
+ * 共有のワーカーに渡され、結果は受け取った順に返されます。 クライアントは応答を待たずに続けて送信できます。
+ * 受け付けてから応答を書き終えるまでの数式の数が上限に達すると読み込みを止めるため、TCP の流量制御によって送信側が待たされます。
+ * 応答を読まずに送り続けるクライアントも、接続ごとの応答待ちの数と1行の長さの上限を超えてメモリを使うことはありません。
+ * <p>
+ * 応答は計算結果の分数、または "error: " で始まるメッセージです。
+ */
+public final class EvaluationServer implements AutoCloseable {
+
+	private static final CompletableFuture<String> END = CompletableFuture.completedFuture(null);
+	/** 1つの接続で応答を書き出す前に溜めておける数式の数 */
+	private static final int MAX_PENDING = 1024;
+	/** 1行の長さの上限（バイト）。 システムプロパティ "calculator.maxLineBytes" で変更できる */
+	private static final int MAX_LINE_BYTES = Integer.getInteger("calculator.maxLineBytes", 1 << 24);
+
+	private final ServerSocketChannel server;
+	private final SocketAddress address;
+	private final ExecutorService connections;
+	private final ExecutorService workers;
+	private final Semaphore inFlight;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final int maxBatch;
+	private final Thread acceptor;
+	private final Thread dispatcher;
+	private volatile boolean closed;
+
+	/**
+	 * 既定の設定（ワーカー数はプロセッサ数、処理中の上限 65536、バッチの上限 64）でサーバーを起動します。
+	 *
+	 * @param address 待ち受けるアドレス（InetSocketAddress または UnixDomainSocketAddress）
+	 * @throws IOException 待ち受けを開始できない場合
+	 */
+	public EvaluationServer(SocketAddress address) throws IOException {
+		this(address, Runtime.getRuntime().availableProcessors(), 65536, 64);
+	}
+
+	/**
+	 * サーバーを起動します。
+	 *
+	 * @param address     待ち受けるアドレス（InetSocketAddress または UnixDomainSocketAddress）
+	 * @param workers     数式を評価するスレッドの数
+	 * @param maxInFlight 受け付けてまだ応答を書き終えていない数式の上限
+	 * @param maxBatch    1回にまとめて評価する数式の上限
+	 * @throws IOException 待ち受けを開始できない場合
+	 */
+	public EvaluationServer(SocketAddress address, int workers, int maxInFlight, int maxBatch) throws IOException {
+		if (workers <= 0 || maxInFlight <= 0 || maxBatch <= 0) throw new IllegalArgumentException("limits must be positive");
+		if (address instanceof UnixDomainSocketAddress unix) {
+			Files.deleteIfExists(unix.getPath());
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address, 1024);
+		this.address = server.getLocalAddress();
+		this.connections = newConnectionExecutor();
+		this.workers = Executors.newFixedThreadPool(workers, daemon("evaluation-worker"));
+		this.inFlight = new Semaphore(maxInFlight);
+		this.maxBatch = maxBatch;
+		acceptor = daemon("evaluation-acceptor").newThread(this::accept);
+		dispatcher = daemon("evaluation-dispatcher").newThread(this::dispatch);
+		acceptor.start();
+		dispatcher.start();
+	}
+
+	/**
+	 * 待ち受けているアドレスを返します。 ポート番号0で起動した場合は実際のポート番号を含みます。
+	 *
+	 * @return 待ち受けているアドレス
+	 */
+	public SocketAddress address() {
+		return address;
+	}
+
+	/**
+	 * 1行の数式を評価し、応答の文字列を返します。
+	 *
+	 * @param line 数式の文字列
+	 * @return 計算結果、またはエラーメッセージ
+	 */
+	public static String evaluate(String line) {
+		try {
+			return Parser.doParse(line).calc().toString();
+		} catch (ExpressionParseException | ArithmeticException | IllegalStateException | NumberFormatException e) {
+			return "error: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * "ポート番号" または "unix:パス" の形式の文字列からアドレスを作成します。
+	 *
+	 * @param s アドレスの文字列
+	 * @return アドレス
+	 */
+	public static SocketAddress parseAddress(String s) {
+		if (s.startsWith("unix:")) return UnixDomainSocketAddress.of(s.substring(5));
+		return new InetSocketAddress(Integer.parseInt(s));
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		acceptor.interrupt();
+		dispatcher.interrupt();
+		connections.shutdownNow();
+		workers.shutdownNow();
+		if (address instanceof UnixDomainSocketAddress unix) Files.deleteIfExists(unix.getPath());
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				SocketChannel channel = server.accept();
+				connections.execute(() -> serve(channel));
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (closed) return;
+			}
+		}
+	}
+
+	/**
+	 * 1つの接続を処理する。 読み込んだ数式の結果を順番待ちの列に入れ、別のスレッドが順に書き出す。
+	 * Channels のストリームは読み書きで同じロックを取るため、チャネルを直接読み書きする。
+	 * 順番待ちの列が一杯になると、書き出しが進むまで読み込みを止める。
+	 */
+	private void serve(SocketChannel channel) {
+		BlockingQueue<CompletableFuture<String>> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+		CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> write(channel, pending), connections);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			boolean tooLong = false;
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (b != '\n') {
+						// 長すぎる行は改行まで読み捨て、エラーを返す
+						if (line.size() < MAX_LINE_BYTES) line.write(b);
+						else tooLong = true;
+						continue;
+					}
+					inFlight.acquire();
+					if (tooLong) {
+						pending.put(CompletableFuture.completedFuture("error: line longer than " + MAX_LINE_BYTES + " bytes"));
+					} else {
+						Request request = new Request(line.toString(StandardCharsets.UTF_8).strip());
+						pending.put(request.result);
+						queue.put(request);
+					}
+					line.reset();
+					tooLong = false;
+				}
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			// 接続が切れた場合は書き出し側も終了させる
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				pending.put(END);
+				writer.join();
+			} catch (InterruptedException e) {
+				// サーバーが停止した。 書き出し側も割り込まれて終了する
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// 既に閉じている
+			}
+		}
+	}
+
+	/**
+	 * 結果を受け取った順に書き出す。 数式ごとの許可は、応答を書き終えた（または書けなくなった）後に返す。
+	 */
+	private void write(SocketChannel channel, BlockingQueue<CompletableFuture<String>> pending) {
+		StringBuilder out = new StringBuilder();
+		int unwritten = 0;
+		boolean broken = false;
+		try {
+			while (true) {
+				CompletableFuture<String> next = pending.take();
+				if (next == END) break;
+				String response = next.get();
+				if (broken) {
+					inFlight.release();
+					continue;
+				}
+				out.append(response).append('\n');
+				unwritten++;
+				if (pending.isEmpty() || out.length() >= 8192) {
+					broken = !flush(channel, out);
+					inFlight.release(unwritten);
+					unwritten = 0;
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			// サーバーが停止した。 評価の失敗はワーカーが応答の文字列にするため、ここには来ない
+		} finally {
+			if (!broken && unwritten > 0) flush(channel, out);
+			inFlight.release(unwritten);
+		}
+	}
+
+	private static boolean flush(SocketChannel channel, StringBuilder out) {
+		ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(out));
+		out.setLength(0);
+		try {
+			while (bytes.hasRemaining()) channel.write(bytes);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 受け付けた数式をバッチにまとめてワーカーに渡す。
+	 */
+	private void dispatch() {
+		while (!closed) {
+			List<Request> batch = new ArrayList<>(maxBatch);
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, maxBatch - 1);
+			workers.execute(() -> {
+				for (Request request : batch) {
+					try {
+						request.result.complete(evaluate(request.expression));
+					} catch (Throwable e) {
+						// 深すぎる入れ子による StackOverflowError なども、その数式だけのエラーとして返す
+						request.result.complete("error: " + e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * 接続ごとのスレッドを作る。 仮想スレッドが使える場合はそれを使う。
+	 */
+	private static ExecutorService newConnectionExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(daemon("evaluation-connection"));
+		}
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * 評価待ちの数式と、その結果。
+	 */
+	private static final class Request {
+		private final String expression;
+		private final CompletableFuture<String> result = new CompletableFuture<>();
+
+		private Request(String expression) {
+			this.expression = expression;
+		}
+	}
+}
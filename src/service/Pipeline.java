@@ -0,0 +1,285 @@
+package service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import model.BigFraction;
+import model.Term;
+import parser.ExpressionParseException;
+import parser.Parser;
+
+/**
+ * 読み込み・解析・評価・出力の各段階を並行に動かすパイプライン。
+ * 段階の間は容量固定のロックフリーなキューでつながり、段階ごとにスレッド数を設定できます。
+ * 出力は通し番号で並べ直されるため入力と同じ順になります。 巨大な数式の評価中も、他のスレッドが後続の数式の処理を続けます。
+ * 並べ直しを待つ結果も含め、パイプラインの中にある行の数はキューの容量の4倍までで、それを超えると読み込みが待たされます。
+ * <p>
+ * 各行の出力は計算結果の分数、または "error: " で始まるメッセージです。
+ */
+public final class Pipeline implements AutoCloseable {
+
+	private final BoundedQueue<Item> parseQueue;
+	private final BoundedQueue<Item> evaluateQueue;
+	private final BoundedQueue<Item> renderQueue;
+	private final BoundedQueue<Item> outputQueue;
+	private final List<Thread> threads = new ArrayList<>();
+	private final int window;
+
+	/**
+	 * 各段階1スレッド（評価はプロセッサ数）、キューの容量 1024 のパイプラインを作成します。
+	 */
+	public Pipeline() {
+		this(1, Runtime.getRuntime().availableProcessors(), 1, 1024);
+	}
+
+	/**
+	 * コンストラクタ。
+	 *
+	 * @param parsers    字句解析・構文解析のスレッド数
+	 * @param evaluators 評価のスレッド数
+	 * @param renderers  出力文字列を作るスレッド数
+	 * @param capacity   各キューの容量
+	 */
+	public Pipeline(int parsers, int evaluators, int renderers, int capacity) {
+		if (parsers <= 0 || evaluators <= 0 || renderers <= 0)
+			throw new IllegalArgumentException("parallelism must be positive");
+		parseQueue = new BoundedQueue<>(capacity);
+		evaluateQueue = new BoundedQueue<>(capacity);
+		renderQueue = new BoundedQueue<>(capacity);
+		outputQueue = new BoundedQueue<>(capacity);
+		window = 4 * capacity;
+		start("pipeline-parser", parsers, parseQueue, this::parse);
+		start("pipeline-evaluator", evaluators, evaluateQueue, this::evaluate);
+		start("pipeline-renderer", renderers, renderQueue, this::render);
+	}
+
+	/**
+	 * 入力の各行を数式として評価し、結果を1行ずつ出力します。
+	 *
+	 * @param in  入力
+	 * @param out 出力
+	 * @throws IOException 入出力に失敗した場合
+	 */
+	public synchronized void run(BufferedReader in, Writer out) throws IOException {
+		Run run = new Run(window);
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			long seq = 0;
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					run.window.acquire();
+					parseQueue.put(new Item(run, seq++, line));
+				}
+			} catch (IOException e) {
+				failure.set(e);
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				outputQueue.put(new Item(run, seq, null));
+			} catch (InterruptedException e) {
+				// パイプラインが閉じられた
+			}
+		}, "pipeline-reader");
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			drain(run, line -> {
+				try {
+					out.write(line);
+					out.write('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			// 残りの行は捨てる。 キューに残った要素は各段階と次回の drain が読み飛ばす
+			run.cancelled = true;
+			reader.interrupt();
+			throw e.getCause();
+		}
+		if (failure.get() != null) throw failure.get();
+		out.flush();
+	}
+
+	/**
+	 * 数式のリストを評価し、結果を同じ順のリストで返します。
+	 *
+	 * @param lines 数式のリスト
+	 * @return 結果のリスト
+	 */
+	public synchronized List<String> process(List<String> lines) {
+		Run run = new Run(window);
+		List<String> results = new ArrayList<>(lines.size());
+		Thread reader = new Thread(() -> {
+			try {
+				for (int i = 0; i < lines.size(); i++) {
+					run.window.acquire();
+					parseQueue.put(new Item(run, i, lines.get(i)));
+				}
+				outputQueue.put(new Item(run, lines.size(), null));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "pipeline-reader");
+		reader.setDaemon(true);
+		reader.start();
+		if (!drain(run, results::add)) {
+			run.cancelled = true;
+			reader.interrupt();
+		}
+		return results;
+	}
+
+	@Override
+	public void close() {
+		for (Thread t : threads) t.interrupt();
+	}
+
+	/**
+	 * 出力段階。 通し番号の順に並べ直して書き出し、終端の印に達したら戻る。
+	 * 書き出した行の数だけ読み込みの許可を返すため、並べ直しを待つ結果は run.window を超えない。
+	 *
+	 * @return 終端の印に達した場合はtrue、割り込まれた場合はfalse
+	 */
+	private boolean drain(Run run, Consumer<String> sink) {
+		Map<Long, String> waiting = new HashMap<>();
+		long next = 0;
+		long end = Long.MAX_VALUE;
+		try {
+			while (next < end) {
+				Item item = outputQueue.take();
+				// 中断された以前の実行の要素は捨てる
+				if (item.run != run) continue;
+				if (item.line == null) {
+					end = item.seq;
+				} else {
+					waiting.put(item.seq, item.output);
+				}
+				String output;
+				while ((output = waiting.remove(next)) != null) {
+					sink.accept(output);
+					next++;
+					run.window.release();
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void parse(Item item) throws InterruptedException {
+		try {
+			item.term = Parser.doParse(item.line);
+		} catch (ExpressionParseException e) {
+			fail(item, "error: " + e.getMessage());
+			return;
+		} catch (Throwable e) {
+			fail(item, "error: " + e);
+			return;
+		}
+		evaluateQueue.put(item);
+	}
+
+	private void evaluate(Item item) throws InterruptedException {
+		try {
+			item.value = item.term.calc();
+			item.term = null;
+		} catch (ArithmeticException | IllegalStateException | NumberFormatException e) {
+			fail(item, "error: " + e.getMessage());
+			return;
+		} catch (Throwable e) {
+			fail(item, "error: " + e);
+			return;
+		}
+		renderQueue.put(item);
+	}
+
+	private void render(Item item) throws InterruptedException {
+		try {
+			item.output = item.value.toString();
+		} catch (Throwable e) {
+			item.output = "error: " + e;
+		}
+		item.value = null;
+		outputQueue.put(item);
+	}
+
+	/**
+	 * 失敗した行を、エラーメッセージを出力として出力段階に送る。 StackOverflowError なども行ごとのエラーとし、段階のスレッドは止めない。
+	 */
+	private void fail(Item item, String message) throws InterruptedException {
+		item.term = null;
+		item.output = message;
+		outputQueue.put(item);
+	}
+
+	private void start(String name, int count, BoundedQueue<Item> queue, Stage stage) {
+		for (int i = 0; i < count; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					while (true) {
+						Item item = queue.take();
+						if (!item.run.cancelled) stage.process(item);
+					}
+				} catch (InterruptedException e) {
+					// パイプラインが閉じられた
+				}
+			}, name + "-" + i);
+			t.setDaemon(true);
+			t.start();
+			threads.add(t);
+		}
+	}
+
+	/**
+	 * 1つの段階の処理。 処理後の要素は次の段階のキューに入れる。
+	 */
+	@FunctionalInterface
+	private interface Stage {
+		void process(Item item) throws InterruptedException;
+	}
+
+	/**
+	 * run または process の1回分の状態。
+	 */
+	private static final class Run {
+		/** 読み込んでからまだ書き出していない行の数の上限 */
+		private final Semaphore window;
+		private volatile boolean cancelled;
+
+		private Run(int window) {
+			this.window = new Semaphore(window);
+		}
+	}
+
+	/**
+	 * パイプラインを流れる1行分の状態。
+	 */
+	private static final class Item {
+		private final Run run;
+		private final long seq;
+		private final String line;
+		private Term term;
+		private BigFraction value;
+		private String output;
+
+		private Item(Run run, long seq, String line) {
+			this.run = run;
+			this.seq = seq;
+			this.line = line;
+		}
+	}
+}
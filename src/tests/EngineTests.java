@@ -0,0 +1,658 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import engine.BatchEvaluator;
+import engine.BytecodeCompiler;
+import engine.DoubleFormula;
+import engine.Explain;
+import engine.Fingerprinter;
+import engine.FractionFormula;
+import engine.IncrementalEngine;
+import engine.MethodHandleCompiler;
+import engine.MultiModularEngine;
+import engine.Optimizer;
+import engine.PreparedExpression;
+import engine.ResourceGovernor;
+import engine.ResourceLimitExceededException;
+import engine.ResourceLimitExceededException.Resource;
+import engine.TieredEvaluator;
+import engine.TypedExpression;
+import engine.Workbook;
+import model.BigFraction;
+import parser.ExpressionParseException;
+import parser.Parser;
+
+public class EngineTests {
+
+	@Nested
+	public class PreparedExpressionTests {
+
+		@Test
+		void testSlots() {
+			PreparedExpression expr = PreparedExpression.prepare("a*x + b/y");
+			assertArrayEquals(new String[] { "a", "x", "b", "y" }, expr.variables());
+			assertEquals(4, expr.arity());
+			assertEquals(1, expr.slotOf("x"));
+			assertEquals(-1, expr.slotOf("z"));
+			assertEquals(1, PreparedExpression.prepare("x * x - x").arity());
+		}
+
+		@Test
+		void testEvaluate() {
+			PreparedExpression expr = PreparedExpression.prepare("a*x + b/y");
+			assertEquals(new BigFraction(13, 2), expr.evaluate(BigFraction.valueOf(2), BigFraction.valueOf(3),
+					BigFraction.valueOf(1), BigFraction.valueOf(2)));
+			assertEquals(new BigFraction(1, 3), expr.evaluate(BigFraction.ZERO, BigFraction.ONE,
+					BigFraction.ONE, BigFraction.THREE));
+			assertEquals(BigFraction.valueOf(-7), PreparedExpression.prepare("-(x + 4) * 1").evaluate(BigFraction.THREE));
+			assertEquals(BigFraction.valueOf(6), PreparedExpression.prepare("1 + 2 + 3").evaluate());
+		}
+
+		@Test
+		void testLongChain() {
+			StringBuilder sb = new StringBuilder("x");
+			for (int i = 1; i < 100_000; i++) sb.append(" + 1");
+			PreparedExpression expr = PreparedExpression.prepare(sb.toString());
+			assertEquals(BigFraction.valueOf(100_001), expr.evaluate(BigFraction.TWO));
+			assertEquals(100_001.0, expr.evaluateDouble(2));
+		}
+
+		@Test
+		void testEvaluateDouble() {
+			PreparedExpression expr = PreparedExpression.prepare("a*x + b/y");
+			assertEquals(6.5, expr.evaluateDouble(2, 3, 1, 2));
+			assertEquals(-1.5, PreparedExpression.prepare("(x - 1/2) * -y").evaluateDouble(2, 1));
+		}
+
+		@Test
+		void testErrors() {
+			PreparedExpression expr = PreparedExpression.prepare("x / y");
+			assertThrows(IllegalArgumentException.class, () -> expr.evaluate(BigFraction.ONE));
+			assertThrows(ArithmeticException.class, () -> expr.evaluate(BigFraction.ONE, BigFraction.ZERO));
+		}
+	}
+
+	@Nested
+	public class BatchEvaluatorTests {
+
+		@Test
+		void testEvaluate() {
+			PreparedExpression expr = PreparedExpression.prepare("a*x + b/y");
+			BatchEvaluator batch = new BatchEvaluator(expr);
+			int rows = BatchEvaluator.BLOCK_SIZE * 2 + 7;
+			double[][] columns = new double[4][rows];
+			double[] expected = new double[rows];
+			for (int i = 0; i < rows; i++) {
+				columns[0][i] = i;
+				columns[1][i] = 0.5;
+				columns[2][i] = 3;
+				columns[3][i] = i + 1;
+				expected[i] = expr.evaluateDouble(columns[0][i], columns[1][i], columns[2][i], columns[3][i]);
+			}
+			double[] out = new double[rows];
+			batch.evaluate(columns, out);
+			assertArrayEquals(expected, out);
+		}
+
+		@Test
+		void testEvaluateLong() {
+			BatchEvaluator batch = new BatchEvaluator(PreparedExpression.prepare("(x - y) * 2 + 1"));
+			double[] out = new double[3];
+			batch.evaluate(new long[][] { { 1, 2, 3 }, { 3, 2, 1 } }, out);
+			assertArrayEquals(new double[] { -3, 1, 5 }, out);
+			assertArrayEquals(new double[] { 0.5, 1.5 }, batch.evaluate(new double[] { 0, 1 }, new double[] { 0.25, 0.75 }));
+		}
+
+		@Test
+		void testErrors() {
+			BatchEvaluator batch = new BatchEvaluator(PreparedExpression.prepare("x / y"));
+			assertThrows(IllegalArgumentException.class, () -> batch.evaluate(new double[][] { { 1 } }, new double[1]));
+			assertThrows(IllegalArgumentException.class,
+					() -> batch.evaluate(new double[][] { { 1 }, { 1 } }, new double[2]));
+		}
+	}
+
+	@Nested
+	public class BytecodeCompilerTests {
+
+		@Test
+		void testCompile() {
+			PreparedExpression expr = PreparedExpression.prepare("a*x + b/y - 1/3");
+			FractionFormula formula = BytecodeCompiler.compile(expr);
+			BigFraction[] vars = { BigFraction.valueOf(2), BigFraction.valueOf(3), BigFraction.ONE, BigFraction.TWO };
+			assertEquals(expr.evaluate(vars), formula.apply(vars));
+			assertEquals(new BigFraction(37, 6), formula.apply(vars));
+			assertEquals(BigFraction.valueOf(6), BytecodeCompiler.compile(Parser.doParse("1 + 2 + 3")).apply(new BigFraction[0]));
+		}
+
+		@Test
+		void testCompileDouble() {
+			DoubleFormula formula = BytecodeCompiler.compileDouble(PreparedExpression.prepare("a*x + b/y"));
+			assertEquals(6.5, formula.apply(new double[] { 2, 3, 1, 2 }));
+			assertEquals(-0.5, BytecodeCompiler.compileDouble(Parser.doParse("1/2 - 1")).apply(new double[0]));
+		}
+
+		@Test
+		void testManyConstants() {
+			StringBuilder sb = new StringBuilder("x");
+			for (int i = 1; i <= 300; i++) sb.append(" + ").append(i).append("/7");
+			PreparedExpression expr = PreparedExpression.prepare(sb.toString());
+			BigFraction x = new BigFraction(1, 2);
+			assertEquals(expr.evaluate(x), BytecodeCompiler.compile(expr).apply(new BigFraction[] { x }));
+			assertEquals(expr.evaluateDouble(0.5), BytecodeCompiler.compileDouble(expr).apply(new double[] { 0.5 }), 1e-9);
+		}
+
+		@Test
+		void testDivisionByZero() {
+			FractionFormula formula = BytecodeCompiler.compile(PreparedExpression.prepare("1 / x"));
+			assertThrows(ArithmeticException.class, () -> formula.apply(new BigFraction[] { BigFraction.ZERO }));
+		}
+	}
+
+	@Nested
+	public class TieredEvaluatorTests {
+
+		@Test
+		void testPromoteAndEvict() {
+			try (TieredEvaluator tiered = new TieredEvaluator(3, 0, Runnable::run, BytecodeCompiler::compile)) {
+				for (int i = 0; i < 5; i++) {
+					assertEquals(BigFraction.valueOf(i + 1), tiered.evaluate("x + 1", BigFraction.valueOf(i)));
+				}
+				assertEquals(BigFraction.ONEHALF, tiered.evaluate("1 / 2"));
+				TieredEvaluator.Statistics stats = tiered.statistics();
+				assertEquals(1, stats.compiled());
+				assertEquals(1, stats.interpreted());
+				assertEquals(1, stats.promotions());
+				assertEquals(4, stats.interpretedCalls());
+				assertEquals(2, stats.compiledCalls());
+
+				tiered.evictCold();
+				stats = tiered.statistics();
+				assertEquals(0, stats.compiled());
+				assertEquals(1, stats.evictions());
+				assertEquals(BigFraction.TWO, tiered.evaluate("x + 1", BigFraction.ONE));
+			}
+		}
+
+		@Test
+		void testErrors() {
+			try (TieredEvaluator tiered = new TieredEvaluator(0, 0, Runnable::run, BytecodeCompiler::compile)) {
+				assertThrows(IllegalArgumentException.class, () -> tiered.evaluate("x + y", BigFraction.ONE));
+				assertThrows(ArithmeticException.class, () -> tiered.evaluate("1 / x", BigFraction.ZERO));
+			}
+		}
+
+		@Test
+		void testBoundedCache() {
+			try (TieredEvaluator tiered = new TieredEvaluator(1000, 0, Runnable::run, BytecodeCompiler::compile, 8)) {
+				for (int i = 0; i < 100; i++) {
+					assertEquals(BigFraction.valueOf(i + 1), tiered.evaluate(i + " + 1"));
+					assertTrue(tiered.statistics().interpreted() <= 8);
+				}
+				assertEquals(BigFraction.valueOf(100), tiered.evaluate("99 + 1"));
+				assertThrows(IllegalArgumentException.class,
+						() -> new TieredEvaluator(1, 0, Runnable::run, BytecodeCompiler::compile, 0));
+			}
+		}
+
+		@Test
+		void testCompileFailureRetried() {
+			int[] attempts = { 0 };
+			Function<PreparedExpression, FractionFormula> flaky = prepared -> {
+				if (attempts[0]++ == 0) throw new IllegalStateException("temporary failure");
+				return BytecodeCompiler.compile(prepared);
+			};
+			try (TieredEvaluator tiered = new TieredEvaluator(2, 0, Runnable::run, flaky)) {
+				for (int i = 0; i < 4; i++) assertEquals(BigFraction.valueOf(i * 2), tiered.evaluate("x * 2", BigFraction.valueOf(i)));
+				assertEquals(2, attempts[0]);
+				assertEquals(1, tiered.statistics().compiled());
+			}
+			try (TieredEvaluator tiered = new TieredEvaluator(1, 0, task -> {
+				throw new RejectedExecutionException();
+			}, BytecodeCompiler::compile)) {
+				assertEquals(BigFraction.ONE, tiered.evaluate("x", BigFraction.ONE));
+				assertEquals(0, tiered.statistics().compiled());
+			}
+		}
+	}
+
+	@Nested
+	public class MethodHandleCompilerTests {
+
+		@Test
+		void testCompile() {
+			PreparedExpression expr = PreparedExpression.prepare("a*x + b/y - 1/3");
+			FractionFormula formula = MethodHandleCompiler.compile(expr);
+			BigFraction[] vars = { BigFraction.valueOf(2), BigFraction.valueOf(3), BigFraction.ONE, BigFraction.TWO };
+			assertEquals(new BigFraction(37, 6), formula.apply(vars));
+			assertEquals(BigFraction.valueOf(-1), MethodHandleCompiler.compile(Parser.doParse("1 - 2")).apply(new BigFraction[0]));
+			assertThrows(ArithmeticException.class,
+					() -> MethodHandleCompiler.compile(Parser.doParse("1 / (1 - 1)")).apply(new BigFraction[0]));
+		}
+
+		@Test
+		void testCompileDouble() {
+			DoubleFormula formula = MethodHandleCompiler.compileDouble(PreparedExpression.prepare("(x - 1/2) * -y"));
+			assertEquals(-1.5, formula.apply(new double[] { 2, 1 }));
+		}
+
+		@Test
+		void testTiered() {
+			try (TieredEvaluator tiered = new TieredEvaluator(1, 0, Runnable::run, MethodHandleCompiler::compile)) {
+				assertEquals(BigFraction.THREE, tiered.evaluate("x * 3", BigFraction.ONE));
+				assertEquals(BigFraction.valueOf(6), tiered.evaluate("x * 3", BigFraction.TWO));
+				assertEquals(1, tiered.statistics().compiled());
+			}
+		}
+
+		@Test
+		void testDeepNesting() {
+			StringBuilder sb = new StringBuilder("x");
+			for (int i = 1; i < 500; i++) sb.append(" + 1");
+			assertEquals(BigFraction.valueOf(501), MethodHandleCompiler.compile(Parser.doParse(sb.toString())).apply(new BigFraction[] { BigFraction.TWO }));
+			for (int i = 500; i < 100_000; i++) sb.append(" + 1");
+			String chain = sb.toString();
+			assertThrows(IllegalArgumentException.class, () -> MethodHandleCompiler.compileDouble(Parser.doParse(chain)));
+			try (TieredEvaluator tiered = new TieredEvaluator(1, 0, Runnable::run, MethodHandleCompiler::compile)) {
+				assertEquals(BigFraction.valueOf(100_001), tiered.evaluate(chain, BigFraction.TWO));
+				assertEquals(BigFraction.valueOf(100_001), tiered.evaluate(chain, BigFraction.TWO));
+				assertEquals(0, tiered.statistics().compiled());
+			}
+		}
+	}
+
+	@Nested
+	public class IncrementalEngineTests {
+
+		@Test
+		void testLiteralEdit() {
+			IncrementalEngine engine = new IncrementalEngine("1 + 2 * 3 - 4 / 5");
+			assertEquals(Parser.doParse("1 + 2 * 3 - 4 / 5").calc(), engine.value());
+			engine.edit(4, 1, "20");
+			assertEquals("1 + 20 * 3 - 4 / 5", engine.expression());
+			assertEquals(Parser.doParse("1 + 20 * 3 - 4 / 5").calc(), engine.value());
+			engine.edit(18, 0, "0");
+			assertEquals(Parser.doParse("1 + 20 * 3 - 4 / 50").calc(), engine.value());
+			assertEquals(2, engine.statistics().literalEdits());
+			assertEquals(1, engine.statistics().fullReparses());
+			assertEquals(Parser.doParse("1 + 20 * 3 - 4 / 50"), engine.term());
+		}
+
+		@Test
+		void testGroupEdit() {
+			IncrementalEngine engine = new IncrementalEngine("2 * (1 + 3) - -(4 / 2)");
+			engine.edit(7, 1, "-");
+			assertEquals("2 * (1 - 3) - -(4 / 2)", engine.expression());
+			assertEquals(Parser.doParse(engine.expression()).calc(), engine.value());
+			engine.edit(17, 0, " * 3");
+			assertEquals("2 * (1 - 3) - -(4 * 3 / 2)", engine.expression());
+			assertEquals(Parser.doParse(engine.expression()).calc(), engine.value());
+			assertEquals(2, engine.statistics().groupReparses());
+			assertEquals(1, engine.statistics().fullReparses());
+
+			assertThrows(ExpressionParseException.class, () -> engine.edit(4, 1, ""));
+			engine.edit(4, 0, "(");
+			assertEquals(Parser.doParse("2 * (1 - 3) - -(4 * 3 / 2)").calc(), engine.value());
+			assertEquals(3, engine.statistics().fullReparses());
+		}
+
+		@Test
+		void testManyEdits() {
+			StringBuilder sb = new StringBuilder("1");
+			for (int i = 2; i <= 200; i++) sb.append(i % 3 == 0 ? " * (" + i + " - 1/" + i + ")" : " + " + i);
+			IncrementalEngine engine = new IncrementalEngine(sb.toString());
+			assertEquals(Parser.doParse(sb.toString()).calc(), engine.value());
+			java.util.Random random = new java.util.Random(1);
+			for (int n = 0; n < 100; n++) {
+				String s = engine.expression();
+				int pos = s.indexOf(Character.forDigit(1 + random.nextInt(9), 10), random.nextInt(s.length()));
+				if (pos < 0) continue;
+				engine.edit(pos, 1, Integer.toString(1 + random.nextInt(9)));
+				assertEquals(Parser.doParse(engine.expression()).calc(), engine.value());
+			}
+			assertEquals(1, engine.statistics().fullReparses());
+		}
+	}
+
+	@Nested
+	public class WorkbookTests {
+
+		@Test
+		void testRecalculate() {
+			Workbook book = new Workbook();
+			book.define("total = a + b");
+			book.define("a = 3/7 * c");
+			book.define("b = 1/7");
+			book.define("c", "7");
+			assertEquals(BigFraction.valueOf(3), book.get("a"));
+			assertEquals(new BigFraction(22, 7), book.get("total"));
+			book.define("c = 14");
+			assertEquals(3, book.lastRecalculated());
+			assertEquals(new BigFraction(43, 7), book.get("total"));
+			book.define("b = 2");
+			assertEquals(2, book.lastRecalculated());
+			assertEquals(BigFraction.valueOf(8), book.get("total"));
+		}
+
+		@Test
+		void testErrors() {
+			Workbook book = new Workbook();
+			book.define("a = b + 1");
+			assertThrows(IllegalStateException.class, () -> book.get("a"));
+			book.define("b = 1 / c");
+			book.define("c = 0");
+			assertThrows(ArithmeticException.class, () -> book.get("a"));
+			book.define("c = 2");
+			assertEquals(new BigFraction(3, 2), book.get("a"));
+			assertThrows(IllegalArgumentException.class, () -> book.define("c = a * 2"));
+			assertEquals(new BigFraction(3, 2), book.get("a"));
+			assertThrows(IllegalArgumentException.class, () -> book.define("d = d"));
+			assertThrows(IllegalArgumentException.class, () -> book.get("d"));
+			// Reader が識別子として読めない名前は定義できない
+			assertThrows(IllegalArgumentException.class, () -> book.define("é = 1"));
+			assertThrows(IllegalArgumentException.class, () -> book.define("_a = 1"));
+			book.define("x_1 = 1");
+			book.remove("c");
+			assertThrows(IllegalStateException.class, () -> book.get("a"));
+		}
+
+		@Test
+		void testParallel() {
+			Workbook book = new Workbook();
+			java.util.Map<String, String> definitions = new java.util.LinkedHashMap<>();
+			definitions.put("x", "1");
+			StringBuilder sum = new StringBuilder("0");
+			for (int i = 0; i < 500; i++) {
+				definitions.put("f" + i, "x * " + i + " / 3");
+				sum.append(" + f").append(i);
+			}
+			definitions.put("total", sum.toString());
+			book.defineAll(definitions);
+			assertEquals(new BigFraction(124750, 3), book.get("total"));
+			book.define("x = 3");
+			assertEquals(502, book.lastRecalculated());
+			assertEquals(BigFraction.valueOf(124750), book.get("total"));
+		}
+	}
+
+	@Nested
+	public class ResourceGovernorTests {
+
+		private static String repeat(String operand, String operator, int n) {
+			StringBuilder sb = new StringBuilder(operand);
+			for (int i = 1; i < n; i++) sb.append(operator).append(operand);
+			return sb.toString();
+		}
+
+		@Test
+		void testWithinLimits() {
+			ResourceGovernor governor = new ResourceGovernor(64, 100, 4, Duration.ofSeconds(10));
+			assertEquals(new BigFraction(5, 6), governor.evaluate("1/2 + (1/3)"));
+			assertEquals(BigFraction.valueOf(1L << 40), governor.evaluate(repeat("2", " * ", 40)));
+			assertEquals(BigFraction.valueOf(3), ResourceGovernor.UNLIMITED.evaluate("((((1 + 2))))"));
+		}
+
+		@Test
+		void testLimits() {
+			ResourceGovernor governor = new ResourceGovernor(64, 50, 3, null);
+			assertEquals(Resource.BIT_LENGTH,
+					assertThrows(ResourceLimitExceededException.class, () -> governor.evaluate(repeat("2", " * ", 20) + " * 123456789012345678901234567890")).resource());
+			assertEquals(Resource.NODE_COUNT,
+					assertThrows(ResourceLimitExceededException.class, () -> governor.parse(repeat("1", " + ", 100))).resource());
+			assertEquals(Resource.NODE_COUNT,
+					assertThrows(ResourceLimitExceededException.class, () -> governor.parse(repeat("-(1)", " * ", 13))).resource());
+			assertEquals(Resource.DEPTH,
+					assertThrows(ResourceLimitExceededException.class, () -> governor.parse("((((1))))")).resource());
+			assertThrows(ArithmeticException.class, () -> governor.evaluate("1 / 0"));
+		}
+
+		@Test
+		void testNegativeLiterals() {
+			ResourceGovernor governor = new ResourceGovernor(1 << 20, 3, 10, null);
+			assertEquals(BigFraction.valueOf(1), governor.evaluate("-1 - -2"));
+			assertEquals(BigFraction.valueOf(-3), governor.evaluate("- 1 - 2"));
+			assertEquals(Resource.NODE_COUNT,
+					assertThrows(ResourceLimitExceededException.class, () -> governor.parse("-1 - -2 - 3")).resource());
+		}
+
+		@Test
+		void testTreeDepth() {
+			ResourceGovernor governor = new ResourceGovernor(1 << 20, 1 << 20, 2, null);
+			assertEquals(BigFraction.valueOf(-5), governor.evaluate("1 + 2 * (3 - 4) - 4 * 1"));
+			assertEquals(Resource.DEPTH,
+					assertThrows(ResourceLimitExceededException.class, () -> governor.parse("1 + 2 * (3 - 4 / 5)")).resource());
+			assertEquals(BigFraction.valueOf(100_000), governor.evaluate(repeat("1", " + ", 100_000)));
+		}
+
+		@Test
+		void testTimeLimit() {
+			ResourceGovernor governor = new ResourceGovernor(Integer.MAX_VALUE, Integer.MAX_VALUE, 10, Duration.ofMillis(20));
+			StringBuilder sb = new StringBuilder("1");
+			for (int i = 2; i <= 4000; i++) sb.append(" + 1/").append(i);
+			ResourceLimitExceededException e = assertThrows(ResourceLimitExceededException.class, () -> governor.evaluate(sb.toString()));
+			assertEquals(Resource.TIME, e.resource());
+			assertEquals(20, e.limit());
+		}
+	}
+
+	@Nested
+	public class ExplainTests {
+
+		@Test
+		void testAnalyze() {
+			Explain.Node root = Explain.analyze("1/2 + 3*(4 - 1/7)");
+			assertEquals(Parser.doParse("1/2 + 3*(4 - 1/7)").calc(), root.value());
+			assertEquals("add", root.label());
+			assertEquals(2, root.children().size());
+			assertEquals("div", root.children().get(0).label());
+			assertEquals("1", root.children().get(0).children().get(0).label());
+			assertEquals(root.value().numerator().bitLength(), root.numeratorBits());
+			assertEquals(4, root.denominatorBits());
+			assertTrue(root.totalNanos() >= root.children().get(1).totalNanos());
+			assertTrue(root.selfNanos() >= root.gcdNanos());
+			assertEquals(0, root.children().get(0).children().get(0).gcdNanos());
+			assertThrows(ArithmeticException.class, () -> Explain.analyze("1 / (2 - 2)"));
+		}
+
+		@Test
+		void testRender() {
+			Explain.Node root = Explain.analyze("2 * 3");
+			String[] lines = root.toString().split("\n");
+			assertEquals(4, lines.length);
+			assertTrue(lines[0].startsWith("mul(  [time="));
+			assertTrue(lines[0].endsWith(", bits=3/1]"));
+			assertTrue(lines[1].startsWith("  2  [time="));
+			assertEquals(")", lines[3]);
+			String json = root.toJson();
+			assertTrue(json.startsWith("{\"label\":\"mul\",\"totalNanos\":"));
+			assertTrue(json.contains("\"numeratorBits\":3,\"denominatorBits\":1,\"children\":[{\"label\":\"2\""));
+			assertTrue(json.endsWith("\"numeratorBits\":2,\"denominatorBits\":1}]}"));
+		}
+
+		@Test
+		void testLongChain() {
+			StringBuilder sb = new StringBuilder("1");
+			for (int i = 1; i < 100_000; i++) sb.append(" + 1");
+			Explain.Node root = Explain.analyze(sb.toString());
+			assertEquals(BigFraction.valueOf(100_000), root.value());
+			assertEquals("add", root.label());
+			assertEquals(BigFraction.valueOf(99_999), root.children().get(0).value());
+			assertTrue(root.totalNanos() >= root.children().get(0).totalNanos());
+			String[] lines = root.toString().split("\n");
+			assertEquals(2 * 99_999 + 100_000, lines.length);
+			assertTrue(lines[99_999].startsWith("  ".repeat(32) + "1  [time="));
+			assertEquals(")", lines[lines.length - 1]);
+			String json = root.toJson();
+			assertTrue(json.startsWith("{\"label\":\"add\""));
+			assertTrue(json.endsWith("]}"));
+		}
+	}
+
+	@Nested
+	public class OptimizerTests {
+
+		@Test
+		void testReorder() {
+			assertEquals("sub(add(5, sub(add(div(1, 3), div(1, 3)), div(1, 2))), x)",
+					Optimizer.optimize(Parser.doParse("1/3 + 5 - 1/2 + 1/3 - x")).toString());
+			assertEquals("div(mul(mul(2, 3), a), mul(b, c))", Optimizer.optimize(Parser.doParse("a * 2 / b * 3 / c")).toString());
+			assertEquals("sub(sub(x, y), z)", Optimizer.optimize(Parser.doParse("x - (y + z)")).toString());
+		}
+
+		@Test
+		void testSharedFactors() {
+			// 1/6, 1/10, 1/15 は互いに共通の素因数を持つため、互いに素な 1/7 より先にまとめられる
+			assertEquals("add(add(div(1, 15), add(div(1, 6), div(1, 10))), div(1, 7))",
+					Optimizer.optimize(Parser.doParse("1/7 + 1/6 + 1/10 + 1/15")).toString());
+			assertEquals("add(div(1, 7), add(add(div(1, 15), add(div(1, 6), div(1, 10))), 2))",
+					Optimizer.optimize(Parser.doParse("1/6 + 1/7 + 1/10 + 1/15 + 2")).toString());
+		}
+
+		@Test
+		void testSameValue() {
+			String[] expressions = { "1/2 + 1/3 - 1/6 * 4 / 5", "-(2 - 3/4) * (5 + 1/9) / (7 - 1/3)", "10 - 2 - 3 * 4 / 6 / 2",
+					"3 / (4 / (5 / 6)) - (1/7 - 2/7 + 3/7)", "1.25 * 8 - 0.5 / 0.25" };
+			for (String expression : expressions) {
+				assertEquals(Parser.doParse(expression).calc(), Optimizer.optimize(Parser.doParse(expression)).calc(), expression);
+			}
+			StringBuilder harmonic = new StringBuilder("1");
+			for (int i = 2; i <= 500; i++) harmonic.append(" + 1/").append(i);
+			assertEquals(Parser.doParse(harmonic.toString()).calc(), Optimizer.optimize(Parser.doParse(harmonic.toString())).calc());
+			assertThrows(ArithmeticException.class, () -> Optimizer.optimize(Parser.doParse("2 / (3 / 0)")).calc());
+			assertThrows(ArithmeticException.class, () -> Optimizer.optimize(Parser.doParse("1/3 + 2 * (1 / 0)")).calc());
+		}
+	}
+
+	@Nested
+	public class MultiModularEngineTests {
+
+		@Test
+		void testSmall() {
+			MultiModularEngine engine = new MultiModularEngine();
+			String[] expressions = { "1/2 + 1/3", "-(7 - 3/4) * 2.5", "0 * 5", "123456789 * 987654321 - 1/3", "3 / (4 / (5 / 6))" };
+			for (String expression : expressions) assertEquals(Parser.doParse(expression).calc(), engine.evaluate(expression), expression);
+		}
+
+		@Test
+		void testLarge() {
+			MultiModularEngine engine = new MultiModularEngine();
+			StringBuilder product = new StringBuilder("1");
+			for (int i = 2; i <= 600; i++) product.append(" * ").append(i).append("/7");
+			assertEquals(Parser.doParse(product.toString()).calc(), engine.evaluate(product.toString()));
+			StringBuilder harmonic = new StringBuilder("1");
+			for (int i = 2; i <= 300; i++) harmonic.append(" - 1/").append(i);
+			assertEquals(Parser.doParse(harmonic.toString()).calc(), engine.evaluate(harmonic.toString()));
+		}
+
+		@Test
+		void testErrors() {
+			MultiModularEngine engine = new MultiModularEngine();
+			assertThrows(ArithmeticException.class, () -> engine.evaluate("1 / (2 - 2)"));
+			assertThrows(ArithmeticException.class, () -> engine.evaluate("5 / (3 / 0)"));
+			assertThrows(IllegalArgumentException.class, () -> engine.evaluate("x + 1"));
+		}
+	}
+
+	@Nested
+	public class FingerprinterTests {
+
+		@Test
+		void testEqualValues() {
+			Fingerprinter fingerprinter = new Fingerprinter(3, 42);
+			assertEquals(fingerprinter.fingerprint("1/2 + 1/3"), fingerprinter.fingerprint("5/6"));
+			assertEquals(fingerprinter.fingerprint("(2 - 3) * 4 / 6"), fingerprinter.fingerprint(new BigFraction(-2, 3)));
+			assertEquals(fingerprinter.fingerprint("1/2 + 1/3").hashCode(), fingerprinter.fingerprint("10/12").hashCode());
+			assertTrue(!fingerprinter.fingerprint("1/2 + 1/3").equals(fingerprinter.fingerprint("1/2 + 1/4")));
+			assertEquals(new Fingerprinter(3, 42).fingerprint("7/9"), fingerprinter.fingerprint("7/9"));
+			assertTrue(!new Fingerprinter(3, 43).fingerprint("7/9").equals(fingerprinter.fingerprint("7/9")));
+
+			StringBuilder a = new StringBuilder("1");
+			StringBuilder b = new StringBuilder("1");
+			for (int i = 2; i <= 400; i++) {
+				a.append(" + 1/").append(i);
+				b.append(" + 1/").append(402 - i);
+			}
+			assertTrue(fingerprinter.equal(Parser.doParse(a.toString()), Parser.doParse(b.toString())));
+			assertTrue(!fingerprinter.probablyEqual(Parser.doParse(a.toString()), Parser.doParse(b + " + 1/1000000")));
+		}
+
+		@Test
+		void testDivisionByZero() {
+			Fingerprinter fingerprinter = new Fingerprinter(2);
+			assertThrows(ArithmeticException.class, () -> fingerprinter.fingerprint("1 / (3 - 3)"));
+			assertThrows(ArithmeticException.class, () -> fingerprinter.fingerprint("2 / (1 / 0)"));
+			assertThrows(IllegalArgumentException.class, () -> fingerprinter.fingerprint("x"));
+		}
+
+		@Test
+		void testErrorBound() {
+			Fingerprinter fingerprinter = new Fingerprinter(4, 1);
+			assertTrue(fingerprinter.errorBound(1_000_000) < 1e-40);
+			assertTrue(fingerprinter.errorBound(1_000_000) > new Fingerprinter(5, 1).errorBound(1_000_000));
+			// 差の分子は 2·bits ビットになるため、30ビットで割り切る素数の上限が1個増える
+			assertEquals(16 * fingerprinter.errorBound(0), fingerprinter.errorBound(30));
+		}
+	}
+
+	@Nested
+	public class TypedExpressionTests {
+
+		@Test
+		void testInference() {
+			TypedExpression integer = TypedExpression.analyze("12*(3+4)-5");
+			assertTrue(integer.isInteger());
+			assertEquals(1, integer.integerSubtrees());
+			assertEquals(BigInteger.valueOf(79), integer.evaluateInteger());
+			TypedExpression mixed = TypedExpression.analyze("(12*(3+4)-5) / (2*3) + 1/2 * (4-1)");
+			assertFalse(mixed.isInteger());
+			assertEquals(3, mixed.integerSubtrees());
+			assertEquals(Parser.doParse("(12*(3+4)-5) / (2*3) + 1/2 * (4-1)").calc(), mixed.evaluate());
+			assertThrows(IllegalStateException.class, mixed::evaluateInteger);
+			assertFalse(TypedExpression.analyze("1.5 * 2").isInteger());
+			assertTrue(TypedExpression.analyze("2.0 * 3").isInteger());
+		}
+
+		@Test
+		void testOverflow() {
+			String expression = "9223372036854775807 * 9223372036854775807 - 99999999999999999999999 + 3/4";
+			assertEquals(Parser.doParse(expression).calc(), TypedExpression.analyze(expression).evaluate());
+			assertEquals(BigInteger.TWO.pow(64), TypedExpression.analyze("4294967296 * 4294967296").evaluateInteger());
+		}
+
+		@Test
+		void testErrors() {
+			assertThrows(ArithmeticException.class, () -> TypedExpression.analyze("1 / (2 - 2)").evaluate());
+			assertThrows(ArithmeticException.class, () -> TypedExpression.analyze("1/2 / (2 - 2)").evaluate());
+			assertThrows(IllegalStateException.class, () -> TypedExpression.analyze("x + 1").evaluate());
+		}
+
+		@Test
+		void testLongChains() {
+			StringBuilder integers = new StringBuilder("1");
+			StringBuilder fractions = new StringBuilder("1/2");
+			for (int i = 1; i < 100_000; i++) {
+				integers.append(" + 1");
+				fractions.append(" + 1/2 + (2 * 3)");
+			}
+			assertEquals(BigInteger.valueOf(100_000), TypedExpression.analyze(integers.toString()).evaluateInteger());
+			assertEquals(BigInteger.TWO.pow(64).add(BigInteger.valueOf(100_000)),
+					TypedExpression.analyze("4294967296 * 4294967296 + " + integers).evaluateInteger());
+			TypedExpression mixed = TypedExpression.analyze(fractions.toString());
+			assertEquals(99_999, mixed.integerSubtrees());
+			assertEquals(BigFraction.valueOf(649_994), mixed.evaluate());
+		}
+	}
+}
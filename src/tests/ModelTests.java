@@ -2,11 +2,25 @@ package tests;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
 import model.BigFraction;
+import model.CompactTree;
+import model.DecimalExpansion;
+import model.Metrics;
+import model.NumberFormatter;
+import model.OffHeapFraction;
+import model.OffHeapInteger;
+import model.ParallelArithmetic;
 import model.Symbol;
 import model.Term;
 import model.Type;
@@ -248,6 +262,29 @@ public class ModelTests {
 			assertThrows(IllegalArgumentException.class, () -> BigFraction.parseBigFraction(null));
 		}
 
+		@Test
+		void testLimitDenominator() {
+			BigFraction pi = BigFraction.parseBigFraction("3.141592653589793");
+			assertEquals(new BigFraction(22, 7), pi.limitDenominator(10));
+			assertEquals(new BigFraction(355, 113), pi.limitDenominator(1000));
+			assertEquals(new BigFraction(-311, 99), pi.negate().limitDenominator(100));
+			assertEquals(new BigFraction(3), pi.limitDenominator(1));
+			assertEquals(new BigFraction(1, 3), new BigFraction(1, 3).limitDenominator(3));
+			assertThrows(IllegalArgumentException.class, () -> pi.limitDenominator(0));
+		}
+
+		@Test
+		void testBestApproximation() {
+			BigFraction pi = BigFraction.parseBigFraction("3.141592653589793");
+			assertEquals(new BigFraction(22, 7), pi.bestApproximation(new BigFraction(1, 100)));
+			assertEquals(new BigFraction(355, 113), pi.bestApproximation(new BigFraction(1, 1000000)));
+			assertEquals(new BigFraction(1, 3), BigFraction.parseBigFraction("0.333").bestApproximation(new BigFraction(1, 1000)));
+			assertEquals(new BigFraction(-1, 3), BigFraction.parseBigFraction("-0.333").bestApproximation(new BigFraction(1, 1000)));
+			assertEquals(BigFraction.ZERO, new BigFraction(1, 100).bestApproximation(new BigFraction(1, 50)));
+			assertEquals(new BigFraction(5, 7), BigFraction.simplestBetween(new BigFraction(7, 10), new BigFraction(5, 7)));
+			assertEquals(new BigFraction(2), BigFraction.simplestBetween(new BigFraction(3, 2), new BigFraction(5, 2)));
+		}
+
 		@Test
 		void testAbs() {
 			BigFraction a = new BigFraction(10, -9);
@@ -287,6 +324,117 @@ public class ModelTests {
 
 	}
 
+	@Nested
+	public class CompactTreeTests {
+
+		@Test
+		void testBuilder() {
+			CompactTree.Builder builder = new CompactTree.Builder();
+			int a = builder.number("1/2");
+			int b = builder.integer(3);
+			int x = builder.variable("x");
+			builder.operator('*');
+			int root = builder.operator('+');
+			CompactTree tree = builder.build();
+			assertEquals(root, tree.root());
+			assertEquals(a, tree.left(root));
+			assertEquals(CompactTree.MUL, tree.op(tree.right(root)));
+			assertEquals(b, tree.left(tree.right(root)));
+			assertEquals(x, tree.right(tree.right(root)));
+			assertEquals("1/2", tree.symbol(a));
+			assertEquals("3", tree.symbol(b));
+			assertArrayEquals(new String[] { "x" }, tree.variables());
+			assertThrows(IllegalStateException.class, tree::evaluate);
+			assertThrows(IllegalStateException.class, () -> new CompactTree.Builder().operator('+'));
+		}
+
+		@Test
+		void testRoundTrip() {
+			Term one = new Term(new Symbol("1", Type.NUMBER), null, null);
+			Term big = new Term(new Symbol("-12345678901234567890", Type.NUMBER), null, null);
+			Term half = new Term(new Symbol("0.5", Type.NUMBER), null, null);
+			Term term = new Term(new Symbol("/", Type.OPERATOR), new Term(new Symbol("-", Type.OPERATOR), one, big), half);
+			CompactTree tree = CompactTree.of(term);
+			assertEquals(5, tree.size());
+			assertEquals(term, tree.toTerm());
+			assertEquals(term.calc(), tree.evaluate());
+			CompactTree.Builder builder = new CompactTree.Builder();
+			builder.integer(Long.MIN_VALUE);
+			assertEquals("-9223372036854775808", builder.build().symbol(0));
+		}
+	}
+
+	@Nested
+	public class DecimalExpansionTests {
+
+		private String truncated(BigFraction f, int digits) {
+			String s = new BigDecimal(f.numerator()).divide(new BigDecimal(f.denominator()), digits, RoundingMode.DOWN).toPlainString();
+			return s.substring(s.indexOf('.') + 1);
+		}
+
+		@Test
+		void testRepeatingString() {
+			assertEquals("0.(142857)", new BigFraction(1, 7).toRepeatingString(100));
+			assertEquals("0.1(6)", new BigFraction(1, 6).toRepeatingString(100));
+			assertEquals("-0.(3)", new BigFraction(-1, 3).toRepeatingString(100));
+			assertEquals("-1.75", new BigFraction(-7, 4).toRepeatingString(100));
+			assertEquals("5", new BigFraction(5).toRepeatingString(100));
+			assertEquals("0.12(571428)", new BigFraction(22, 175).toRepeatingString(100));
+			assertEquals("0.0103092783...", new BigFraction(1, 97).toRepeatingString(10));
+		}
+
+		@Test
+		void testIterator() {
+			DecimalExpansion digits = new BigFraction(17, 8).decimalDigits();
+			assertEquals(BigInteger.TWO, digits.integerPart());
+			assertEquals(1, digits.nextInt());
+			assertEquals(2, digits.nextInt());
+			assertEquals(5, digits.nextInt());
+			assertFalse(digits.hasNext());
+			assertEquals(3, digits.position());
+			assertEquals("142857142857", DecimalExpansion.digits(new BigFraction(1, 7)).limit(12)
+					.collect(StringBuilder::new, StringBuilder::append, StringBuilder::append).toString());
+		}
+
+		@Test
+		void testResume() {
+			BigFraction f = new BigFraction(BigInteger.TEN.pow(40).add(BigInteger.ONE), BigInteger.valueOf(99991).pow(5));
+			String expected = truncated(f, 3000);
+			DecimalExpansion digits = f.decimalDigits();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 10; i++) sb.append(digits.nextInt());
+			digits.appendDigits(sb, 990);
+			assertEquals(expected.substring(0, 1000), sb.toString());
+			digits.skip(1500);
+			assertEquals(2500, digits.position());
+			sb.setLength(0);
+			assertEquals(500, digits.appendDigits(sb, 500));
+			assertEquals(expected.substring(2500), sb.toString());
+		}
+
+		@Test
+		void testSkipPastEnd() {
+			DecimalExpansion digits = new BigFraction(1, 1024).decimalDigits();
+			digits.skip(3);
+			assertEquals(9, digits.nextInt());
+			digits.skip(100);
+			assertEquals(10, digits.position());
+			assertFalse(digits.hasNext());
+		}
+
+		@Test
+		void testPeriod() {
+			DecimalExpansion digits = new BigFraction(1, 280).decimalDigits();
+			assertEquals(3, digits.preperiod());
+			assertEquals(6, digits.period(100));
+			assertEquals(-1, new BigFraction(1, 97).decimalDigits().period(10));
+			assertEquals(96, new BigFraction(1, 97).decimalDigits().period(100));
+			DecimalExpansion power = new BigFraction(BigInteger.ONE, BigInteger.valueOf(5).pow(100).shiftLeft(3)).decimalDigits();
+			assertEquals(100, power.preperiod());
+			assertEquals(0, power.period(100));
+		}
+	}
+
 	@Nested
 	public class SymbolTests {
 
@@ -321,6 +469,60 @@ public class ModelTests {
 	@Nested
 	public class TermTests {
 
+		private Term number(String s) {
+			return new Term(new Symbol(s, Type.NUMBER), null, null);
+		}
+
+		private Term operator(String op, Term left, Term right) {
+			return new Term(new Symbol(op, Type.OPERATOR), left, right);
+		}
+
+		@Test
+		void testCalcMathContext() {
+			assertEquals(new BigDecimal("0.66667"), operator("+", number("1/3"), number("1/3")).calc(new MathContext(5)));
+			assertEquals(new BigDecimal("0.0066"), operator("/", number("0.033"), number("5")).calc(MathContext.DECIMAL64));
+			Term sum = number("1");
+			for (int i = 2; i <= 2000; i++) sum = operator(i % 3 == 0 ? "-" : "+", sum, operator("/", number("7"), number(i + ".5")));
+			MathContext mc = new MathContext(40, RoundingMode.HALF_EVEN);
+			BigFraction exact = sum.calc();
+			BigDecimal expected = new BigDecimal(exact.numerator()).divide(new BigDecimal(exact.denominator()), mc);
+			assertEquals(expected, sum.calc(mc));
+			assertThrows(ArithmeticException.class, () -> operator("/", number("1"), operator("-", number("2"), number("2"))).calc(mc));
+			assertThrows(ArithmeticException.class, () -> number("1/0").calc(mc));
+			assertThrows(IllegalStateException.class, () -> new Term(new Symbol("x", Type.VARIABLE), null, null).calc(mc));
+			assertThrows(IllegalArgumentException.class, () -> number("1").calc(MathContext.UNLIMITED));
+		}
+
+		@Test
+		void testCalcMathContextLongChain() {
+			Term sum = number("1");
+			for (int i = 2; i <= 100_000; i++) sum = operator("+", sum, number("1/4"));
+			assertEquals(new BigDecimal("25000.75"), sum.calc(MathContext.DECIMAL64));
+		}
+
+		@Test
+		void testCalcApproximate() {
+			Term sum = new Term(new Symbol("1", Type.NUMBER), null, null);
+			for (int i = 2; i <= 300; i++)
+				sum = new Term(new Symbol("+", Type.OPERATOR), sum, new Term(new Symbol("1/" + i, Type.NUMBER), null, null));
+			BigFraction tolerance = new BigFraction(BigInteger.ONE, BigInteger.TEN.pow(30));
+			BigFraction exact = sum.calc();
+			BigFraction approximate = sum.calcApproximate(tolerance);
+			assertTrue(approximate.sub(exact).abs().compareTo(exact.mul(tolerance).mul(300)) <= 0);
+			assertTrue(approximate.denominator().bitLength() <= 110);
+			assertTrue(exact.denominator().bitLength() > 400);
+			assertEquals(exact, sum.calcApproximate(BigFraction.ZERO));
+		}
+
+		@Test
+		void testCalcApproximateLongChain() {
+			Term sum = new Term(new Symbol("1", Type.NUMBER), null, null);
+			for (int i = 2; i <= 100_000; i++)
+				sum = new Term(new Symbol("+", Type.OPERATOR), sum, new Term(new Symbol("1/2", Type.NUMBER), null, null));
+			BigFraction tolerance = new BigFraction(BigInteger.ONE, BigInteger.TEN.pow(30));
+			assertEquals(new BigFraction(100_001, 2), sum.calcApproximate(tolerance));
+		}
+
 		@Test
 		void testAddition() {
 			Term left = new Term(new Symbol("1/3", Type.NUMBER), null, null);
@@ -387,9 +589,296 @@ public class ModelTests {
 		@Test
 		void testTypeEnum() {
 			assertEquals(Type.NUMBER, Type.valueOf("NUMBER"));
+			assertEquals(Type.VARIABLE, Type.valueOf("VARIABLE"));
 			assertEquals(Type.OPERATOR, Type.valueOf("OPERATOR"));
 			assertEquals(Type.MATHFUNCTION, Type.valueOf("MATHFUNCTION"));
 			assertEquals(Type.PARENTHESIS, Type.valueOf("PARENTHESIS"));
 		}
 	}
+
+	@Nested
+	public class MetricsTests {
+
+		@Test
+		void testHistogram() {
+			Metrics.Histogram histogram = new Metrics.Histogram("test", "ns");
+			assertEquals(0, histogram.quantile(0.5));
+			histogram.record(0);
+			histogram.record(1);
+			histogram.record(5);
+			histogram.record(6);
+			histogram.record(1000);
+			assertEquals(5, histogram.count());
+			assertEquals(1012, histogram.sum());
+			long[] buckets = histogram.buckets();
+			assertEquals(1, buckets[0]);
+			assertEquals(1, buckets[1]);
+			assertEquals(2, buckets[3]);
+			assertEquals(1, buckets[10]);
+			assertEquals(7, histogram.quantile(0.6));
+			assertEquals(1023, histogram.quantile(1));
+		}
+
+		@Test
+		void testSnapshot() {
+			Metrics.reset();
+			new BigFraction(1, 2).add(new BigFraction(1, 3));
+			String snapshot = Metrics.snapshot();
+			assertTrue(snapshot.contains("metrics enabled: " + Metrics.ENABLED));
+			assertTrue(snapshot.contains("add: " + (Metrics.ENABLED ? 1 : 0)));
+			assertTrue(snapshot.contains("evaluate: count="));
+			assertTrue(snapshot.contains("operand: count="));
+		}
+	}
+
+	@Nested
+	public class NumberFormatterTests {
+
+		private String format(BigInteger value) {
+			StringBuilder sb = new StringBuilder();
+			NumberFormatter.append(value, sb);
+			return sb.toString();
+		}
+
+		@Test
+		void testInteger() {
+			Random random = new Random(3);
+			for (int bits : new int[] { 1, 62, 63, 64, 200, 1000, 5000, 70000 }) {
+				BigInteger x = new BigInteger(bits, random);
+				assertEquals(x.toString(), format(x));
+				assertEquals(x.negate().toString(), format(x.negate()));
+			}
+			for (int e : new int[] { 18, 19, 64, 100, 1024 }) {
+				BigInteger p = BigInteger.TEN.pow(e);
+				assertEquals(p.toString(), format(p));
+				assertEquals(p.subtract(BigInteger.ONE).toString(), format(p.subtract(BigInteger.ONE)));
+				assertEquals(p.add(BigInteger.ONE).toString(), format(p.add(BigInteger.ONE)));
+			}
+			assertEquals("0", format(BigInteger.ZERO));
+		}
+
+		@Test
+		void testFraction() {
+			BigFraction f = new BigFraction(BigInteger.TEN.pow(50).add(BigInteger.ONE).negate(), BigInteger.TWO.pow(100));
+			assertEquals(f.numerator() + "/" + f.denominator(), f.toString());
+			assertEquals("-7", new BigFraction(-7).toString());
+		}
+
+		@Test
+		void testDecimal() {
+			assertEquals("-0.6667", new BigFraction(-2, 3).toDecimalString(4));
+			assertEquals("0", new BigFraction(-1, 3).toDecimalString(0));
+			assertEquals("3", new BigFraction(5, 2).toDecimalString(0));
+			assertEquals("0.05", new BigFraction(1, 20).toDecimalString(2));
+			assertEquals("12.500%", new BigFraction(1, 8).toPercent(3));
+			assertEquals("-33%", new BigFraction(-1, 3).toPercent(0));
+		}
+
+		@Test
+		void testByteBuffer() {
+			ByteBuffer buffer = ByteBuffer.allocate(64);
+			Appendable out = NumberFormatter.asAppendable(buffer);
+			new BigFraction(-22, 7).appendTo(out);
+			NumberFormatter.appendDecimal(new BigFraction(1, 3), 3, out);
+			assertEquals("-22/70.333", new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Nested
+	public class OffHeapIntegerTests {
+
+		/** 256バイト以上をヒープ外に、4096バイト以上を一時ファイルに置く */
+		private final OffHeapInteger.Allocator allocator = new OffHeapInteger.Allocator(256, 4096,
+				Path.of(System.getProperty("java.io.tmpdir")));
+
+		private OffHeapInteger of(BigInteger value) {
+			return OffHeapInteger.valueOf(value, allocator);
+		}
+
+		@Test
+		void testStorage() {
+			assertEquals(OffHeapInteger.Storage.HEAP, of(BigInteger.TEN).storage());
+			assertEquals(OffHeapInteger.Storage.DIRECT, of(BigInteger.ONE.shiftLeft(4000)).storage());
+			OffHeapInteger mapped = of(BigInteger.ONE.shiftLeft(40000).subtract(BigInteger.ONE));
+			assertEquals(OffHeapInteger.Storage.MAPPED, mapped.storage());
+			assertEquals(40000, mapped.bitLength());
+			assertEquals(BigInteger.ONE.shiftLeft(40000).subtract(BigInteger.ONE), mapped.toBigInteger());
+			assertEquals(OffHeapInteger.Storage.MAPPED, mapped.multiply(mapped).storage());
+		}
+
+		@Test
+		void testMatchesBigInteger() {
+			Random random = new Random(3);
+			for (int i = 0; i < 200; i++) {
+				// 大きい方は Karatsuba 法で分割される長さ（4096語）を超えることがある
+				int bits = i % 20 == 0 ? 200000 : 1 + random.nextInt(3000);
+				BigInteger x = new BigInteger(bits, random);
+				BigInteger y = new BigInteger(1 + random.nextInt(random.nextBoolean() ? bits : 100), random);
+				if (random.nextBoolean()) x = x.negate();
+				if (random.nextBoolean()) y = y.negate();
+				OffHeapInteger a = of(x), b = of(y);
+				assertEquals(x, a.toBigInteger());
+				assertEquals(x.add(y), a.add(b).toBigInteger());
+				assertEquals(x.subtract(y), a.subtract(b).toBigInteger());
+				assertEquals(x.multiply(y), a.multiply(b).toBigInteger());
+				assertEquals(x.compareTo(y), a.compareTo(b));
+				if (y.signum() != 0) {
+					BigInteger[] expected = x.divideAndRemainder(y);
+					OffHeapInteger[] actual = a.divideAndRemainder(b);
+					assertEquals(expected[0], actual[0].toBigInteger());
+					assertEquals(expected[1], actual[1].toBigInteger());
+				}
+			}
+		}
+
+		@Test
+		void testGcd() {
+			Random random = new Random(4);
+			for (int i = 0; i < 50; i++) {
+				BigInteger g = new BigInteger(1 + random.nextInt(2000), random).add(BigInteger.ONE);
+				BigInteger x = new BigInteger(1 + random.nextInt(5000), random).multiply(g);
+				BigInteger y = new BigInteger(1 + random.nextInt(5000), random).multiply(g).negate();
+				assertEquals(x.gcd(y), of(x).gcd(of(y)).toBigInteger());
+			}
+			assertEquals(BigInteger.valueOf(7), of(BigInteger.ZERO).gcd(of(BigInteger.valueOf(-7))).toBigInteger());
+		}
+
+		@Test
+		void testLargeDivision() {
+			Random random = new Random(5);
+			for (int i = 0; i < 40; i++) {
+				// 除数と商がともに64語以上になり、Burnikel-Ziegler 法で割られる
+				int divisorBits = 2048 + random.nextInt(100000);
+				BigInteger y = new BigInteger(divisorBits, random).setBit(divisorBits - 1);
+				BigInteger x = new BigInteger(divisorBits + 2048 + random.nextInt(200000), random);
+				if (i % 4 == 0) y = BigInteger.ONE.shiftLeft(divisorBits).subtract(BigInteger.ONE);
+				if (i % 4 == 1) x = y.multiply(BigInteger.ONE.shiftLeft(divisorBits).subtract(BigInteger.ONE)).add(y.subtract(BigInteger.ONE));
+				if (i % 4 == 2) x = y.multiply(new BigInteger(5000, random));
+				BigInteger[] expected = x.divideAndRemainder(y);
+				OffHeapInteger[] actual = of(x).divideAndRemainder(of(y));
+				assertEquals(expected[0], actual[0].toBigInteger());
+				assertEquals(expected[1], actual[1].toBigInteger());
+				assertEquals(expected[0], of(x).divide(of(y)).toBigInteger());
+			}
+		}
+
+		@Test
+		void testEdgeCases() {
+			OffHeapInteger zero = of(BigInteger.ZERO);
+			assertEquals(0, zero.signum());
+			assertEquals(0, zero.bitLength());
+			assertEquals(zero, of(BigInteger.TEN).subtract(of(BigInteger.TEN)));
+			assertEquals(of(BigInteger.ONE.shiftLeft(64)), of(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE)).add(of(BigInteger.ONE)));
+			assertTrue(of(BigInteger.ONE).isOne());
+			assertFalse(of(BigInteger.ONE).negate().isOne());
+			assertEquals("-12345678901234567890", of(new BigInteger("-12345678901234567890")).toString());
+			assertThrows(ArithmeticException.class, () -> of(BigInteger.TEN).divide(zero));
+		}
+	}
+
+	@Nested
+	public class OffHeapFractionTests {
+
+		private final OffHeapInteger.Allocator allocator = new OffHeapInteger.Allocator(256, 4096,
+				Path.of(System.getProperty("java.io.tmpdir")));
+
+		@Test
+		void testMatchesBigFraction() {
+			Random random = new Random(5);
+			for (int i = 0; i < 50; i++) {
+				BigFraction x = new BigFraction(new BigInteger(1 + random.nextInt(3000), random).negate(),
+						new BigInteger(1 + random.nextInt(3000), random).add(BigInteger.ONE));
+				BigFraction y = new BigFraction(new BigInteger(1 + random.nextInt(3000), random),
+						new BigInteger(1 + random.nextInt(3000), random).add(BigInteger.ONE));
+				// 分母に共通因数を持たせ、約分が必要な場合も確かめる
+				BigFraction z = y.mul(new BigFraction(BigInteger.ONE, x.denominator()));
+				OffHeapFraction a = OffHeapFraction.valueOf(x, allocator);
+				for (BigFraction w : new BigFraction[] { y, z, x }) {
+					OffHeapFraction b = OffHeapFraction.valueOf(w, allocator);
+					assertEquals(x.add(w), a.add(b).toBigFraction());
+					assertEquals(x.sub(w), a.sub(b).toBigFraction());
+					assertEquals(x.mul(w), a.mul(b).toBigFraction());
+					assertEquals(x.div(w), a.div(b).toBigFraction());
+				}
+			}
+		}
+
+		@Test
+		void testNormalizedResult() {
+			OffHeapFraction x = OffHeapFraction.valueOf(new BigFraction(3, 4), allocator);
+			assertEquals(BigInteger.ONE, x.sub(x).denominator().toBigInteger());
+			OffHeapFraction y = x.div(OffHeapFraction.valueOf(new BigFraction(-1, 2), allocator));
+			assertEquals(new BigFraction(-3, 2), y.toBigFraction());
+			assertEquals(1, y.denominator().signum());
+			assertEquals("-3/2", y.toString());
+			assertThrows(ArithmeticException.class, () -> x.div(x.sub(x)));
+		}
+
+		@Test
+		void testEvaluate() {
+			// 1/1 + 1/2 + ... + 1/300 の分子・分母は400ビットを超え、途中から一時ファイルに置かれる
+			Term term = new Term(new Symbol("1", Type.NUMBER), null, null);
+			for (int i = 2; i <= 300; i++) {
+				Term t = new Term(new Symbol("1/" + i, Type.NUMBER), null, null);
+				term = new Term(new Symbol("+", Type.OPERATOR), term, t);
+			}
+			term = new Term(new Symbol("*", Type.OPERATOR), term, new Term(new Symbol("-0.5", Type.NUMBER), null, null));
+			assertEquals(term.calc(), OffHeapFraction.evaluate(term, allocator).toBigFraction());
+			Term x = new Term(new Symbol("x", Type.VARIABLE), null, null);
+			assertThrows(IllegalStateException.class, () -> OffHeapFraction.evaluate(x, allocator));
+		}
+	}
+
+	@Nested
+	public class ParallelArithmeticTests {
+
+		private final ForkJoinPool pool = new ForkJoinPool(4);
+		private final ParallelArithmetic arithmetic = new ParallelArithmetic(pool, 64);
+
+		private BigFraction random(Random random, int bits) {
+			BigInteger n = new BigInteger(bits, random).subtract(BigInteger.ONE.shiftLeft(bits - 1));
+			return new BigFraction(n, new BigInteger(bits, random).add(BigInteger.ONE));
+		}
+
+		@Test
+		void testMultiply() {
+			Random random = new Random(1);
+			for (int bits : new int[] { 10, 100, 1000, 10000 }) {
+				BigInteger x = new BigInteger(bits, random).negate();
+				BigInteger y = new BigInteger(bits / 2 + 1, random);
+				assertEquals(x.multiply(y), arithmetic.multiply(x, y));
+				assertEquals(x.multiply(y), arithmetic.multiply(y, x));
+			}
+			assertEquals(BigInteger.ZERO, arithmetic.multiply(BigInteger.ZERO, BigInteger.TEN.pow(100)));
+		}
+
+		@Test
+		void testMatchesSerial() {
+			Random random = new Random(2);
+			for (int i = 0; i < 50; i++) {
+				BigFraction x = random(random, 200 + random.nextInt(2000));
+				BigFraction y = random(random, 200 + random.nextInt(2000));
+				// 分母に共通因数を持たせ、約分が必要な場合も確かめる
+				BigFraction z = y.mul(new BigFraction(BigInteger.ONE, x.denominator()));
+				for (BigFraction w : new BigFraction[] { y, z, x }) {
+					assertEquals(x.add(w), arithmetic.add(x, w));
+					assertEquals(x.sub(w), arithmetic.sub(x, w));
+					assertEquals(x.mul(w), arithmetic.mul(x, w));
+					if (!w.equals(BigFraction.ZERO)) assertEquals(x.div(w), arithmetic.div(x, w));
+				}
+			}
+		}
+
+		@Test
+		void testNormalizedResult() {
+			BigFraction x = new BigFraction(3, 4);
+			assertEquals(BigFraction.ZERO, arithmetic.sub(x, x));
+			assertEquals(BigInteger.ONE, arithmetic.sub(x, x).denominator());
+			assertEquals(new BigFraction(-3, 2), arithmetic.div(x, new BigFraction(-1, 2)));
+			assertEquals(BigInteger.TWO, arithmetic.div(x, new BigFraction(-1, 2)).denominator());
+			assertEquals(BigFraction.ONE, arithmetic.add(new BigFraction(1, 6), new BigFraction(5, 6)));
+			assertThrows(ArithmeticException.class, () -> arithmetic.div(x, BigFraction.ZERO));
+			assertThrows(IllegalArgumentException.class, () -> new ParallelArithmetic(pool, 0));
+		}
+	}
 }
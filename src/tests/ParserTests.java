@@ -2,14 +2,19 @@ package tests;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigInteger;
 
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import model.CompactTree;
 import model.Symbol;
 import model.Type;
+import parser.CompactParser;
+import parser.ExpressionParseException;
 import parser.Parser;
 import parser.Reader;
 
@@ -42,6 +47,17 @@ public class ParserTests {
 			Parser.doParse("(1 / 2) / 3");
 			Parser.doParse("1 / -(2 / -3)");
 
+			Parser.doParse("a * x + b / y");
+			Parser.doParse("-x * (y1 - 2)");
+
+		}
+
+		@Test
+		void testVariable() {
+			assertEquals("add(mul(a, x), div(b, y))", Parser.doParse("a*x + b/y").toString());
+			assertEquals("mul(-1, x)", Parser.doParse("-x").toString());
+			assertThrows(ExpressionParseException.class, () -> Parser.doParse("sin(1)"));
+			assertThrows(IllegalStateException.class, () -> Parser.doParse("x + 1").calc());
 		}
 	}
 
@@ -111,4 +127,35 @@ public class ParserTests {
 			assertNull(reader.peek());
 		}
 	}
+
+	@Nested
+	public class CompactParserTests {
+
+		@Test
+		void testMatchesParser() {
+			String[] expressions = { "1", "1 + 2 - 3", "1 - -2 * -3", "(1 + (2 + 3)) / 4", "2(3 + 4)(5)", "-(1 + 2) * -x",
+					"007 + 0.50 - 3/4", "-0 + 123456789012345678901234567890", "a*x + b/y - a", "9223372036854775807 - 1", "1 + 2)" };
+			for (String e : expressions) assertEquals(Parser.doParse(e), CompactParser.parse(e).toTerm(), e);
+		}
+
+		@Test
+		void testErrors() {
+			String[] expressions = { "", "1 +", "(1 + 2", "1 2", "+1", "1 * -+2", "f(1)", "1 $ 2", "2 + )" };
+			for (String e : expressions) {
+				ExpressionParseException expected = assertThrows(ExpressionParseException.class, () -> Parser.doParse(e));
+				ExpressionParseException actual = assertThrows(ExpressionParseException.class, () -> CompactParser.parse(e));
+				assertEquals(expected.getMessage(), actual.getMessage(), e);
+			}
+		}
+
+		@Test
+		void testLargeExpression() {
+			StringBuilder sb = new StringBuilder("1");
+			for (int i = 2; i <= 100000; i++) sb.append(i % 3 == 0 ? " * " : " + ").append(i % 1000);
+			CompactTree tree = CompactParser.parse(sb.toString());
+			assertEquals(199999, tree.size());
+			assertEquals(CompactTree.ADD, tree.op(tree.root()));
+			assertTrue(tree.memoryBytes() < 10L * tree.size());
+		}
+	}
 }
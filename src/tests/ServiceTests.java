@@ -0,0 +1,379 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import model.BigFraction;
+import service.Calculator;
+import service.EvaluationOutcome;
+import service.EvaluationProcessor;
+import service.EvaluationServer;
+import service.Pipeline;
+
+public class ServiceTests {
+
+	@Nested
+	public class EvaluationServerTests {
+
+		@Test
+		void testPipelinedTcp() throws IOException {
+			try (EvaluationServer server = new EvaluationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, 4, 3);
+					SocketChannel channel = SocketChannel.open(server.address())) {
+				Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+				BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+				for (int i = 0; i < 100; i++) out.write(i + " / 4\n");
+				out.write("1 / 0\n");
+				out.write("1 +\n");
+				out.flush();
+				for (int i = 0; i < 100; i++) assertEquals(EvaluationServer.evaluate(i + " / 4"), in.readLine());
+				assertTrue(in.readLine().startsWith("error: "));
+				assertTrue(in.readLine().startsWith("error: "));
+			}
+		}
+
+		@Test
+		void testDeeplyNestedLine() throws IOException {
+			try (EvaluationServer server = new EvaluationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 2, 8);
+					SocketChannel channel = SocketChannel.open(server.address())) {
+				Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+				BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+				out.write("1 + 1\n" + "(".repeat(200000) + "1" + ")".repeat(200000) + "\n2 + 2\n");
+				out.flush();
+				assertEquals("2", in.readLine());
+				assertTrue(in.readLine().startsWith("error: "));
+				assertEquals("4", in.readLine());
+			}
+		}
+
+		@Test
+		void testUnixSocket() throws IOException {
+			Path path = Files.createTempDirectory("calc").resolve("calc.sock");
+			try (EvaluationServer server = new EvaluationServer(UnixDomainSocketAddress.of(path));
+					SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+				channel.connect(server.address());
+				Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+				BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+				out.write("1/3 + 1/6\n");
+				out.flush();
+				assertEquals("1/2", in.readLine());
+			}
+		}
+
+		@Test
+		void testParseAddress() {
+			assertEquals(new InetSocketAddress(7070), EvaluationServer.parseAddress("7070"));
+			assertEquals(UnixDomainSocketAddress.of("/tmp/calc.sock"), EvaluationServer.parseAddress("unix:/tmp/calc.sock"));
+		}
+	}
+
+	@Nested
+	public class PipelineTests {
+
+		@Test
+		void testProcess() {
+			List<String> lines = new ArrayList<>();
+			List<String> expected = new ArrayList<>();
+			StringBuilder giant = new StringBuilder("1");
+			for (int i = 2; i < 3000; i++) giant.append(" + 1/").append(i);
+			lines.add(giant.toString());
+			expected.add(EvaluationServer.evaluate(giant.toString()));
+			for (int i = 0; i < 5000; i++) {
+				String line = i % 100 == 0 ? "1 / (" + i + " - " + i + ")" : i % 77 == 0 ? "(" + i : i + " * 2/3";
+				lines.add(line);
+				expected.add(EvaluationServer.evaluate(line));
+			}
+			try (Pipeline pipeline = new Pipeline(2, 3, 2, 16)) {
+				assertEquals(expected, pipeline.process(lines));
+				assertEquals(List.of("2"), pipeline.process(List.of("1 + 1")));
+			}
+		}
+
+		@Test
+		void testRun() throws IOException {
+			StringWriter out = new StringWriter();
+			try (Pipeline pipeline = new Pipeline()) {
+				pipeline.run(new BufferedReader(new StringReader("1/2 + 1/3\n1 / 0\n4 * (2 - 1)\n")), out);
+			}
+			assertEquals("5/6\nerror: / by zero\n4\n", out.toString());
+		}
+
+		@Test
+		void testUnexpectedErrors() {
+			String deep = "(".repeat(200000) + "1" + ")".repeat(200000);
+			String sum = "1" + " + 1".repeat(100000);
+			try (Pipeline pipeline = new Pipeline(1, 1, 1, 1)) {
+				List<String> results = pipeline.process(List.of("1 + 1", deep, sum, "2 + 2"));
+				assertEquals("2", results.get(0));
+				assertTrue(results.get(1).startsWith("error: "));
+				assertEquals("100001", results.get(2));
+				assertEquals("4", results.get(3));
+			}
+		}
+
+		@Test
+		void testFailedRunDoesNotLeak() throws IOException {
+			StringBuilder input = new StringBuilder();
+			for (int i = 0; i < 200; i++) input.append(i).append(" + 1\n");
+			Writer broken = new Writer() {
+				private int lines;
+
+				@Override
+				public void write(char[] cbuf, int off, int len) throws IOException {
+					if (++lines > 3) throw new IOException("closed");
+				}
+
+				@Override
+				public void flush() {
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+			try (Pipeline pipeline = new Pipeline(1, 2, 1, 4)) {
+				assertThrows(IOException.class, () -> pipeline.run(new BufferedReader(new StringReader(input.toString())), broken));
+				assertEquals(List.of("1", "2", "3"), pipeline.process(List.of("0 + 1", "1 + 1", "2 + 1")));
+				StringWriter out = new StringWriter();
+				pipeline.run(new BufferedReader(new StringReader("1/2\n")), out);
+				assertEquals("1/2\n", out.toString());
+			}
+		}
+	}
+
+	@Nested
+	public class CalculatorTests {
+
+		private static String harmonic(int n) {
+			StringBuilder sb = new StringBuilder("1");
+			for (int i = 2; i <= n; i++) sb.append(" + 1/").append(i);
+			return sb.toString();
+		}
+
+		@Test
+		void testEvaluateAsync() throws Exception {
+			try (Calculator calculator = new Calculator()) {
+				assertEquals(new BigFraction(5, 6), calculator.evaluateAsync("1/2 + 1/3").get());
+				assertEquals(new BigFraction(5, 6), calculator.evaluate("1/2 + 1/3"));
+				ExecutionException e = assertThrows(ExecutionException.class, () -> calculator.evaluateAsync("1 / 0").get());
+				assertTrue(e.getCause() instanceof ArithmeticException);
+			}
+		}
+
+		@Test
+		void testDeepExpressions() throws Exception {
+			try (Calculator calculator = new Calculator()) {
+				assertEquals(BigFraction.valueOf(100001), calculator.evaluateAsync("1" + " + 1".repeat(100000)).get(30, TimeUnit.SECONDS));
+				String deep = "(".repeat(200000) + "1" + ")".repeat(200000);
+				ExecutionException e = assertThrows(ExecutionException.class, () -> calculator.evaluateAsync(deep).get(30, TimeUnit.SECONDS));
+				assertTrue(e.getCause() instanceof StackOverflowError);
+			}
+		}
+
+		@Test
+		void testFlightRecorderEvent() throws Exception {
+			Path file = Files.createTempFile("calc", ".jfr");
+			try (Calculator calculator = new Calculator(); Recording recording = new Recording()) {
+				recording.enable("calculator.Evaluation");
+				recording.start();
+				calculator.evaluate("1/2 + 1/3");
+				calculator.evaluateAsync("1 / 0").exceptionally(e -> null).get();
+				recording.stop();
+				recording.dump(file);
+				List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+				assertEquals(2, events.size());
+				RecordedEvent ok = events.stream().filter(e -> e.getBoolean("success")).findFirst().orElseThrow();
+				assertEquals("1/2 + 1/3", ok.getString("expression"));
+				assertEquals(3, ok.getInt("resultBits"));
+				assertTrue(events.stream().anyMatch(e -> !e.getBoolean("success") && e.getString("error").contains("/ by zero")));
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+
+		@Test
+		void testTimeout() throws Exception {
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try (Calculator calculator = new Calculator(executor, Duration.ofMillis(50))) {
+				CompletableFuture<BigFraction> slow = calculator.evaluateAsync(harmonic(4000));
+				ExecutionException e = assertThrows(ExecutionException.class, () -> slow.get(5, TimeUnit.SECONDS));
+				assertTrue(e.getCause() instanceof TimeoutException);
+				assertEquals(BigFraction.TWO, calculator.evaluateAsync("1 + 1").get(5, TimeUnit.SECONDS));
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		@Test
+		void testCancel() throws Exception {
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try (Calculator calculator = new Calculator(executor, null)) {
+				CompletableFuture<BigFraction> slow = calculator.evaluateAsync(harmonic(4000));
+				Thread.sleep(20);
+				slow.cancel(true);
+				assertThrows(CancellationException.class, slow::get);
+				assertEquals(BigFraction.TWO, calculator.evaluateAsync("1 + 1").get(5, TimeUnit.SECONDS));
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Nested
+	public class EvaluationProcessorTests {
+
+		/**
+		 * 要求した数だけ受け取り、受け取った結果を記録する購読者。
+		 */
+		private static final class Collector implements Flow.Subscriber<EvaluationOutcome> {
+			private final List<EvaluationOutcome> items = new ArrayList<>();
+			private final CompletableFuture<List<EvaluationOutcome>> done = new CompletableFuture<>();
+			private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+
+			@Override
+			public void onSubscribe(Flow.Subscription s) {
+				subscription.set(s);
+			}
+
+			@Override
+			public synchronized void onNext(EvaluationOutcome item) {
+				items.add(item);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				done.completeExceptionally(throwable);
+			}
+
+			@Override
+			public synchronized void onComplete() {
+				done.complete(items);
+			}
+
+			synchronized int size() {
+				return items.size();
+			}
+		}
+
+		@Test
+		void testOrderAndErrors() throws Exception {
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			SubmissionPublisher<String> publisher = new SubmissionPublisher<>();
+			try {
+				EvaluationProcessor processor = new EvaluationProcessor(executor, 8);
+				Collector collector = new Collector();
+				publisher.subscribe(processor);
+				processor.subscribe(collector);
+				collector.subscription.get().request(Long.MAX_VALUE);
+				List<String> expected = new ArrayList<>();
+				for (int i = 0; i < 500; i++) {
+					String line = i % 50 == 0 ? i + " / 0" : i % 45 == 0 ? i + " +" : i + " * 2/3";
+					publisher.submit(line);
+					expected.add(EvaluationServer.evaluate(line));
+				}
+				publisher.close();
+				List<EvaluationOutcome> outcomes = collector.done.get(10, TimeUnit.SECONDS);
+				assertEquals(500, outcomes.size());
+				for (int i = 0; i < 500; i++) {
+					assertEquals(i, outcomes.get(i).sequence());
+					assertEquals(expected.get(i), outcomes.get(i).toString());
+				}
+				assertTrue(!outcomes.get(0).isSuccess());
+				assertEquals(new BigFraction(2, 3), outcomes.get(1).value());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		@Test
+		void testDemand() throws Exception {
+			SubmissionPublisher<String> publisher = new SubmissionPublisher<>();
+			EvaluationProcessor processor = new EvaluationProcessor(Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			}), 4);
+			Collector collector = new Collector();
+			publisher.subscribe(processor);
+			processor.subscribe(collector);
+			for (int i = 0; i < 20; i++) publisher.offer(i + " + 1", null);
+			Thread.sleep(100);
+			assertEquals(0, collector.size());
+			collector.subscription.get().request(3);
+			Thread.sleep(100);
+			assertEquals(3, collector.size());
+			assertTrue(publisher.estimateMaximumLag() >= 20 - 3 - 4);
+			collector.subscription.get().request(Long.MAX_VALUE);
+			publisher.close();
+			List<EvaluationOutcome> outcomes = collector.done.get(10, TimeUnit.SECONDS);
+			assertEquals(20, outcomes.size());
+			assertEquals("20", outcomes.get(19).toString());
+		}
+
+		@Test
+		void testDeepExpressions() throws Exception {
+			SubmissionPublisher<String> publisher = new SubmissionPublisher<>();
+			EvaluationProcessor processor = new EvaluationProcessor();
+			Collector collector = new Collector();
+			publisher.subscribe(processor);
+			processor.subscribe(collector);
+			collector.subscription.get().request(Long.MAX_VALUE);
+			publisher.submit("1 + 1");
+			publisher.submit("1" + " + 1".repeat(100000));
+			publisher.submit("(".repeat(200000) + "1" + ")".repeat(200000));
+			publisher.submit("2 + 2");
+			publisher.close();
+			List<EvaluationOutcome> outcomes = collector.done.get(30, TimeUnit.SECONDS);
+			assertEquals(4, outcomes.size());
+			assertEquals("2", outcomes.get(0).toString());
+			assertEquals("100001", outcomes.get(1).toString());
+			assertTrue(!outcomes.get(2).isSuccess());
+			assertEquals("4", outcomes.get(3).toString());
+		}
+
+		@Test
+		void testFailureWithoutMessage() {
+			assertThrows(NullPointerException.class, () -> EvaluationOutcome.failure(0, "1 + 1", null));
+			EvaluationOutcome outcome = EvaluationOutcome.failure(0, "1 + 1", new CancellationException().toString());
+			assertTrue(!outcome.isSuccess());
+			assertEquals("java.util.concurrent.CancellationException", outcome.error());
+		}
+	}
+}